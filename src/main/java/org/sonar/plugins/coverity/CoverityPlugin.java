@@ -18,8 +18,12 @@ import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.resources.Qualifiers;
 import org.sonar.plugins.coverity.metrics.CoverityPluginMetrics;
 import org.sonar.plugins.coverity.batch.CoveritySensor;
+import org.sonar.plugins.coverity.batch.DefectPrefetcher;
+import org.sonar.plugins.coverity.defect.SharedDefectIndex;
 import org.sonar.plugins.coverity.server.CoverityProfiles;
 import org.sonar.plugins.coverity.server.CoverityRules;
+import org.sonar.plugins.coverity.server.DefectSnapshotCache;
+import org.sonar.plugins.coverity.server.DefectSnapshotWs;
 import org.sonar.plugins.coverity.ui.CoverityWidget;
 import org.sonar.plugins.coverity.server.CppLanguage;
 import org.sonar.plugins.coverity.ws.CIMClientFactory;
@@ -33,9 +37,38 @@ public final class CoverityPlugin implements Plugin {
     public static final String COVERITY_CONNECT_PORT = "sonar.coverity.connect.port";
     public static final String COVERITY_CONNECT_USERNAME = "sonar.coverity.connect.username";
     public static final String COVERITY_CONNECT_PASSWORD = "sonar.coverity.connect.password";
+    public static final String COVERITY_REMOTE_WSDL = "sonar.coverity.ws.remoteWsdl";
+    public static final String COVERITY_XWSS = "sonar.coverity.ws.xwss";
+    public static final String COVERITY_CONNECT_API = "sonar.coverity.connect.api";
+    public static final String COVERITY_SHARD_SIZE = "sonar.coverity.shard.size";
+    public static final String COVERITY_WS_THREADS = "sonar.coverity.ws.threads";
+    public static final String COVERITY_WS_VIRTUAL_THREADS = "sonar.coverity.ws.virtualThreads";
+    public static final String COVERITY_WS_ASYNC = "sonar.coverity.ws.async";
+    public static final String COVERITY_SERVER_FEED = "sonar.coverity.server.feed";
+    public static final String COVERITY_SERVER_REFRESH_INTERVAL = "sonar.coverity.server.refreshInterval";
+    public static final String COVERITY_SERVER_MAX_AGE = "sonar.coverity.server.maxAge";
+    public static final String COVERITY_SERVER_STREAMS = "sonar.coverity.server.streams";
+    public static final String COVERITY_SERVER_PROJECTS = "sonar.coverity.server.projects";
+    public static final String COVERITY_LIMITER_DIRECTORY = "sonar.coverity.limiter.directory";
+    public static final String COVERITY_LIMITER_MAX_CONCURRENT = "sonar.coverity.limiter.maxConcurrent";
+    public static final String COVERITY_LIMITER_MIN_INTERVAL = "sonar.coverity.limiter.minInterval";
     public static final String COVERITY_PROJECT = "sonar.coverity.project";
     public static final String COVERITY_STREAM = "sonar.coverity.stream";
+    public static final String COVERITY_REPORT_PATH = "sonar.coverity.report.path";
+    public static final String COVERITY_SNAPSHOT_SHOW = "sonar.coverity.snapshot.show";
+    public static final String COVERITY_SNAPSHOT_COMPARE = "sonar.coverity.snapshot.compare";
+    public static final String COVERITY_CHANGED_FILES_ONLY = "sonar.coverity.changedFilesOnly";
+    public static final String COVERITY_COMPONENTS = "sonar.coverity.components";
+    public static final String COVERITY_COMPONENTS_AUTO = "sonar.coverity.components.auto";
+    public static final String COVERITY_SOURCE_LAYERS = "sonar.coverity.source.layers";
+    public static final String COVERITY_CACHE_DIRECTORY = "sonar.coverity.cache.directory";
+    public static final String COVERITY_SHARED_CACHE_DIRECTORY = "sonar.coverity.cache.shared.directory";
+    public static final String COVERITY_CACHE_TTL = "sonar.coverity.cache.ttl";
+    public static final String COVERITY_FALLBACK_TIMEOUT = "sonar.coverity.fallback.timeout";
+    public static final String COVERITY_IMPORT_BUDGET = "sonar.coverity.import.budget";
+    public static final String COVERITY_PREFETCH = "sonar.coverity.prefetch";
     public static final String COVERITY_PREFIX = "sonar.coverity.prefix";
+    public static final String COVERITY_PATH_REWRITES = "sonar.coverity.path.rewrites";
     public static final String COVERITY_SOURCE_DIRECTORY = "sonar.coverity.sources.directory";
     public static final String COVERITY_CONNECT_SSL = "sonar.coverity.ssl";
     public static final String COVERITY_C_CPP_SOURCE_FILE_SUFFIXES = "sonar.coverity.cov-cpp.suffixes";
@@ -94,13 +127,228 @@ public final class CoverityPlugin implements Plugin {
                         .type(PropertyType.BOOLEAN)
                         .index(++i)
                         .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_REMOTE_WSDL)
+                        .name("Download WSDL")
+                        .description("Download the web service WSDLs from Coverity Connect at the start of each analysis instead of using the web service definitions bundled in the plugin")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_XWSS)
+                        .name("XWSS authentication")
+                        .description("Secure each web service message with XWSS instead of adding a precomputed WS-Security UsernameToken header")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_CONNECT_API)
+                        .name("Coverity Connect API")
+                        .description("API used to retrieve defects from Coverity Connect: 'soap' for the v9 web services or 'rest' for the v2 REST API of recent versions")
+                        .defaultValue("soap")
+                        .type(PropertyType.SINGLE_SELECT_LIST)
+                        .options("soap", "rest")
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SHARD_SIZE)
+                        .name("Defects Per CID Range")
+                        .description("When greater than 0, the defects are fetched concurrently by CID ranges of about this many defects instead of page by page. Projects are then fetched through their streams")
+                        .defaultValue("0")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_THREADS)
+                        .name("Concurrent Web Service Calls")
+                        .description("Maximum number of web service calls made at the same time by an analysis when fetching several projects or CID ranges")
+                        .defaultValue("4")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_VIRTUAL_THREADS)
+                        .name("Virtual Threads")
+                        .description("Make the concurrent web service calls on virtual threads when the scanner runs on JDK 21 or later, instead of a pool of platform threads")
+                        .defaultValue("true")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_WS_ASYNC)
+                        .name("Asynchronous Web Service Calls")
+                        .description("Fetch the projects, streams and defects with a non-blocking HTTP client that keeps many requests in flight, instead of the JAX-WS runtime. Requires JDK 11 or later to avoid a thread per request")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SERVER_FEED)
+                        .name("Read Defects From SonarQube")
+                        .description("Read the defects from the SonarQube server, which retrieves them from Coverity Connect once per snapshot for all analyses, instead of from Coverity Connect")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .onQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SERVER_REFRESH_INTERVAL)
+                        .name("Server Refresh Interval")
+                        .description("Number of seconds between the checks of the SonarQube server for new snapshots of the streams and projects it keeps the defects of. Requires a restart")
+                        .defaultValue("300")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SERVER_MAX_AGE)
+                        .name("Server Defects Maximum Age")
+                        .description("Number of seconds after which the SonarQube server retrieves the defects again without a new snapshot, e.g. to pick up triage changes")
+                        .defaultValue("3600")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SERVER_STREAMS)
+                        .name("Server Streams")
+                        .description("The streams in Coverity Connect the SonarQube server reads the defects of for the analyses. Other streams are refused")
+                        .type(PropertyType.STRING)
+                        .multiValues(true)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SERVER_PROJECTS)
+                        .name("Server Projects")
+                        .description("The projects in Coverity Connect the SonarQube server reads the defects of for the analyses. Other projects are refused")
+                        .type(PropertyType.STRING)
+                        .multiValues(true)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_LIMITER_DIRECTORY)
+                        .name("Request Limiter Directory")
+                        .description("Directory shared by the analyses of a host to limit their requests to Coverity Connect together. Requests are not limited when empty")
+                        .type(PropertyType.STRING)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_LIMITER_MAX_CONCURRENT)
+                        .name("Maximum Concurrent Requests")
+                        .description("Maximum number of requests to Coverity Connect running at the same time for all the analyses sharing the request limiter directory")
+                        .defaultValue("4")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_LIMITER_MIN_INTERVAL)
+                        .name("Minimum Request Interval")
+                        .description("Minimum number of milliseconds between the starts of two requests to Coverity Connect of the analyses sharing the request limiter directory")
+                        .defaultValue("0")
+                        .type(PropertyType.INTEGER)
+                        .index(++i)
+                        .build(),
                 PropertyDefinition.builder(CoverityPlugin.COVERITY_PROJECT)
                         .name("Coverity Project")
-                        .description("The project in Coverity Connect corresponding to this Sonar project")
+                        .description("The projects in Coverity Connect corresponding to this Sonar project")
+                        .type(PropertyType.STRING)
+                        .multiValues(true)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_STREAM)
+                        .name("Coverity Stream")
+                        .description("The streams in Coverity Connect corresponding to this Sonar project. When set, defects are imported from these streams instead of the projects")
                         .type(PropertyType.STRING)
+                        .multiValues(true)
                         .onlyOnQualifiers(Qualifiers.PROJECT)
                         .index(++i)
                         .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_REPORT_PATH)
+                        .name("Coverity Json Report")
+                        .description("Path to a json report written by 'cov-format-errors --json-output-v7'. When set, defects are imported from this file instead of Coverity Connect")
+                        .type(PropertyType.STRING)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SNAPSHOT_SHOW)
+                        .name("Coverity Snapshot")
+                        .description("Snapshot selector of the analyzed change when a baseline snapshot is set, e.g. 'last()' or a snapshot id")
+                        .defaultValue("last()")
+                        .type(PropertyType.STRING)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SNAPSHOT_COMPARE)
+                        .name("Coverity Baseline Snapshot")
+                        .description("Snapshot selector of the baseline, e.g. a snapshot id of the target branch. When set, only the defects found in the analyzed snapshot and not in the baseline are imported, e.g. for pull request analyses")
+                        .type(PropertyType.STRING)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_CHANGED_FILES_ONLY)
+                        .name("Changed Files Only")
+                        .description("Only fetch the defects of the files added or changed according to the SCM, e.g. for pull request analyses")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .onQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_COMPONENTS)
+                        .name("Coverity Components")
+                        .description("The components in Coverity Connect corresponding to this Sonar project or module, by full name, e.g. 'MyMap.Core'. When set, only the defects of these components are fetched")
+                        .type(PropertyType.STRING)
+                        .multiValues(true)
+                        .onQualifiers(Qualifiers.PROJECT, Qualifiers.MODULE)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_COMPONENTS_AUTO)
+                        .name("Find Coverity Components")
+                        .description("When no component is set, only fetch the defects of the components the files of the module belong to, according to the component maps of the streams")
+                        .defaultValue("false")
+                        .type(PropertyType.BOOLEAN)
+                        .onQualifiers(Qualifiers.PROJECT, Qualifiers.MODULE)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SOURCE_LAYERS)
+                        .name("Defect Source Layers")
+                        .description("Comma-separated list of layers around the defect source, outermost first: 'fallback' returns the last good result when the source fails or times out, 'cache' caches the defects in the cache directory, 'shared-cache' caches them in the shared cache directory")
+                        .type(PropertyType.STRING)
+                        .multiValues(true)
+                        .onQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_CACHE_DIRECTORY)
+                        .name("Defect Cache Directory")
+                        .description("Directory of the 'cache' and 'fallback' layers, of the list of local files and of the Coverity paths resolved by searching them. Defaults to ~/.sonar/coverity")
+                        .type(PropertyType.STRING)
+                        .onQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_SHARED_CACHE_DIRECTORY)
+                        .name("Shared Defect Cache Directory")
+                        .description("Directory of the 'shared-cache' layer, e.g. a network share used by all build agents")
+                        .type(PropertyType.STRING)
+                        .onQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_CACHE_TTL)
+                        .name("Defect Cache Time To Live")
+                        .description("Number of seconds cached defects are used before they are retrieved again")
+                        .defaultValue("600")
+                        .type(PropertyType.INTEGER)
+                        .onQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_FALLBACK_TIMEOUT)
+                        .name("Defect Source Timeout")
+                        .description("Number of seconds the 'fallback' layer waits for the defects before it uses the last good result")
+                        .defaultValue("300")
+                        .type(PropertyType.INTEGER)
+                        .onQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_IMPORT_BUDGET)
+                        .name("Import Time Budget")
+                        .description("Number of seconds after which no more defect details are fetched from Coverity Connect, the high impact defects first. The cached defects are used when available, otherwise the defects retrieved so far are imported. 0 for no limit")
+                        .defaultValue("0")
+                        .type(PropertyType.INTEGER)
+                        .onQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_PREFETCH)
+                        .name("Prefetch Defects")
+                        .description("Starts retrieving the defects in the background when the analysis starts, so they are ready when the first module is analyzed")
+                        .defaultValue("true")
+                        .type(PropertyType.BOOLEAN)
+                        .onQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
 
                 // language properties
                 PropertyDefinition.builder(COVERITY_C_CPP_SOURCE_FILE_SUFFIXES)
@@ -119,8 +367,17 @@ public final class CoverityPlugin implements Plugin {
                 * */
                 PropertyDefinition.builder(CoverityPlugin.COVERITY_PREFIX)
                         .name("Coverity Files Prefix")
-                        .description("Prefix to strip from filenames to match this Sonar project")
+                        .description("Prefixes to strip from filenames to match this Sonar project, e.g. the directories of several checkouts. The longest matching prefix is stripped")
                         .type(PropertyType.STRING)
+                        .multiValues(true)
+                        .onlyOnQualifiers(Qualifiers.PROJECT)
+                        .index(++i)
+                        .build(),
+                PropertyDefinition.builder(CoverityPlugin.COVERITY_PATH_REWRITES)
+                        .name("Coverity Path Rewrites")
+                        .description("Rewrites of the filenames without a prefix, applied in order: a regular expression matching the beginning of the filename and its replacement, separated by '=>', e.g. '/builds/[^/]+/=>'. Relative results are resolved against the working directory")
+                        .type(PropertyType.STRING)
+                        .multiValues(true)
                         .onlyOnQualifiers(Qualifiers.PROJECT)
                         .index(++i)
                         .build(),
@@ -146,11 +403,15 @@ public final class CoverityPlugin implements Plugin {
                 //Batch
                 CoveritySensor.class,
                 CIMClientFactory.class,
+                SharedDefectIndex.class,
+                DefectPrefetcher.class,
 
                 //Server
                 CoverityRules.class,
                 CoverityProfiles.class,
                 CppLanguage.class,
+                DefectSnapshotCache.class,
+                DefectSnapshotWs.class,
 
                 //UI
                 CoverityWidget.class,
@@ -14,6 +14,7 @@ package org.sonar.plugins.coverity.batch;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.internal.DefaultTextPointer;
@@ -25,9 +26,11 @@ import org.sonar.api.batch.sensor.issue.NewIssueLocation;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.plugins.coverity.CoverityPlugin;
 import org.sonar.plugins.coverity.defect.CoverityDefect;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
 import org.sonar.plugins.coverity.metrics.MetricService;
 import org.sonar.plugins.coverity.util.CoverityRuleUtil;
 import org.sonar.plugins.coverity.util.CoverityUtil;
+import org.sonar.plugins.coverity.util.SourceCrawler;
 
 import java.io.File;
 import java.util.*;
@@ -41,21 +44,46 @@ public class CoverityScanner {
 
     private SensorContext sensorContext;
     private FileSystem fileSystem;
-    private HashMap<String, List<CoverityDefect>> coverityDefectsMap;
+    private Map<String, List<CoverityDefect>> coverityDefectsMap;
     private HashSet<InputFile> foundInputFiles;
+    private ImportStatistics statistics;
+    private IssueKeySet savedIssues = new IssueKeySet();
+    private Map<InputFile, Integer> fileNumbers = new HashMap<>();
+    private Map<String, Integer> ruleNumbers = new HashMap<>();
+    private List<File> localFiles;
+    private PathResolutionCache pathCache;
 
     public CoverityScanner(SensorContext sensorContext, List<CoverityDefect> coverityDefects){
+        this(sensorContext, coverityDefects, new ImportStatistics());
+    }
+
+    public CoverityScanner(SensorContext sensorContext, List<CoverityDefect> coverityDefects, ImportStatistics statistics){
         this.sensorContext = sensorContext;
         this.fileSystem = sensorContext.fileSystem();
+        this.statistics = statistics;
 
         coverityDefectsMap = new HashMap<>();
         populateCoverityDefectsMap(coverityDefects);
     }
 
+    /**
+     * Creates a scanner for the defects shared by the modules of the analysis, see SharedDefectIndex. The scanner
+     * claims the defects of the files of its module by removing their paths from the map.
+     */
+    public CoverityScanner(SensorContext sensorContext, Map<String, List<CoverityDefect>> coverityDefectsMap, ImportStatistics statistics){
+        this.sensorContext = sensorContext;
+        this.fileSystem = sensorContext.fileSystem();
+        this.statistics = statistics;
+        this.coverityDefectsMap = coverityDefectsMap;
+    }
+
     public void scanFiles(){
         Iterable<InputFile> inputFiles = fileSystem.inputFiles(fileSystem.predicates().all());
         foundInputFiles = new HashSet<>();
         addCoverityIssues();
+        if (pathCache != null) {
+            pathCache.save();
+        }
 
         // Following codes are required to add CoreMetrics.NCLOC metrics for any input files
         // that coverity defects free. Without below logic, some input files will not have
@@ -70,26 +98,44 @@ public class CoverityScanner {
     }
 
     private void addCoverityIssues(){
-        for (String defectPath : coverityDefectsMap.keySet()){
+        for (String defectPath : new ArrayList<>(coverityDefectsMap.keySet())){
+            long pathStart = System.nanoTime();
             InputFile inputFile = findInputFile(defectPath);
+            statistics.addTime(ImportStatistics.Phase.PATH_RESOLUTION, System.nanoTime() - pathStart);
             if (inputFile == null){
                 LOG.error("[Coverity] Could not find the local input file");
+                statistics.increment(ImportStatistics.UNRESOLVED_PATHS);
                 continue;
             }
 
-            for (CoverityDefect defect : coverityDefectsMap.get(defectPath)){
+            List<CoverityDefect> defects = coverityDefectsMap.remove(defectPath);
+            if (defects == null){
+                continue;
+            }
+
+            int fileNumber = getNumber(fileNumbers, inputFile);
+            for (CoverityDefect defect : defects){
+                if (isDuplicate(defect, fileNumber)){
+                    statistics.increment(ImportStatistics.DUPLICATE_ISSUES);
+                    continue;
+                }
+
+                long ruleStart = System.nanoTime();
                 ActiveRule activeRule = CoverityRuleUtil.findActiveRule(
                         sensorContext,
                         defect.getDomain(),
                         defect.getCheckerName(),
                         defect.getSubcategory(),
                         inputFile.language());
+                statistics.addTime(ImportStatistics.Phase.RULE_RESOLUTION, System.nanoTime() - ruleStart);
 
                 if (activeRule == null){
                     LOG.error("[Coverity] Could not find active rule for " + defect.getCid());
+                    statistics.increment(ImportStatistics.UNRESOLVED_RULES);
                     continue;
                 }
 
+                long saveStart = System.nanoTime();
                 String message = defect.getDefectMessage();
                 final DefaultTextPointer start = new DefaultTextPointer(defect.getLineNumber(), 0);
                 NewIssue issue = sensorContext.newIssue();
@@ -104,6 +150,8 @@ public class CoverityScanner {
                         .at(issueLocation);
 
                 issue.save();
+                statistics.addTime(ImportStatistics.Phase.ISSUE_SAVING, System.nanoTime() - saveStart);
+                statistics.increment(ImportStatistics.SAVED_ISSUES);
             }
 
             MetricService.addMetric(sensorContext, CoreMetrics.NCLOC, inputFile.lines(), inputFile);
@@ -111,6 +159,29 @@ public class CoverityScanner {
         }
     }
 
+    /**
+     * Several instances of a defect often have the same file and line, e.g. in a header included by many
+     * translation units. Only the first one is saved: the issue key is the CID, file, line and rule, which is
+     * identified by the domain, checker and subcategory since the language of the file is the same.
+     * Defects without a CID, e.g. from a local report, are never duplicates.
+     */
+    private boolean isDuplicate(CoverityDefect defect, int fileNumber){
+        if (defect.getCid() == null){
+            return false;
+        }
+        String rule = defect.getDomain() + "_" + defect.getCheckerName() + "_" + defect.getSubcategory();
+        return !savedIssues.add(defect.getCid(), fileNumber, getNumber(ruleNumbers, rule), defect.getLineNumber());
+    }
+
+    private static <K> int getNumber(Map<K, Integer> numbers, K key){
+        Integer number = numbers.get(key);
+        if (number == null){
+            number = numbers.size();
+            numbers.put(key, number);
+        }
+        return number;
+    }
+
     private void populateCoverityDefectsMap(List<CoverityDefect> coverityDefects){
         for(CoverityDefect defect : coverityDefects){
             if (!coverityDefectsMap.containsKey(defect.getEventPath())){
@@ -126,6 +197,19 @@ public class CoverityScanner {
         final FileSystem fileSystem = sensorContext.fileSystem();
         InputFile inputFile = fileSystem.inputFile(fileSystem.predicates().hasPath(defectPath));
 
+        if(inputFile == null) {
+            if (pathCache == null) {
+                File cacheFile = PathResolutionCache.getFile(CoverityUtil.getCacheDirectory(sensorContext.config()),
+                        sensorContext.config().get(CoreProperties.PROJECT_KEY_PROPERTY).orElse(StringUtils.EMPTY),
+                        fileSystem.baseDir());
+                pathCache = new PathResolutionCache(cacheFile, fileSystem.inputFiles(fileSystem.predicates().all()));
+            }
+            String relativePath = pathCache.get(defectPath);
+            if (relativePath != null) {
+                inputFile = fileSystem.inputFile(fileSystem.predicates().hasRelativePath(relativePath));
+            }
+        }
+
         if(inputFile == null) {
             for(File possibleFile : getListOfLocalFiles()){
                 if(possibleFile.getAbsolutePath().endsWith(defectPath)) {
@@ -133,14 +217,21 @@ public class CoverityScanner {
                     break;
                 }
             }
+            if (inputFile != null) {
+                pathCache.put(defectPath, CoverityUtil.getRelativePath(fileSystem, inputFile));
+            }
         }
 
         return inputFile;
     }
 
     private List<File> getListOfLocalFiles(){
+        if (localFiles != null) {
+            return localFiles;
+        }
+
         String covSrcDir = sensorContext.config().get(CoverityPlugin.COVERITY_SOURCE_DIRECTORY).orElse(StringUtils.EMPTY);
-        List<File> listOfFiles = new ArrayList<File>();
+        List<File> roots = new ArrayList<File>();
         String sonarSourcesString = null;
 
         if(covSrcDir != null && !covSrcDir.isEmpty()){
@@ -151,11 +242,16 @@ public class CoverityScanner {
         if(sonarSourcesString != null && !sonarSourcesString.isEmpty()){
             List<String> sonarSources = Arrays.asList(sonarSourcesString.split(","));
             for(String dir : sonarSources){
-                File folder = new File(dir);
-                listOfFiles.addAll(CoverityUtil.listFiles(folder));
+                roots.add(new File(dir.trim()));
             }
         }
 
-        return listOfFiles;
+        SourceCrawler crawler = new SourceCrawler(
+                sensorContext.fileSystem().baseDir(),
+                sensorContext.config().getStringArray("sonar.exclusions"),
+                CoverityUtil.getCacheDirectory(sensorContext.config()),
+                sensorContext.config().get(CoreProperties.PROJECT_KEY_PROPERTY).orElse(StringUtils.EMPTY));
+        localFiles = crawler.listFiles(roots);
+        return localFiles;
     }
 }
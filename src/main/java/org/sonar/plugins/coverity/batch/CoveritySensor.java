@@ -18,18 +18,26 @@ import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.SensorDescriptor;
 import org.sonar.api.config.Configuration;
 import org.sonar.plugins.coverity.CoverityPlugin;
-import org.sonar.plugins.coverity.defect.CoverityDefect;
 import org.sonar.plugins.coverity.defect.CoverityDefects;
+import org.sonar.plugins.coverity.defect.SharedDefectIndex;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
 import org.sonar.plugins.coverity.ws.CIMClientFactory;
 
-import java.util.*;
+import java.io.File;
+import java.io.IOException;
 
 public class CoveritySensor implements Sensor {
     private static final Logger LOG = LoggerFactory.getLogger(CoveritySensor.class);
     private CIMClientFactory cimClientFactory;
+    private SharedDefectIndex sharedDefectIndex;
 
     public CoveritySensor(CIMClientFactory cimClientFactory) {
+        this(cimClientFactory, new SharedDefectIndex());
+    }
+
+    public CoveritySensor(CIMClientFactory cimClientFactory, SharedDefectIndex sharedDefectIndex) {
         this.cimClientFactory = cimClientFactory;
+        this.sharedDefectIndex = sharedDefectIndex;
     }
 
     @Override
@@ -55,17 +63,36 @@ public class CoveritySensor implements Sensor {
             return;
         }
 
-        CoverityDefects coverityDefects = new CoverityDefects(cimClientFactory, context);
+        ImportStatistics statistics = new ImportStatistics();
+        CoverityDefects coverityDefects = new CoverityDefects(cimClientFactory, context, statistics, sharedDefectIndex);
         if (!coverityDefects.validateServerConfig()){
             // TODO: Provide more useful log message
             LOG.error("[Coverity] Validation of Coverity Project/Stream failed.");
             return;
         }
 
-        List<CoverityDefect> defects = coverityDefects.retrieveCoverityDefects();
-        CoverityScanner scanner = new CoverityScanner(context, defects);
+        if (!coverityDefects.retrieveCoverityDefects()){
+            LOG.error("[Coverity] Retrieving Coverity defects failed.");
+            return;
+        }
+
+        CoverityScanner scanner = new CoverityScanner(context, coverityDefects.getDefectsByPath(), statistics);
         scanner.scanFiles();
         coverityDefects.addCoverityMeasures();
+
+        reportStatistics(context, statistics);
+    }
+
+    private void reportStatistics(SensorContext context, ImportStatistics statistics) {
+        statistics.logSummary();
+
+        try {
+            File workDir = context.fileSystem().workDir();
+            File file = statistics.writeJson(workDir);
+            LOG.debug("[Coverity] Import statistics written to " + file.getAbsolutePath());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("[Coverity] Could not write import statistics: " + e.getMessage());
+        }
     }
 
     @Override
@@ -0,0 +1,68 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.Startable;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.batch.ScannerSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.defect.CoverityDefects;
+import org.sonar.plugins.coverity.defect.SharedDefectIndex;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+import org.sonar.plugins.coverity.ws.CIMClientFactory;
+
+/*
+    DefectPrefetcher is started with the project container, before the modules are indexed and the sensors run.
+    It starts retrieving the defects of the project configuration in the background, so the index of the files
+    and the other sensors run while Coverity Connect is contacted. CoveritySensor then finds the defects in the
+    SharedDefectIndex, or waits for them.
+ */
+@ScannerSide
+@InstantiationStrategy(InstantiationStrategy.PER_PROJECT)
+public class DefectPrefetcher implements Startable {
+    private static final Logger LOG = LoggerFactory.getLogger(DefectPrefetcher.class);
+
+    private final Configuration config;
+    private final CIMClientFactory cimClientFactory;
+    private final SharedDefectIndex sharedDefectIndex;
+
+    public DefectPrefetcher(Configuration config, CIMClientFactory cimClientFactory, SharedDefectIndex sharedDefectIndex) {
+        this.config = config;
+        this.cimClientFactory = cimClientFactory;
+        this.sharedDefectIndex = sharedDefectIndex;
+    }
+
+    @Override
+    public void start() {
+        if (!config.getBoolean(CoverityPlugin.COVERITY_ENABLE).orElse(false)
+                || !config.getBoolean(CoverityPlugin.COVERITY_PREFETCH).orElse(true)) {
+            return;
+        }
+
+        try {
+            CoverityDefects coverityDefects = new CoverityDefects(cimClientFactory, config, new ImportStatistics(), sharedDefectIndex);
+            if (coverityDefects.prefetch()) {
+                LOG.info("[Coverity] Retrieving the defects in the background");
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("[Coverity] Could not prefetch the defects: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop() {
+        // the defects not claimed by a module are discarded with the index
+    }
+}
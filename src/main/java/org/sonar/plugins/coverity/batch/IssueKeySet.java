@@ -0,0 +1,93 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+/*
+    IssueKeySet is the set of issues saved by CoverityScanner, by CID, file, rule and line. Files and rules are
+    numbered by the scanner. The keys are kept in open addressing arrays without boxing, two longs and an int per
+    key, so the set stays small even for the millions of defect instances of large C/C++ streams.
+ */
+class IssueKeySet {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] cids;
+    private long[] positions;
+    // rule number + 1, 0 for an empty slot
+    private int[] rules;
+    private int size;
+
+    IssueKeySet() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a key, returns false when it was already in the set.
+     */
+    boolean add(long cid, int file, int rule, int line) {
+        long position = ((long) file << 32) | (line & 0xFFFFFFFFL);
+        if (!insert(cid, position, rule + 1)) {
+            return false;
+        }
+
+        size++;
+        if (size * 2 > rules.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    private boolean insert(long cid, long position, int rule) {
+        int mask = rules.length - 1;
+        int slot = hash(cid, position, rule) & mask;
+        while (rules[slot] != 0) {
+            if (rules[slot] == rule && cids[slot] == cid && positions[slot] == position) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        cids[slot] = cid;
+        positions[slot] = position;
+        rules[slot] = rule;
+        return true;
+    }
+
+    private void rehash() {
+        long[] oldCids = cids;
+        long[] oldPositions = positions;
+        int[] oldRules = rules;
+
+        allocate(oldRules.length * 2);
+        for (int i = 0; i < oldRules.length; i++) {
+            if (oldRules[i] != 0) {
+                insert(oldCids[i], oldPositions[i], oldRules[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        cids = new long[capacity];
+        positions = new long[capacity];
+        rules = new int[capacity];
+    }
+
+    private static int hash(long cid, long position, int rule) {
+        long h = cid * 0x9E3779B97F4A7C15L + position;
+        h = (h ^ (h >>> 32)) * 0xC2B2AE3D27D4EB4FL + rule;
+        h ^= h >>> 29;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    PathResolutionCache keeps, across analyses, the relative path of the input file each Coverity path was resolved
+    to by searching the local files. The scanner work directory is emptied at the start of every analysis, so the
+    cache is stored in the Coverity cache directory, in a file named after the project key and the module base
+    directory. It holds a fingerprint of the keys of the indexed files, which hold their relative paths, and is
+    discarded when the fingerprint of the current analysis differs, i.e. when a file was added, removed or renamed.
+ */
+class PathResolutionCache {
+    private static final Logger LOG = LoggerFactory.getLogger(PathResolutionCache.class);
+
+    private static final String FILE_PREFIX = "paths-";
+
+    private static final int MAGIC = 0x43504331; // "CPC1"
+
+    private final File file;
+    private final long fingerprint;
+    private final Map<String, String> relativePaths = new HashMap<>();
+    private boolean modified;
+
+    PathResolutionCache(File file, Iterable<InputFile> inputFiles) {
+        this.file = file;
+        this.fingerprint = getFingerprint(inputFiles);
+        load();
+    }
+
+    /**
+     * Returns the cache file of a module in the cache directory
+     */
+    static File getFile(File cacheDirectory, String projectKey, File baseDirectory) {
+        String key = projectKey + '\n' + baseDirectory.getAbsolutePath();
+        return new File(cacheDirectory, FILE_PREFIX + Hashing.sha1().hashString(key, StandardCharsets.UTF_8) + ".bin.gz");
+    }
+
+    /**
+     * Returns the relative path of the input file of the Coverity path, or null when it is not known
+     */
+    String get(String coverityPath) {
+        return relativePaths.get(coverityPath);
+    }
+
+    void put(String coverityPath, String relativePath) {
+        if (!relativePath.equals(relativePaths.put(coverityPath, relativePath))) {
+            modified = true;
+        }
+    }
+
+    /**
+     * The fingerprint does not depend on the order of the files: the hashes of the paths are added.
+     */
+    static long getFingerprint(Iterable<InputFile> inputFiles) {
+        long fingerprint = 0;
+        for (InputFile inputFile : inputFiles) {
+            fingerprint += hash(inputFile.key());
+        }
+        return fingerprint;
+    }
+
+    private static long hash(String value) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        return h ^ (h >>> 33);
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readLong() != fingerprint) {
+                LOG.debug("[Coverity] The indexed files changed, discarding " + file);
+                return;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                relativePaths.put(in.readUTF(), in.readUTF());
+            }
+            LOG.debug("[Coverity] Read " + size + " resolved paths from " + file);
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("[Coverity] Could not read " + file + ": " + e.getMessage());
+            relativePaths.clear();
+        }
+    }
+
+    /**
+     * Writes the cache when paths were added
+     */
+    void save() {
+        if (!modified) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        } catch (IOException e) {
+            LOG.debug("[Coverity] Could not create the directory of " + file + ": " + e.getMessage());
+            return;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeInt(MAGIC);
+            out.writeLong(fingerprint);
+            out.writeInt(relativePaths.size());
+            for (Map.Entry<String, String> entry : relativePaths.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            modified = false;
+        } catch (IOException e) {
+            LOG.debug("[Coverity] Could not write " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.defect;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+
+import java.io.IOException;
+import java.util.List;
+
+/*
+    CachingDefectSource is a read-through cache in front of another source. The cached defects are returned while
+    they are younger than the time to live; otherwise the defects are retrieved from the wrapped source and cached.
+    The cache can live in a local directory or in a directory shared by several build agents.
+ */
+public class CachingDefectSource implements DefectSource {
+    private static final Logger LOG = LoggerFactory.getLogger(CachingDefectSource.class);
+
+    private final DefectSource delegate;
+    private final DefectCache cache;
+    private final long ttlMillis;
+    private final ImportStatistics statistics;
+
+    public CachingDefectSource(DefectSource delegate, DefectCache cache, long ttlMillis, ImportStatistics statistics) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.ttlMillis = ttlMillis;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public String getName() {
+        return "cache " + cache.getFile() + " of " + delegate.getName();
+    }
+
+    @Override
+    public List<CoverityDefect> getDefects() throws IOException {
+        statistics.increment(ImportStatistics.CACHE_LOOKUPS);
+
+        long age = cache.getAgeMillis();
+        if (age < ttlMillis) {
+            try {
+                List<CoverityDefect> defects = cache.read();
+                statistics.increment(ImportStatistics.CACHE_HITS);
+                LOG.info("[Coverity] Using " + defects.size() + " cached defects from " + cache.getFile()
+                        + " (" + age / 1000 + "s old)");
+                return defects;
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("[Coverity] Could not read defect cache " + cache.getFile() + ": " + e.getMessage());
+            }
+        }
+
+        List<CoverityDefect> defects;
+        try {
+            defects = delegate.getDefects();
+        } catch (PartialDefectsException e) {
+            if (!cache.exists()) {
+                throw e;
+            }
+            defects = cache.read();
+            LOG.warn("[Coverity] " + e.getMessage() + ". Using the expired cached defects from " + cache.getFile()
+                    + " (" + cache.getAgeMillis() / 1000 + "s old, " + defects.size() + " defects)");
+            return defects;
+        }
+
+        try {
+            cache.write(defects);
+        } catch (IOException e) {
+            LOG.warn("[Coverity] Could not write defect cache " + cache.getFile() + ": " + e.getMessage());
+        }
+        return defects;
+    }
+}
@@ -0,0 +1,555 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.defect;
+
+import com.coverity.ws.v9.*;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+import org.sonar.plugins.coverity.ws.CIMClient;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/*
+    CimDefectSource retrieves the defects of the configured streams or projects from Coverity Connect,
+    through the SOAP web services of CIMClient.
+ */
+public class CimDefectSource implements DefectSource {
+    private static final Logger LOG = LoggerFactory.getLogger(CimDefectSource.class);
+
+    public static final String DEFAULT_SHOW_SELECTOR = "last()";
+
+    private CIMClient cimClient;
+    private ImportStatistics statistics;
+    private Function<String, String> pathConverter;
+
+    private List<StreamDataObj> streams = new ArrayList<>();
+    private Map<String, ProjectDataObj> projects = new LinkedHashMap<>();
+    private Map<Long, String> defectProjects = new HashMap<>();
+
+    private boolean isStreamDefects;
+    private List<String> covStreams;
+    private List<String> covProjects;
+    private String showSelector;
+    private String compareSelector;
+    private List<String> filenamePatterns;
+    private Pattern filenamePatternRegex;
+    private List<String> components = Collections.emptyList();
+    private Supplier<List<String>> moduleFilePaths;
+
+    /**
+     * @param covStreams streams to import defects from; when empty the projects are used
+     * @param pathConverter converts the file path of the main event, e.g. to strip a prefix
+     */
+    public CimDefectSource(CIMClient cimClient, List<String> covStreams, List<String> covProjects,
+                           Function<String, String> pathConverter, ImportStatistics statistics) {
+        this.cimClient = cimClient;
+        this.covStreams = covStreams;
+        this.covProjects = covProjects;
+        this.pathConverter = pathConverter;
+        this.statistics = statistics;
+        this.isStreamDefects = !covStreams.isEmpty();
+    }
+
+    /**
+     * Only imports the defects found in the snapshots selected by showSelector but not in the ones selected by
+     * compareSelector. Without compareSelector, all defects of the streams or projects are imported.
+     */
+    public void setSnapshotComparison(String showSelector, String compareSelector) {
+        this.showSelector = showSelector;
+        this.compareSelector = compareSelector;
+    }
+
+    /**
+     * Only imports the defects in the files matching one of the given patterns, e.g. the files changed by a
+     * pull request. With null, the defects of all files are imported.
+     */
+    public void setFilenamePatterns(List<String> filenamePatterns) {
+        this.filenamePatterns = filenamePatterns;
+    }
+
+    /**
+     * Only imports the defects of the given components, by full name ("map.component").
+     */
+    public void setComponents(List<String> components) {
+        this.components = components;
+    }
+
+    /**
+     * Only imports the defects of the components of the given files, found with the component maps of the
+     * streams. The paths are the Coverity paths of the files of the module, only requested when needed.
+     */
+    public void setModuleFilePaths(Supplier<List<String>> moduleFilePaths) {
+        this.moduleFilePaths = moduleFilePaths;
+    }
+
+    @Override
+    public String getName() {
+        return "Coverity Connect";
+    }
+
+    /**
+     * The projects found in Coverity Connect, by name. Empty until the defects have been retrieved.
+     */
+    public Map<String, ProjectDataObj> getProjects() {
+        return projects;
+    }
+
+    /**
+     * The names of the streams the defects are retrieved from, including the streams of the projects. Empty until
+     * the defects have been retrieved.
+     */
+    public List<String> getStreamNames() {
+        Set<String> streamNames = new LinkedHashSet<>();
+        for (StreamDataObj stream : streams) {
+            streamNames.add(stream.getId().getName());
+        }
+        for (ProjectDataObj project : projects.values()) {
+            for (StreamDataObj stream : project.getStreams()) {
+                streamNames.add(stream.getId().getName());
+            }
+        }
+        return new ArrayList<>(streamNames);
+    }
+
+    @Override
+    public List<CoverityDefect> getDefects() throws IOException {
+        ImportStatistics.Timer timer = statistics.start(ImportStatistics.Phase.PROJECT_LOOKUP);
+        try {
+            findProjectsOrStreams();
+            findComponents();
+        } finally {
+            timer.stop();
+        }
+
+        try {
+            return retrieveCoverityDefects();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Error while retrieving defects from Coverity Connect: " + e.getMessage(), e);
+        }
+    }
+
+    private void findProjectsOrStreams() throws IOException {
+        if (!projects.isEmpty() || !streams.isEmpty()){
+            return;
+        }
+
+        /**
+         * Checks whether streams have been specified.
+         */
+        if (isStreamDefects){
+            // Find specified streams
+            for (String covStream : covStreams){
+                StreamDataObj stream;
+                try{
+                    stream = cimClient.getStream(covStream);
+                } catch (CovRemoteServiceException_Exception e) {
+                    throw new IOException("Error while trying to find stream: " + covStream, e);
+                }
+
+                if(stream == null) {
+                    throw new IOException("Couldn't find stream: " + covStream);
+                }
+                LOG.info("Found stream: " + covStream + " (" + stream.getId() + ")");
+                streams.add(stream);
+            }
+        } else{
+            // Find specified projects
+            for (String covProject : covProjects){
+                ProjectDataObj project;
+                try {
+                    project = cimClient.getProject(covProject);
+                } catch (CovRemoteServiceException_Exception e) {
+                    throw new IOException("Error while trying to find project: " + covProject, e);
+                }
+
+                if(project == null) {
+                    throw new IOException("Couldn't find project: " + covProject);
+                }
+                LOG.info("Found project: " + covProject + " (" + project.getProjectKey() + ")");
+                projects.put(covProject, project);
+            }
+        }
+    }
+
+    private void findComponents() throws IOException {
+        if (!components.isEmpty()){
+            LOG.info("Fetching defects of components: " + components);
+            cimClient.setComponentNames(components);
+            return;
+        }
+        if (moduleFilePaths == null){
+            return;
+        }
+
+        Set<String> componentMapNames = new LinkedHashSet<>();
+        List<StreamDataObj> allStreams = new ArrayList<>(streams);
+        for (ProjectDataObj project : projects.values()){
+            allStreams.addAll(project.getStreams());
+        }
+        for (StreamDataObj stream : allStreams){
+            if (stream.getComponentMapId() != null){
+                componentMapNames.add(stream.getComponentMapId().getName());
+            }
+        }
+
+        List<String> filePaths = moduleFilePaths.get();
+        Set<String> moduleComponents = new TreeSet<>();
+        for (String componentMapName : componentMapNames){
+            ComponentMapDataObj componentMap;
+            try {
+                componentMap = cimClient.getComponentMap(componentMapName);
+            } catch (CovRemoteServiceException_Exception e) {
+                throw new IOException("Error while trying to find component map: " + componentMapName, e);
+            }
+            if (componentMap == null){
+                LOG.warn("Couldn't find component map: " + componentMapName + ", fetching defects of all components");
+                return;
+            }
+
+            try {
+                moduleComponents.addAll(getComponents(componentMap, filePaths));
+            } catch (PatternSyntaxException e) {
+                LOG.warn("Invalid path rule in component map " + componentMapName + ", fetching defects of all components: " + e.getMessage());
+                return;
+            }
+        }
+
+        if (moduleComponents.isEmpty()){
+            LOG.info("No component found for the files of the module, fetching defects of all components");
+            return;
+        }
+        LOG.info("Fetching defects of components: " + moduleComponents);
+        cimClient.setComponentNames(new ArrayList<>(moduleComponents));
+    }
+
+    /**
+     * Returns the components of the given files, as Coverity Connect assigns them: the component of the first
+     * path rule matching the file, or the "Other" component of the map when no rule matches.
+     */
+    private static Set<String> getComponents(ComponentMapDataObj componentMap, List<String> filePaths){
+        Map<Pattern, String> rules = new LinkedHashMap<>();
+        for (ComponentPathRuleDataObj rule : componentMap.getComponentPathRules()){
+            if (rule.getComponentId() != null && !StringUtils.isEmpty(rule.getPathPattern())){
+                rules.put(Pattern.compile(rule.getPathPattern()), rule.getComponentId().getName());
+            }
+        }
+
+        Set<String> fileComponents = new TreeSet<>();
+        for (String filePath : filePaths){
+            String component = componentMap.getComponentMapId().getName() + ".Other";
+            for (Map.Entry<Pattern, String> rule : rules.entrySet()){
+                if (rule.getKey().matcher(filePath).matches()){
+                    component = rule.getValue();
+                    break;
+                }
+            }
+            fileComponents.add(component);
+        }
+        return fileComponents;
+    }
+
+    private List<CoverityDefect> retrieveCoverityDefects() throws Exception {
+        List<CoverityDefect> coverityDefectList = new ArrayList<CoverityDefect>();
+
+        ImportStatistics.Timer timer = statistics.start(ImportStatistics.Phase.MERGED_DEFECTS);
+        List<MergedDefectDataObj> defects = retrieveDefects();
+        timer.stop();
+        if (defects == null || defects.isEmpty()){
+            return coverityDefectList;
+        }
+        statistics.increment(ImportStatistics.MERGED_DEFECTS, defects.size());
+
+        timer = statistics.start(ImportStatistics.Phase.STREAM_DEFECTS);
+        Map<Long, StreamDefectDataObj> streamDefects = cimClient.getStreamDefectsForMergedDefects(defects);
+        timer.stop();
+        statistics.increment(ImportStatistics.STREAM_DEFECTS, streamDefects.size());
+        LOG.info("Found " + streamDefects.size() + " defects");
+
+        int skippedDefects = 0;
+        for (MergedDefectDataObj defect : defects){
+            long filterStart = System.nanoTime();
+            boolean filteredOut = shouldFilterOut(defect);
+            statistics.addTime(ImportStatistics.Phase.FILTERING, System.nanoTime() - filterStart);
+            if (filteredOut){
+                statistics.increment(ImportStatistics.FILTERED_DEFECTS);
+                continue;
+            }
+
+            StreamDefectDataObj streamDefect = streamDefects.get(defect.getCid());
+            if (streamDefect == null) {
+                skippedDefects++;
+                continue;
+            }
+            List<DefectInstanceDataObj> defectInstances = streamDefect.getDefectInstances();
+
+            if (defectInstances == null || defectInstances.isEmpty()) {
+                LOG.info("The merged defect with CID " + defect.getCid() + "has no defect instances defined.");
+                continue;
+            }
+
+            for (DefectInstanceDataObj defectInstance : defectInstances){
+                long pathStart = System.nanoTime();
+                EventDataObj mainEvent = getMainEvent(defectInstance);
+                String mainEventFilePath = getMainEventFilePath(mainEvent);
+                if (StringUtils.isEmpty(mainEventFilePath)){
+                    mainEventFilePath = defect.getFilePathname();
+                }
+                statistics.addTime(ImportStatistics.Phase.PATH_RESOLUTION, System.nanoTime() - pathStart);
+
+                String severity = defectInstances.get(0).getImpact().getDisplayName();
+
+                CoverityDefect coverityDefect = new CoverityDefect(
+                        defect.getCid(),
+                        defect.getDomain(),
+                        mainEventFilePath,
+                        defectInstance.getSubcategory(),
+                        defectInstance.getCheckerName(),
+                        defect.getMergeKey(),
+                        generateMessageTemplate(defect),
+                        mainEvent.getEventDescription(),
+                        defectInstance.getLongDescription(),
+                        mainEvent.getEventTag(),
+                        defect.getDisplayType(),
+                        severity,
+                        mainEvent.getLineNumber()
+                );
+
+                coverityDefectList.add(coverityDefect);
+                statistics.increment(ImportStatistics.IMPORTED_DEFECTS);
+            }
+        }
+
+        if (skippedDefects > 0) {
+            String message = "The details of " + skippedDefects + " defects could not be retrieved";
+            if (cimClient.isPastDeadline()) {
+                throw new PartialDefectsException(message + " within the time budget", coverityDefectList, skippedDefects);
+            }
+            LOG.warn(message);
+        }
+        return coverityDefectList;
+    }
+
+    /**
+     * Returns the merged defects of all configured streams or projects. A CID found in more than one project is
+     * only returned once, so its details are fetched only once by getStreamDefectsForMergedDefects.
+     */
+    private List<MergedDefectDataObj> retrieveDefects() throws Exception {
+        if (filenamePatterns != null){
+            LOG.info("Fetching defects in " + filenamePatterns.size() + " files");
+            if (filenamePatterns.isEmpty()){
+                return Collections.emptyList();
+            }
+        }
+
+        if (!StringUtils.isEmpty(compareSelector)){
+            return retrieveNewDefects();
+        }
+
+        if (isStreamDefects){
+            LOG.info("Fetching defects for streams: " + covStreams);
+            return cimClient.getDefectsFromStreams(covStreams, filenamePatterns);
+        }
+
+        LOG.info("Fetching defects for projects: " + covProjects);
+        Map<String, List<MergedDefectDataObj>> defectsByProject;
+        if (cimClient.getShardSize() > 0 || filenamePatterns != null) {
+            defectsByProject = getDefectsFromProjectStreams();
+        } else {
+            defectsByProject = cimClient.getDefectsFromProjects(covProjects);
+        }
+
+        Map<Long, MergedDefectDataObj> defects = new LinkedHashMap<>();
+        int duplicates = 0;
+        for (Map.Entry<String, List<MergedDefectDataObj>> entry : defectsByProject.entrySet()){
+            for (MergedDefectDataObj defect : entry.getValue()){
+                if (defects.containsKey(defect.getCid())){
+                    duplicates++;
+                    continue;
+                }
+                defects.put(defect.getCid(), defect);
+                defectProjects.put(defect.getCid(), entry.getKey());
+            }
+        }
+
+        if (duplicates > 0){
+            LOG.info("Skipped " + duplicates + " defects found in more than one project");
+        }
+
+        return new ArrayList<>(defects.values());
+    }
+
+    /**
+     * Returns the merged defects new in the shown snapshots. The snapshots are compared per project, so the
+     * configured streams are grouped by their primary project. The components are filtered by the query, like for
+     * the other defects; the snapshot scope filter only takes a single file name, so the defects in other files
+     * than the file name patterns are filtered out here instead.
+     */
+    private List<MergedDefectDataObj> retrieveNewDefects() throws Exception {
+        Map<String, List<String>> projectStreams = new LinkedHashMap<>();
+        if (isStreamDefects){
+            for (StreamDataObj stream : streams){
+                ProjectIdDataObj primaryProjectId = stream.getPrimaryProjectId();
+                if (primaryProjectId == null){
+                    throw new IOException("Couldn't find the primary project of stream: " + stream.getId().getName());
+                }
+                projectStreams.computeIfAbsent(primaryProjectId.getName(), k -> new ArrayList<>()).add(stream.getId().getName());
+            }
+        } else{
+            for (String covProject : projects.keySet()){
+                projectStreams.put(covProject, Collections.<String>emptyList());
+            }
+        }
+
+        String show = StringUtils.defaultIfEmpty(showSelector, DEFAULT_SHOW_SELECTOR);
+        Map<Long, MergedDefectDataObj> defects = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : projectStreams.entrySet()){
+            LOG.info("Fetching defects new in \"" + show + "\" compared to \"" + compareSelector + "\" for project: " + entry.getKey());
+            for (MergedDefectDataObj defect : cimClient.getNewDefectsFromProject(entry.getKey(), entry.getValue(), show, compareSelector)){
+                if (defects.containsKey(defect.getCid()) || !matchesFilenamePatterns(defect.getFilePathname())){
+                    continue;
+                }
+                defects.put(defect.getCid(), defect);
+                if (!isStreamDefects){
+                    defectProjects.put(defect.getCid(), entry.getKey());
+                }
+            }
+        }
+        return new ArrayList<>(defects.values());
+    }
+
+    /**
+     * Whether the path matches one of the file name patterns, which only have '*' wildcards, or whether there are
+     * no patterns
+     */
+    private boolean matchesFilenamePatterns(String filePathname){
+        if (filenamePatterns == null){
+            return true;
+        }
+        if (filePathname == null){
+            return false;
+        }
+        if (filenamePatternRegex == null){
+            List<String> regexes = new ArrayList<>();
+            for (String pattern : filenamePatterns){
+                regexes.add(Pattern.quote(pattern).replace("*", "\\E.*\\Q"));
+            }
+            filenamePatternRegex = Pattern.compile(StringUtils.join(regexes, '|'));
+        }
+        return filenamePatternRegex.matcher(filePathname).matches();
+    }
+
+    /**
+     * The project scope filter of the web services has neither CID range nor file names, so the defects of each
+     * project are fetched by CID range or file name from the streams of the project.
+     */
+    private Map<String, List<MergedDefectDataObj>> getDefectsFromProjectStreams() throws Exception {
+        Map<String, List<MergedDefectDataObj>> defectsByProject = new LinkedHashMap<>();
+        for (Map.Entry<String, ProjectDataObj> project : projects.entrySet()){
+            List<String> projectStreams = new ArrayList<>();
+            for (StreamDataObj stream : project.getValue().getStreams()){
+                projectStreams.add(stream.getId().getName());
+            }
+
+            if (projectStreams.isEmpty()){
+                LOG.info("Project " + project.getKey() + " has no streams");
+                defectsByProject.put(project.getKey(), Collections.<MergedDefectDataObj>emptyList());
+            } else {
+                defectsByProject.put(project.getKey(), cimClient.getDefectsFromStreams(projectStreams, filenamePatterns));
+            }
+        }
+        return defectsByProject;
+    }
+
+    private boolean shouldFilterOut(MergedDefectDataObj defectDataObj){
+        List<DefectStateAttributeValueDataObj> listOfAttributes = defectDataObj.getDefectStateAttributeValues();
+        String status = StringUtils.EMPTY;
+
+        for(DefectStateAttributeValueDataObj defectAttribute : listOfAttributes){
+            if(defectAttribute.getAttributeDefinitionId().getName().equals("DefectStatus")){
+                status = defectAttribute.getAttributeValueId().getName();
+            }
+        }
+
+        if ("Dismissed".equals(status) || "Fixed".equals(status) || "Absent Dismissed".equals(status)) {
+            LOG.info("Skipping resolved defect (CID " + defectDataObj.getCid() + ", status '" + status + "')");
+            return true;
+        }
+
+        return false;
+    }
+
+    private String generateMessageTemplate(MergedDefectDataObj defect) {
+        StringBuilder url = new StringBuilder();
+        url.append(String.format("%s://%s:%d/query/defects.htm?", cimClient.isUseSSL() ? "https" : "http", cimClient.getHost(), cimClient.getPort()));
+
+        if (isStreamDefects){
+            url.append(String.format("stream=%s", getStreamName(defect)));
+        } else{
+            ProjectDataObj project = projects.get(defectProjects.get(defect.getCid()));
+            if (project == null){
+                project = projects.values().iterator().next();
+            }
+            url.append(String.format("projectId=%s", project.getProjectKey()));
+        }
+        return url.toString();
+    }
+
+    private String getStreamName(MergedDefectDataObj defect) {
+        if (streams.size() > 1){
+            for (StreamDataObj stream : streams){
+                if (stream.getId().getName().equals(defect.getLastDetectedStream())){
+                    return stream.getId().getName();
+                }
+            }
+        }
+        return streams.get(0).getId().getName();
+    }
+
+    private EventDataObj getMainEvent(DefectInstanceDataObj defectInstance) {
+        if(defectInstance.getEvents() != null && !defectInstance.getEvents().isEmpty()){
+            for(EventDataObj edo : defectInstance.getEvents()) {
+                if(edo.isMain()) {
+                    return edo;
+                }
+            }
+        }
+
+        // If no event is marked as "main" the first event is returned.
+        return defectInstance.getEvents().get(0);
+    }
+
+    private String getMainEventFilePath(EventDataObj mainEvent){
+        String mainEventFilePath = StringUtils.EMPTY;
+
+        if (mainEvent != null){
+            FileIdDataObj fileIdDataObj = mainEvent.getFileId();
+            if (fileIdDataObj != null){
+                mainEventFilePath = fileIdDataObj.getFilePathname();
+            }
+        }
+
+        if (!StringUtils.isEmpty(mainEventFilePath)){
+            mainEventFilePath = pathConverter.apply(mainEventFilePath);
+        }
+
+        return mainEventFilePath;
+    }
+}
@@ -86,10 +86,30 @@ public class CoverityDefect {
         return this.checkerName;
     }
 
+    public String getMergeKey(){
+        return this.mergeKey;
+    }
+
+    public String getMessageTemplate(){
+        return this.messageTemplate;
+    }
+
     public String getDescription(){
         return this.description;
     }
 
+    public String getLongDescription(){
+        return this.longDescription;
+    }
+
+    public String getEventTag(){
+        return this.eventTag;
+    }
+
+    public String getDisplayType(){
+        return this.displayType;
+    }
+
     public String getSeverity(){
         return this.severity;
     }
@@ -98,6 +118,14 @@ public class CoverityDefect {
         return this.lineNumber;
     }
 
+    /**
+     * Returns a copy of this defect with another path, e.g. to convert the Coverity path to a local path.
+     */
+    public CoverityDefect withEventPath(String eventPath){
+        return new CoverityDefect(cid, domain, eventPath, subcategory, checkerName, mergeKey, messageTemplate,
+                description, longDescription, eventTag, displayType, severity, lineNumber);
+    }
+
     public String getDefectMessage(){
         StringBuilder message = new StringBuilder();
         message.append("[" + displayType + "] ");
@@ -108,6 +136,12 @@ public class CoverityDefect {
             message.append(eventTag + ": " + description);
         }
 
+        // Defects read from a local report have no link to Coverity Connect and may not have a CID yet
+        if (messageTemplate == null){
+            String reference = cid != null ? "CID " + cid : "mergeKey " + mergeKey;
+            return StringEscapeUtils.unescapeHtml(message.toString()) + " ( " + reference + " )";
+        }
+
         StringBuilder url = new StringBuilder(messageTemplate);
         url.append(String.format("&mergeKey=%s", mergeKey));
 
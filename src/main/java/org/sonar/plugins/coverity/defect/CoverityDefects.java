@@ -11,43 +11,61 @@
 
 package org.sonar.plugins.coverity.defect;
 
-import com.coverity.ws.v9.*;
+import com.google.common.hash.Hashing;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.FilePredicates;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.config.Configuration;
 import org.sonar.plugins.coverity.CoverityPlugin;
 import org.sonar.plugins.coverity.metrics.CoverityPluginMetrics;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
 import org.sonar.plugins.coverity.metrics.MetricService;
 import org.sonar.plugins.coverity.util.CoverityUtil;
+import org.sonar.plugins.coverity.util.PathMapper;
 import org.sonar.plugins.coverity.ws.CIMClient;
 import org.sonar.plugins.coverity.ws.CIMClientFactory;
+import org.sonar.plugins.coverity.ws.CIMRestClient;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /*
-    CoverityDefects class is responsible of connecting to CoverityConnect to retrieve Coverity defects
+    CoverityDefects class is responsible of retrieving Coverity defects from the configured DefectSource
     Also, it is responsible for adding custom metrics at SensorContext.module level
  */
 public class CoverityDefects {
     private static final Logger LOG = LoggerFactory.getLogger(CoverityDefects.class);
 
+    public static final String LAYER_FALLBACK = "fallback";
+    public static final String LAYER_CACHE = "cache";
+    public static final String LAYER_SHARED_CACHE = "shared-cache";
+    public static final String API_SOAP = "soap";
+    public static final String API_REST = "rest";
+
     private CIMClient cimClient;
     private SensorContext sensorContext;
     private Configuration config;
     private ClassLoader oldCL;
+    private ImportStatistics statistics;
+    private SharedDefectIndex sharedDefectIndex;
+    private SharedDefectIndex.Entry sharedDefects;
 
-    private StreamDataObj streamDefects;
-    private ProjectDataObj projectDefects;
+    private DefectSource defectSource;
+    private CimDefectSource cimDefectSource;
+    private RestDefectSource restDefectSource;
 
-    private boolean isStreamDefects;
-    private String covStream;
-    private String covProject;
+    private List<String> covStreams = new ArrayList<>();
+    private List<String> covProjects = new ArrayList<>();
+    private List<String> filenamePatterns;
+    private List<String> components = new ArrayList<>();
+    private PathMapper pathMapper;
 
     private int totalDefects = 0;
     private int highImpactDefects = 0;
@@ -55,11 +73,29 @@ public class CoverityDefects {
     private int lowImpactDefects = 0;
 
     public CoverityDefects(CIMClientFactory cimClientFactory, SensorContext sensorContext){
+        this(cimClientFactory, sensorContext, new ImportStatistics());
+    }
+
+    public CoverityDefects(CIMClientFactory cimClientFactory, SensorContext sensorContext, ImportStatistics statistics){
+        this(cimClientFactory, sensorContext, statistics, new SharedDefectIndex());
+    }
+
+    public CoverityDefects(CIMClientFactory cimClientFactory, SensorContext sensorContext, ImportStatistics statistics,
+                           SharedDefectIndex sharedDefectIndex){
+        this(cimClientFactory, sensorContext.config(), statistics, sharedDefectIndex);
         this.sensorContext = sensorContext;
+    }
 
-        Configuration config = sensorContext.config();
+    /**
+     * Creates the defects of the analysis before any module is analyzed, to {@link #prefetch()} them.
+     */
+    public CoverityDefects(CIMClientFactory cimClientFactory, Configuration config, ImportStatistics statistics,
+                           SharedDefectIndex sharedDefectIndex){
+        this.statistics = statistics;
+        this.sharedDefectIndex = sharedDefectIndex;
         this.config = config;
         this.cimClient = cimClientFactory.create(config);
+        this.cimClient.setStatistics(statistics);
 
         oldCL = Thread.currentThread().getContextClassLoader();
         Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
@@ -67,246 +103,371 @@ public class CoverityDefects {
         System.setProperty("javax.xml.soap.MetaFactory", "com.sun.xml.messaging.saaj.soap.SAAJMetaFactoryImpl");
     }
 
+    /**
+     * Checks the configuration and creates the source of the defects. Coverity Connect is not contacted yet:
+     * the streams and projects are looked up when the defects are retrieved, unless they come from a cache.
+     */
     public boolean validateServerConfig(){
-        covStream = config.get(CoverityPlugin.COVERITY_STREAM).orElse(StringUtils.EMPTY);
-        covProject = config.get(CoverityPlugin.COVERITY_PROJECT).orElse(StringUtils.EMPTY);
-
-        /**
-         * Checks whether a stream has been specified.
-         */
-        if (covStream != null && !covStream.isEmpty()){
-            isStreamDefects = true;
-
-            // Find specified stream
-            try{
-
-                streamDefects = cimClient.getStream(covStream);
-                if(streamDefects == null) {
-                    LOG.error("Couldn't find stream: " + covStream);
-                    Thread.currentThread().setContextClassLoader(oldCL);
-                    return false;
+        ImportStatistics.Timer timer = statistics.start(ImportStatistics.Phase.CONFIG_VALIDATION);
+        try {
+            pathMapper = PathMapper.create(config);
+            covStreams = getValues(CoverityPlugin.COVERITY_STREAM);
+            covProjects = getValues(CoverityPlugin.COVERITY_PROJECT);
+            String reportPath = config.get(CoverityPlugin.COVERITY_REPORT_PATH).orElse(StringUtils.EMPTY);
+            String compareSelector = config.get(CoverityPlugin.COVERITY_SNAPSHOT_COMPARE).orElse(StringUtils.EMPTY).trim();
+            boolean changedFilesOnly = config.getBoolean(CoverityPlugin.COVERITY_CHANGED_FILES_ONLY).orElse(false);
+            components = getValues(CoverityPlugin.COVERITY_COMPONENTS);
+            boolean autoComponents = config.getBoolean(CoverityPlugin.COVERITY_COMPONENTS_AUTO).orElse(false);
+            String soapOnlyFeature = !compareSelector.isEmpty() ? "compare snapshots"
+                    : changedFilesOnly ? "fetch the defects of the changed files"
+                    : !components.isEmpty() || autoComponents ? "fetch the defects of components" : null;
+
+            DefectSource source;
+            if (!StringUtils.isBlank(reportPath)) {
+                source = findReport(reportPath.trim());
+            } else if ((!covStreams.isEmpty() || !covProjects.isEmpty()) && isServerFeed(soapOnlyFeature)) {
+                source = new ServerDefectSource(
+                        config.get("sonar.host.url").orElse("http://localhost:9000"),
+                        config.get("sonar.login").orElse(null),
+                        config.get("sonar.password").orElse(null),
+                        covStreams, covProjects, pathMapper, statistics);
+            } else if ((!covStreams.isEmpty() || !covProjects.isEmpty()) && isRestApi(soapOnlyFeature)) {
+                CIMRestClient restClient = new CIMRestClient(cimClient.getHost(), cimClient.getPort(),
+                        cimClient.getUser(), cimClient.getPassword(), cimClient.isUseSSL());
+                restClient.setStatistics(statistics);
+                restClient.setRequestLimiter(cimClient.getRequestLimiter());
+                restDefectSource = new RestDefectSource(restClient, covStreams, covProjects, pathMapper, statistics);
+                source = restDefectSource;
+            } else if (!covStreams.isEmpty() || !covProjects.isEmpty()) {
+                cimDefectSource = new CimDefectSource(cimClient, covStreams, covProjects, pathMapper, statistics);
+                if (!compareSelector.isEmpty()) {
+                    cimDefectSource.setSnapshotComparison(
+                            config.get(CoverityPlugin.COVERITY_SNAPSHOT_SHOW).orElse(CimDefectSource.DEFAULT_SHOW_SELECTOR).trim(),
+                            compareSelector);
                 }
-                LOG.info("Found stream: " + covStream + " (" + streamDefects.getId() + ")");
-
-            } catch (IOException | CovRemoteServiceException_Exception e) {
-                LOG.error("Error while trying to find stream: " + covStream);
-                Thread.currentThread().setContextClassLoader(oldCL);
-                return false;
-            }
-        } else{
-            LOG.debug("Stream has not been specified. Proceed with checking project");
-            isStreamDefects = false;
-
-            /**
-             * Checks whether a project has been specified.
-             */
-            if(covProject == null || covProject.isEmpty()) {
-                LOG.error("Couldn't find project: " + covProject);
-                Thread.currentThread().setContextClassLoader(oldCL);
-                return false;
-            }
-
-            // Find specified project
-            try {
-                projectDefects = cimClient.getProject(covProject);
-                if(projectDefects == null) {
-                    LOG.error("Couldn't find project: " + covProject);
-                    Thread.currentThread().setContextClassLoader(oldCL);
-                    return false;
+                if (changedFilesOnly) {
+                    filenamePatterns = getChangedFilePatterns();
+                    cimDefectSource.setFilenamePatterns(filenamePatterns);
+                }
+                if (!components.isEmpty()) {
+                    cimDefectSource.setComponents(components);
+                } else if (autoComponents) {
+                    cimDefectSource.setModuleFilePaths(this::getModuleFilePaths);
                 }
-                LOG.info("Found project: " + covProject + " (" + projectDefects.getProjectKey() + ")");
+                source = cimDefectSource;
+            } else {
+                LOG.error("[Coverity] No defects to import: none of " + CoverityPlugin.COVERITY_STREAM + ", "
+                        + CoverityPlugin.COVERITY_PROJECT + " or " + CoverityPlugin.COVERITY_REPORT_PATH + " is set");
+                source = null;
+            }
 
-            } catch (IOException | CovRemoteServiceException_Exception e) {
-                LOG.error("Error while trying to find project: " + covProject);
+            if (source == null) {
                 Thread.currentThread().setContextClassLoader(oldCL);
                 return false;
             }
+
+            defectSource = addLayers(source);
+            LOG.info("[Coverity] Defect source: " + defectSource.getName());
+            return true;
+        } finally {
+            timer.stop();
         }
+    }
 
+    /**
+     * The SonarQube server keeps all defects of the streams or projects, so the defects are only read from the
+     * server when no feature requires Coverity Connect to filter them.
+     */
+    private boolean isServerFeed(String soapOnlyFeature){
+        if (!config.getBoolean(CoverityPlugin.COVERITY_SERVER_FEED).orElse(false)){
+            return false;
+        }
+        if (soapOnlyFeature != null){
+            LOG.info("[Coverity] Using Coverity Connect to " + soapOnlyFeature);
+            return false;
+        }
         return true;
     }
 
-    public List<CoverityDefect> retrieveCoverityDefects(){
-        List<CoverityDefect> coverityDefectList = new ArrayList<CoverityDefect>();
-        totalDefects = 0;
-        highImpactDefects = 0;
-        mediumImpactDefects = 0;
-        lowImpactDefects = 0;
-
-        try{
-            List<MergedDefectDataObj> defects = retrieveDefects();
-            if (defects == null || defects.isEmpty()){
-                return coverityDefectList;
-            }
-
-            Map<Long, StreamDefectDataObj> streamDefects = cimClient.getStreamDefectsForMergedDefects(defects);
-            LOG.info("Found " + streamDefects.size() + " defects");
-
-            for (MergedDefectDataObj defect : defects){
-                if (shouldFilterOut(defect)){
-                    continue;
-                }
-
-                List<DefectInstanceDataObj> defectInstances = streamDefects.get(defect.getCid()).getDefectInstances();
-
-                if (defectInstances == null || defectInstances.isEmpty()) {
-                    LOG.info("The merged defect with CID " + defect.getCid() + "has no defect instances defined.");
-                    continue;
-                }
-
-                for (DefectInstanceDataObj defectInstance : defectInstances){
-                    EventDataObj mainEvent = getMainEvent(defectInstance);
-                    String mainEventFilePath = getMainEventFilePath(mainEvent);
-                    if (StringUtils.isEmpty(mainEventFilePath)){
-                        mainEventFilePath = defect.getFilePathname();
-                    }
-
-                    String severity = defectInstances.get(0).getImpact().getDisplayName();
-                    countCoverityDefectSeverity(severity);
-
-                    CoverityDefect coverityDefect = new CoverityDefect(
-                            defect.getCid(),
-                            defect.getDomain(),
-                            mainEventFilePath,
-                            defectInstance.getSubcategory(),
-                            defectInstance.getCheckerName(),
-                            defect.getMergeKey(),
-                            generateMessageTemplate(),
-                            mainEvent.getEventDescription(),
-                            defectInstance.getLongDescription(),
-                            mainEvent.getEventTag(),
-                            defect.getDisplayType(),
-                            severity,
-                            mainEvent.getLineNumber()
-                    );
-
-                    coverityDefectList.add(coverityDefect);
-                }
+    /**
+     * Snapshots are only compared and defects only filtered by file name by the SOAP web services, so the REST API
+     * is not used when one of these features is required.
+     *
+     * @param soapOnlyFeature the required feature only supported by the SOAP web services, or null
+     */
+    private boolean isRestApi(String soapOnlyFeature){
+        String api = config.get(CoverityPlugin.COVERITY_CONNECT_API).orElse(API_SOAP).trim();
+        if (!API_REST.equalsIgnoreCase(api) && !API_SOAP.equalsIgnoreCase(api)){
+            LOG.warn("[Coverity] Unknown value '" + api + "' for " + CoverityPlugin.COVERITY_CONNECT_API + ", using " + API_SOAP);
+        }
+        if (API_REST.equalsIgnoreCase(api) && soapOnlyFeature != null){
+            LOG.info("[Coverity] Using the " + API_SOAP + " API to " + soapOnlyFeature);
+            return false;
+        }
+        return API_REST.equalsIgnoreCase(api);
+    }
 
+    /**
+     * Returns the Coverity file name patterns of the files added or changed according to the SCM, e.g. by a pull
+     * request. The patterns are the inverse of the PathMapper: with a prefix, a file of the working directory
+     * gets its path in the Coverity analysis back. Otherwise the pattern matches every Coverity path ending with
+     * the path of the file relative to the base directory, which is how such paths are resolved locally.
+     */
+    private List<String> getChangedFilePatterns(){
+        FileSystem fileSystem = sensorContext.fileSystem();
+        FilePredicates predicates = fileSystem.predicates();
+
+        Set<String> patterns = new TreeSet<>();
+        for (InputFile inputFile : fileSystem.inputFiles(predicates.or(
+                predicates.hasStatus(InputFile.Status.ADDED), predicates.hasStatus(InputFile.Status.CHANGED)))){
+            List<String> coverityPaths = getPrefixedPaths(inputFile);
+            if (coverityPaths.isEmpty()){
+                patterns.add("*" + CoverityUtil.getRelativePath(fileSystem, inputFile));
             }
-
-        }catch(Exception e){
-            LOG.error("[Coverity] Exception occurred during retrieving defects", e);
+            patterns.addAll(coverityPaths);
         }
 
-        return coverityDefectList;
+        LOG.info("[Coverity] Fetching the defects of " + patterns.size() + " added or changed files");
+        return new ArrayList<>(patterns);
     }
 
-    private List<MergedDefectDataObj> retrieveDefects() throws Exception {
-        List<MergedDefectDataObj> defects = null;
-
-        if (isStreamDefects){
-            LOG.info("Fetching defects for stream: " + covStream);
-            defects = cimClient.getDefectsFromStream(covStream);
-        } else {
-            LOG.info("Fetching defects for project: " + covProject);
-            defects = cimClient.getDefectsFromProject(covProject);
+    /**
+     * Returns the Coverity paths of all files of the module, to find their components. Without a prefix, the
+     * Coverity analysis is expected to have run in the same directory, so the paths are the local paths.
+     */
+    private List<String> getModuleFilePaths(){
+        FileSystem fileSystem = sensorContext.fileSystem();
+        List<String> filePaths = new ArrayList<>();
+        for (InputFile inputFile : fileSystem.inputFiles(fileSystem.predicates().all())){
+            List<String> coverityPaths = getPrefixedPaths(inputFile);
+            filePaths.addAll(!coverityPaths.isEmpty() ? coverityPaths : Collections.singletonList(CoverityUtil.getPath(inputFile).toString().replace('\\', '/')));
         }
-
-        return defects;
+        return filePaths;
     }
 
-    private boolean shouldFilterOut(MergedDefectDataObj defectDataObj){
-        List<DefectStateAttributeValueDataObj> listOfAttributes = defectDataObj.getDefectStateAttributeValues();
-        String status = StringUtils.EMPTY;
+    /**
+     * Returns the paths of a file in the Coverity analysis, one per prefix, when the file is in the working
+     * directory, i.e. the paths that the PathMapper converts to the path of the file. Otherwise returns an empty list.
+     */
+    private List<String> getPrefixedPaths(InputFile inputFile){
+        String currentDir = pathMapper.getBaseDirectory().getAbsolutePath();
+        String path = CoverityUtil.getPath(inputFile).toString();
+
+        List<String> prefixedPaths = new ArrayList<>();
+        if (path.startsWith(currentDir + File.separator)){
+            for (String stripPrefix : pathMapper.getPrefixes()){
+                prefixedPaths.add(stripPrefix + path.substring(currentDir.length()).replace('\\', '/'));
+            }
+        }
+        return prefixedPaths;
+    }
 
-        for(DefectStateAttributeValueDataObj defectAttribute : listOfAttributes){
-            if(defectAttribute.getAttributeDefinitionId().getName().equals("DefectStatus")){
-                status = defectAttribute.getAttributeValueId().getName();
+    private List<String> getValues(String key){
+        List<String> values = new ArrayList<>();
+        for (String value : config.getStringArray(key)){
+            if (!StringUtils.isBlank(value) && !values.contains(value.trim())){
+                values.add(value.trim());
             }
         }
+        return values;
+    }
 
-        if ("Dismissed".equals(status) || "Fixed".equals(status) || "Absent Dismissed".equals(status)) {
-            LOG.info("Skipping resolved defect (CID " + defectDataObj.getCid() + ", status '" + status + "')");
-            return true;
+    /**
+     * When a json report is configured, defects are read from it and Coverity Connect is never contacted.
+     */
+    private DefectSource findReport(String reportPath){
+        File file = sensorContext.fileSystem().resolvePath(reportPath);
+        if (!file.isFile()) {
+            LOG.error("Couldn't find Coverity json report: " + file.getAbsolutePath());
+            return null;
         }
 
-        return false;
+        LOG.info("Found Coverity json report: " + file.getAbsolutePath());
+        return new CoverityJsonReport(file, pathMapper, statistics);
     }
 
-    private String generateMessageTemplate() {
-        StringBuilder url = new StringBuilder();
-        url.append(String.format("%s://%s:%d/query/defects.htm?", cimClient.isUseSSL() ? "https" : "http", cimClient.getHost(), cimClient.getPort()));
-
-        if (isStreamDefects){
-            url.append(String.format("stream=%s", streamDefects.getId().getName()));
-        } else{
-            url.append(String.format("projectId=%s", projectDefects.getProjectKey()));
+    /**
+     * Wraps the source with the configured layers. The first layer is the outermost one, e.g. "fallback,cache"
+     * falls back to the last good result when neither the cache nor the source can provide the defects in time.
+     */
+    private DefectSource addLayers(DefectSource source){
+        List<String> layers = getValues(CoverityPlugin.COVERITY_SOURCE_LAYERS);
+        if (layers.isEmpty()){
+            return source;
         }
-        return url.toString();
-    }
 
-    private EventDataObj getMainEvent(DefectInstanceDataObj defectInstance) {
-        if(defectInstance.getEvents() != null && !defectInstance.getEvents().isEmpty()){
-            for(EventDataObj edo : defectInstance.getEvents()) {
-                if(edo.isMain()) {
-                    return edo;
+        String cacheKey = getCacheKey();
+        File cacheDirectory = CoverityUtil.getCacheDirectory(config);
+        long ttlMillis = TimeUnit.SECONDS.toMillis(config.getLong(CoverityPlugin.COVERITY_CACHE_TTL).orElse(600L));
+
+        for (int i = layers.size() - 1; i >= 0; i--){
+            String layer = layers.get(i);
+            if (LAYER_FALLBACK.equals(layer)){
+                long timeoutMillis = TimeUnit.SECONDS.toMillis(config.getLong(CoverityPlugin.COVERITY_FALLBACK_TIMEOUT).orElse(300L));
+                source = new FallbackDefectSource(source, new DefectCache(cacheDirectory, "last-" + cacheKey), timeoutMillis);
+            } else if (LAYER_CACHE.equals(layer)){
+                source = new CachingDefectSource(source, new DefectCache(cacheDirectory, cacheKey), ttlMillis, statistics);
+            } else if (LAYER_SHARED_CACHE.equals(layer)){
+                String sharedDirectory = config.get(CoverityPlugin.COVERITY_SHARED_CACHE_DIRECTORY).orElse(null);
+                if (StringUtils.isBlank(sharedDirectory)){
+                    LOG.warn("[Coverity] Ignoring layer '" + layer + "': " + CoverityPlugin.COVERITY_SHARED_CACHE_DIRECTORY + " is not set");
+                    continue;
                 }
+                source = new CachingDefectSource(source, new DefectCache(new File(sharedDirectory), cacheKey), ttlMillis, statistics);
+            } else {
+                LOG.warn("[Coverity] Ignoring unknown defect source layer: " + layer);
             }
         }
+        return source;
+    }
 
-        // If no event is marked as "main" the first event is returned.
-        return defectInstance.getEvents().get(0);
+    /**
+     * Identifies the cached defects: everything that changes the defects returned by the source, including the
+     * prefix and directory used to convert their paths, is part of the key. The base directory of the module only
+     * changes the defects when the components are found from its files, so the modules of a multi-module analysis
+     * otherwise share the same key.
+     */
+    private String getCacheKey(){
+        String key = StringUtils.join(Arrays.asList(
+                config.get(CoverityPlugin.COVERITY_CONNECT_HOSTNAME).orElse(StringUtils.EMPTY),
+                config.get(CoverityPlugin.COVERITY_CONNECT_PORT).orElse(StringUtils.EMPTY),
+                config.get(CoverityPlugin.COVERITY_CONNECT_SSL).orElse(StringUtils.EMPTY),
+                config.get(CoverityPlugin.COVERITY_CONNECT_USERNAME).orElse(StringUtils.EMPTY),
+                covStreams,
+                covProjects,
+                config.get(CoverityPlugin.COVERITY_REPORT_PATH).orElse(StringUtils.EMPTY),
+                config.get(CoverityPlugin.COVERITY_SNAPSHOT_SHOW).orElse(StringUtils.EMPTY),
+                config.get(CoverityPlugin.COVERITY_SNAPSHOT_COMPARE).orElse(StringUtils.EMPTY),
+                filenamePatterns != null ? filenamePatterns : StringUtils.EMPTY,
+                components,
+                config.get(CoverityPlugin.COVERITY_COMPONENTS_AUTO).orElse(StringUtils.EMPTY),
+                autoComponents() ? sensorContext.fileSystem().baseDir().getAbsolutePath() : StringUtils.EMPTY,
+                pathMapper.getPrefixes(),
+                Arrays.asList(config.getStringArray(CoverityPlugin.COVERITY_PATH_REWRITES)),
+                System.getProperty("user.dir"),
+                System.getProperty("os.name")), '\n');
+        return Hashing.sha1().hashString(key, StandardCharsets.UTF_8).toString();
     }
 
-    private String getMainEventFilePath(EventDataObj mainEvent){
-        String mainEventFilePath = StringUtils.EMPTY;
-        String platform = System.getProperty("os.name");
+    private boolean autoComponents(){
+        return components.isEmpty() && config.getBoolean(CoverityPlugin.COVERITY_COMPONENTS_AUTO).orElse(false);
+    }
 
-        if (mainEvent != null){
-            FileIdDataObj fileIdDataObj = mainEvent.getFileId();
-            if (fileIdDataObj != null){
-                mainEventFilePath = fileIdDataObj.getFilePathname();
-            }
+    /**
+     * Starts retrieving the defects in the background, so the first module only waits for them. This is only
+     * possible when the defects do not depend on the files of a module: not from a report, nor for the changed
+     * files or the components of the module. Returns whether the retrieval started.
+     */
+    public boolean prefetch(){
+        if (!StringUtils.isBlank(config.get(CoverityPlugin.COVERITY_REPORT_PATH).orElse(StringUtils.EMPTY))
+                || config.getBoolean(CoverityPlugin.COVERITY_CHANGED_FILES_ONLY).orElse(false)
+                || (getValues(CoverityPlugin.COVERITY_COMPONENTS).isEmpty()
+                    && config.getBoolean(CoverityPlugin.COVERITY_COMPONENTS_AUTO).orElse(false))){
+            return false;
         }
 
-        if (!StringUtils.isEmpty(mainEventFilePath)){
-            mainEventFilePath = applyStripPath(mainEventFilePath);
-
-            if (platform.startsWith("Windows")) {
-                mainEventFilePath = mainEventFilePath.replace("/", "\\");
+        try {
+            if (!validateServerConfig()){
+                return false;
             }
+            sharedDefectIndex.prefetch(getCacheKey(), () -> {
+                SharedDefectIndex.Entry entry = new SharedDefectIndex.Entry(loadDefects());
+                entry.setProjectKey(getProjectKey());
+                entry.setPrefetchStatistics(statistics);
+                return entry;
+            });
+            return true;
+        } finally {
+            Thread.currentThread().setContextClassLoader(oldCL);
         }
-
-        return mainEventFilePath;
     }
 
-    private String applyStripPath(String mainEventFilePath){
-        String currentDir = System.getProperty("user.dir");
-        File currentDirFile = new File(currentDir);
+    /**
+     * Returns the defects of the source. When the time budget runs out, the defects retrieved so far are returned.
+     */
+    private List<CoverityDefect> loadDefects() throws IOException {
+        long budget = config.getLong(CoverityPlugin.COVERITY_IMPORT_BUDGET).orElse(0L);
+        cimClient.setDeadline(budget > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(budget) : 0);
+
+        List<CoverityDefect> defects;
+        try {
+            defects = defectSource.getDefects();
+        } catch (PartialDefectsException e) {
+            LOG.warn("[Coverity] " + e.getMessage() + ", importing the " + e.getDefects().size() + " defects retrieved");
+            statistics.increment(ImportStatistics.SKIPPED_DEFECTS, e.getSkippedDefects());
+            defects = e.getDefects();
+        }
+        LOG.info("[Coverity] Retrieved " + defects.size() + " defects from " + defectSource.getName());
+        return defects;
+    }
 
-        String stripPrefix = config.get(CoverityPlugin.COVERITY_PREFIX).orElse(StringUtils.EMPTY);
-        String strippedFilePath;
+    /**
+     * Retrieves the defects to import, returns false when the defect source could not provide them. The defects are
+     * only retrieved by the first module of the analysis with the same cache key, the other modules get the same
+     * index, see {@link #getDefectsByPath()}.
+     */
+    public boolean retrieveCoverityDefects(){
+        try{
+            sharedDefects = sharedDefectIndex.get(getCacheKey(), this::loadDefects);
+            if (sharedDefects.isShared()){
+                LOG.info("[Coverity] Using the " + sharedDefects.getDefectCount() + " defects retrieved by a previous module");
+            } else if (sharedDefects.getPrefetchStatistics() != null){
+                LOG.info("[Coverity] Using the " + sharedDefects.getDefectCount() + " defects prefetched in the background");
+                statistics.addAll(sharedDefects.getPrefetchStatistics());
+            } else {
+                sharedDefects.setProjectKey(getProjectKey());
+            }
+        }catch(IOException | RuntimeException e){
+            LOG.error("[Coverity] Could not retrieve defects from " + defectSource.getName() + ": " + e.getMessage());
+            LOG.debug("[Coverity] Exception occurred during retrieving defects", e);
+            Thread.currentThread().setContextClassLoader(oldCL);
+            return false;
+        }
 
-        if (!StringUtils.isEmpty(stripPrefix)&& mainEventFilePath.startsWith(stripPrefix)){
-            strippedFilePath = mainEventFilePath.substring(stripPrefix.length());
-            mainEventFilePath = new File(currentDirFile, strippedFilePath).getAbsolutePath();
-            LOG.info("Full path after prefix being stripped: " + mainEventFilePath);
+        Map<String, Integer> severityCounts = sharedDefects.getSeverityCounts();
+        totalDefects = 0;
+        for (int count : severityCounts.values()){
+            totalDefects += count;
         }
+        highImpactDefects = severityCounts.getOrDefault(CoverityDefect.SEVERITY_HIGH, 0);
+        mediumImpactDefects = severityCounts.getOrDefault(CoverityDefect.SEVERITY_MEDIUM, 0);
+        lowImpactDefects = totalDefects - highImpactDefects - mediumImpactDefects;
+        return true;
+    }
 
-        return mainEventFilePath;
+    /**
+     * Returns the defects retrieved by retrieveCoverityDefects by path, without the ones already imported by a
+     * previous module of the analysis. The scanner removes the paths it imports, which releases their defects.
+     */
+    public Map<String, List<CoverityDefect>> getDefectsByPath(){
+        return sharedDefects != null ? sharedDefects.getDefectsByPath() : Collections.emptyMap();
     }
 
-    private void countCoverityDefectSeverity(String severity){
-        if(!StringUtils.isEmpty(severity)){
-             totalDefects++;
-             if (severity.equals(CoverityDefect.SEVERITY_HIGH)) {
-                 highImpactDefects++;
-             }else if (severity.equals(CoverityDefect.SEVERITY_MEDIUM)) {
-                 mediumImpactDefects++;
-             }else {
-                 lowImpactDefects++;
-             }
-         }
+    /**
+     * Returns the key of the Coverity Connect project of the defects, only known when the defects were retrieved
+     * from Coverity Connect during this analysis.
+     */
+    private Long getProjectKey(){
+        if (sharedDefects != null && sharedDefects.getProjectKey() != null){
+            return sharedDefects.getProjectKey();
+        }
+        if (cimDefectSource != null && !cimDefectSource.getProjects().isEmpty()){
+            return cimDefectSource.getProjects().values().iterator().next().getProjectKey();
+        } else if (restDefectSource != null && !restDefectSource.getProjectKeys().isEmpty()){
+            return restDefectSource.getProjectKeys().values().iterator().next();
+        }
+        return null;
     }
 
+    /**
+     * Saves the Coverity measures of the module. The project name lists every configured project, while the project
+     * URL only points at the first project found in Coverity Connect, since the measure holds a single link.
+     */
     public void addCoverityMeasures() {
-        String covProject = config.get(CoverityPlugin.COVERITY_PROJECT).orElse(null);
-
-        if (covProject != null) {
+        if (!covProjects.isEmpty()) {
             MetricService.addMetric(sensorContext,
                     CoverityPluginMetrics.COVERITY_PROJECT_NAME,
-                    covProject,
+                    String.join(", ", covProjects),
                     sensorContext.module());
         }
 
@@ -318,8 +479,9 @@ public class CoverityDefects {
                     sensorContext.module());
         }
 
-        if (projectDefects != null){
-            String ProductKey= String.valueOf(projectDefects.getProjectKey());
+        Long projectKey = getProjectKey();
+        if (projectKey != null){
+            String ProductKey= String.valueOf(projectKey);
             projectUrl = projectUrl+"reports.htm#p"+ProductKey;
 
             MetricService.addMetric(sensorContext,
@@ -347,5 +509,54 @@ public class CoverityDefects {
                 CoverityPluginMetrics.COVERITY_LOW_IMPACT,
                 lowImpactDefects,
                 sensorContext.module());
+        addImportMeasures();
+    }
+
+    /**
+     * Adds the performance measures of this import, which are recorded in the statistics of the import.
+     */
+    private void addImportMeasures() {
+        MetricService.addMetric(sensorContext,
+                CoverityPluginMetrics.COVERITY_IMPORT_FETCH_TIME,
+                statistics.getFetchTimeMillis(),
+                sensorContext.module());
+
+        MetricService.addMetric(sensorContext,
+                CoverityPluginMetrics.COVERITY_IMPORT_DOWNLOADED_KB,
+                (int) Math.min(Integer.MAX_VALUE, statistics.getCimBytes() / 1024),
+                sensorContext.module());
+
+        MetricService.addMetric(sensorContext,
+                CoverityPluginMetrics.COVERITY_IMPORT_CIM_CALLS,
+                (int) statistics.getCimCalls(),
+                sensorContext.module());
+
+        MetricService.addMetric(sensorContext,
+                CoverityPluginMetrics.COVERITY_IMPORT_UNRESOLVED_PATHS,
+                (int) statistics.getCount(ImportStatistics.UNRESOLVED_PATHS),
+                sensorContext.module());
+
+        MetricService.addMetric(sensorContext,
+                CoverityPluginMetrics.COVERITY_IMPORT_UNRESOLVED_RULES,
+                (int) statistics.getCount(ImportStatistics.UNRESOLVED_RULES),
+                sensorContext.module());
+
+        MetricService.addMetric(sensorContext,
+                CoverityPluginMetrics.COVERITY_IMPORT_SKIPPED_DEFECTS,
+                (int) statistics.getCount(ImportStatistics.SKIPPED_DEFECTS),
+                sensorContext.module());
+
+        MetricService.addMetric(sensorContext,
+                CoverityPluginMetrics.COVERITY_IMPORT_DUPLICATE_ISSUES,
+                (int) statistics.getCount(ImportStatistics.DUPLICATE_ISSUES),
+                sensorContext.module());
+
+        Double cacheHitRatio = statistics.getCacheHitRatio();
+        if (cacheHitRatio != null) {
+            MetricService.addMetric(sensorContext,
+                    CoverityPluginMetrics.COVERITY_IMPORT_CACHE_HIT_RATIO,
+                    cacheHitRatio,
+                    sensorContext.module());
+        }
     }
 }
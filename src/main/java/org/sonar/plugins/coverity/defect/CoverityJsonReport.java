@@ -0,0 +1,305 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.defect;
+
+import org.apache.commons.lang.StringUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/*
+    CoverityJsonReport reads Coverity defects from a local json results file, as written by
+    "cov-format-errors --json-output-v7", so defects can be imported without any connection to Coverity Connect.
+    The file is parsed as a stream and only the issue being read is kept in memory, so the size of the file
+    does not matter. Fields of an issue that are not needed to build a CoverityDefect are skipped while parsing.
+ */
+public class CoverityJsonReport implements DefectSource {
+    private static final Logger LOG = LoggerFactory.getLogger(CoverityJsonReport.class);
+
+    private static final String ISSUES = "issues";
+    private static final Set<String> ISSUE_FIELDS = new HashSet<>(Arrays.asList(
+            "mergeKey",
+            "checkerName",
+            "subcategory",
+            "domain",
+            "mainEventFilePathname",
+            "mainEventLineNumber",
+            "events",
+            "stateOnServer",
+            "checkerProperties"));
+    private static final Set<String> DISMISSED_CLASSIFICATIONS = new HashSet<>(Arrays.asList("False Positive", "Intentional"));
+
+    private final File file;
+    private final Function<String, String> pathConverter;
+    private final ImportStatistics statistics;
+
+    /**
+     * @param pathConverter converts the file path of the main event, e.g. to strip a prefix
+     */
+    public CoverityJsonReport(File file, Function<String, String> pathConverter) {
+        this(file, pathConverter, new ImportStatistics());
+    }
+
+    public CoverityJsonReport(File file, Function<String, String> pathConverter, ImportStatistics statistics) {
+        this.file = file;
+        this.pathConverter = pathConverter;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public String getName() {
+        return "json report " + file.getName();
+    }
+
+    @Override
+    public List<CoverityDefect> getDefects() throws IOException {
+        final List<CoverityDefect> coverityDefectList = new ArrayList<CoverityDefect>();
+
+        ImportStatistics.Timer timer = statistics.start(ImportStatistics.Phase.REPORT_PARSING);
+        try {
+            int dismissed = read(coverityDefect -> {
+                coverityDefectList.add(coverityDefect);
+                statistics.increment(ImportStatistics.IMPORTED_DEFECTS);
+            });
+            statistics.increment(ImportStatistics.FILTERED_DEFECTS, dismissed);
+        } finally {
+            timer.stop();
+        }
+
+        LOG.info("Found " + coverityDefectList.size() + " defects in " + file.getName());
+        return coverityDefectList;
+    }
+
+    /**
+     * Reads the report and passes every defect to the consumer as soon as it has been parsed.
+     * @return the number of issues skipped because they are dismissed
+     */
+    public int read(Consumer<CoverityDefect> consumer) throws IOException {
+        IssueHandler handler = new IssueHandler(consumer);
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 64 * 1024)) {
+            new JSONParser().parse(reader, handler);
+        } catch (ParseException e) {
+            throw new IOException("Invalid Coverity json report " + file + ": " + e, e);
+        }
+        return handler.dismissed;
+    }
+
+    CoverityDefect toCoverityDefect(JSONObject issue) {
+        JSONObject stateOnServer = (JSONObject) issue.get("stateOnServer");
+        JSONObject checkerProperties = (JSONObject) issue.get("checkerProperties");
+        JSONObject mainEvent = getMainEvent((JSONArray) issue.get("events"));
+
+        Long cid = stateOnServer != null ? (Long) stateOnServer.get("cid") : null;
+
+        String filePath = getString(issue, "mainEventFilePathname");
+        if (StringUtils.isEmpty(filePath) && mainEvent != null) {
+            filePath = getString(mainEvent, "filePathname");
+        }
+        if (!StringUtils.isEmpty(filePath)) {
+            filePath = pathConverter.apply(filePath);
+        }
+
+        Number lineNumber = (Number) issue.get("mainEventLineNumber");
+        if (lineNumber == null && mainEvent != null) {
+            lineNumber = (Number) mainEvent.get("lineNumber");
+        }
+
+        return new CoverityDefect(
+                cid,
+                getString(issue, "domain"),
+                filePath,
+                getString(issue, "subcategory"),
+                getString(issue, "checkerName"),
+                getString(issue, "mergeKey"),
+                null,
+                mainEvent != null ? getString(mainEvent, "eventDescription") : null,
+                checkerProperties != null ? getString(checkerProperties, "subcategoryLongDescription") : null,
+                mainEvent != null ? getString(mainEvent, "eventTag") : null,
+                checkerProperties != null ? getString(checkerProperties, "subcategoryShortDescription") : null,
+                checkerProperties != null ? getString(checkerProperties, "impact") : null,
+                lineNumber != null ? lineNumber.intValue() : 1);
+    }
+
+    private boolean isDismissed(JSONObject issue) {
+        JSONObject stateOnServer = (JSONObject) issue.get("stateOnServer");
+        if (stateOnServer == null) {
+            return false;
+        }
+
+        JSONObject triage = (JSONObject) stateOnServer.get("triage");
+        return triage != null && DISMISSED_CLASSIFICATIONS.contains(getString(triage, "classification"));
+    }
+
+    private JSONObject getMainEvent(JSONArray events) {
+        if (events == null || events.isEmpty()) {
+            return null;
+        }
+
+        for (Object event : events) {
+            if (Boolean.TRUE.equals(((JSONObject) event).get("main"))) {
+                return (JSONObject) event;
+            }
+        }
+
+        // If no event is marked as "main" the first event is returned.
+        return (JSONObject) events.get(0);
+    }
+
+    private static String getString(JSONObject object, String key) {
+        Object value = object.get(key);
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * Builds one issue at a time from the parser events and drops everything outside of the "issues" array.
+     */
+    private class IssueHandler implements ContentHandler {
+        private static final int ISSUE_DEPTH = 3;
+
+        private final Consumer<CoverityDefect> consumer;
+        private final Deque<Object> containers = new ArrayDeque<>();
+        private final Deque<String> keys = new ArrayDeque<>();
+
+        private int depth = 0;
+        private boolean inIssues = false;
+        private boolean skipping = false;
+        private String rootKey;
+        private int dismissed = 0;
+
+        private IssueHandler(Consumer<CoverityDefect> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void startJSON() {
+        }
+
+        @Override
+        public void endJSON() {
+        }
+
+        @Override
+        public boolean startObject() {
+            depth++;
+            if (inIssues && depth == ISSUE_DEPTH) {
+                containers.push(new JSONObject());
+            } else if (isBuilding() && !skipping) {
+                JSONObject object = new JSONObject();
+                add(object);
+                containers.push(object);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObject() {
+            if (inIssues && depth == ISSUE_DEPTH) {
+                handleIssue((JSONObject) containers.pop());
+            } else if (isBuilding() && !skipping) {
+                containers.pop();
+            }
+            depth--;
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean startArray() {
+            depth++;
+            if (depth == 2 && ISSUES.equals(rootKey)) {
+                inIssues = true;
+            } else if (isBuilding() && !skipping) {
+                JSONArray array = new JSONArray();
+                add(array);
+                containers.push(array);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endArray() {
+            if (depth == 2 && inIssues) {
+                inIssues = false;
+            } else if (isBuilding() && !skipping) {
+                containers.pop();
+            }
+            depth--;
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            if (depth == 1) {
+                rootKey = key;
+            } else if (isBuilding()) {
+                if (depth == ISSUE_DEPTH) {
+                    skipping = !ISSUE_FIELDS.contains(key);
+                }
+                keys.push(key);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            if (depth > 1 && isBuilding()) {
+                keys.pop();
+                if (depth == ISSUE_DEPTH) {
+                    skipping = false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            if (isBuilding() && !skipping) {
+                add(value);
+            }
+            return true;
+        }
+
+        private boolean isBuilding() {
+            return inIssues && depth >= ISSUE_DEPTH;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void add(Object value) {
+            Object parent = containers.peek();
+            if (parent instanceof JSONObject) {
+                ((JSONObject) parent).put(keys.peek(), value);
+            } else if (parent instanceof JSONArray) {
+                ((JSONArray) parent).add(value);
+            }
+        }
+
+        private void handleIssue(JSONObject issue) {
+            if (isDismissed(issue)) {
+                LOG.debug("Skipping dismissed defect (mergeKey " + issue.get("mergeKey") + ")");
+                dismissed++;
+                return;
+            }
+            consumer.accept(toCoverityDefect(issue));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.defect;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    DefectCache stores a list of defects in a single gzip compressed binary file.
+    The file is first written next to its final location and then moved in place, so a directory can be shared
+    by concurrent analyses: readers see either the previous or the new file, never a partial one.
+ */
+public class DefectCache {
+    public static final int CACHE_MAGIC = 0x43445631; // "CDV1"
+    public static final int CACHE_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    public DefectCache(File directory, String name) {
+        this.file = new File(directory, name + ".bin.gz");
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean exists() {
+        return file.isFile();
+    }
+
+    /**
+     * Age of the cached defects in milliseconds, or Long.MAX_VALUE when nothing is cached.
+     */
+    public long getAgeMillis() {
+        if (!exists()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, System.currentTimeMillis() - file.lastModified());
+    }
+
+    public List<CoverityDefect> read() throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in, file.toString());
+        }
+    }
+
+    /**
+     * Reads defects in the format of the cache files, e.g. from the feed of DefectSnapshotWs.
+     *
+     * @param source name of the stream in error messages
+     */
+    public static List<CoverityDefect> read(InputStream stream, String source) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(stream, BUFFER_SIZE), BUFFER_SIZE))) {
+            if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION) {
+                throw new IOException("Unsupported defect cache file: " + source);
+            }
+
+            int count = in.readInt();
+            List<CoverityDefect> defects = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long cid = in.readLong();
+                defects.add(new CoverityDefect(
+                        cid >= 0 ? cid : null,
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        in.readInt()));
+            }
+            return defects;
+        }
+    }
+
+    public void write(List<CoverityDefect> defects) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(directory.toPath());
+
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            try (OutputStream out = new FileOutputStream(tmpFile)) {
+                write(out, defects);
+            }
+
+            try {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    /**
+     * Writes defects in the format of the cache files and closes the stream.
+     */
+    public static void write(OutputStream stream, List<CoverityDefect> defects) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(stream, BUFFER_SIZE), BUFFER_SIZE))) {
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(defects.size());
+            for (CoverityDefect defect : defects) {
+                out.writeLong(defect.getCid() != null ? defect.getCid() : -1);
+                writeString(out, defect.getDomain());
+                writeString(out, defect.getEventPath());
+                writeString(out, defect.getSubcategory());
+                writeString(out, defect.getCheckerName());
+                writeString(out, defect.getMergeKey());
+                writeString(out, defect.getMessageTemplate());
+                writeString(out, defect.getDescription());
+                writeString(out, defect.getLongDescription());
+                writeString(out, defect.getEventTag());
+                writeString(out, defect.getDisplayType());
+                writeString(out, defect.getSeverity());
+                out.writeInt(defect.getLineNumber());
+            }
+        }
+    }
+
+    // Strings are written as length prefixed utf-8, since descriptions are not limited to the 64KB of writeUTF
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
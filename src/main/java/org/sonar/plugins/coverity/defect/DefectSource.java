@@ -0,0 +1,35 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.defect;
+
+import java.io.IOException;
+import java.util.List;
+
+/*
+    DefectSource provides the Coverity defects imported by the sensor, e.g. from Coverity Connect or from a json report.
+    Sources can be wrapped by other sources, such as CachingDefectSource or FallbackDefectSource, to change where
+    the defects are read from without changing the sources themselves. CoverityDefects builds the chain of sources
+    from the configuration.
+ */
+public interface DefectSource {
+
+    /**
+     * Short name of the source, used in log messages.
+     */
+    String getName();
+
+    /**
+     * Returns the defects to import, which are not dismissed or fixed.
+     * @throws IOException when the defects cannot be provided
+     */
+    List<CoverityDefect> getDefects() throws IOException;
+}
@@ -0,0 +1,95 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.defect;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.ws.CimExecutors;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.*;
+
+/*
+    FallbackDefectSource gives the wrapped source a limited time to provide the defects. Every successful result is
+    kept as the last good result; when the wrapped source fails or does not answer in time, the last good result is
+    returned instead, so an unavailable Coverity Connect does not block or empty the analysis.
+ */
+public class FallbackDefectSource implements DefectSource {
+    private static final Logger LOG = LoggerFactory.getLogger(FallbackDefectSource.class);
+
+    private final DefectSource delegate;
+    private final DefectCache lastGoodResult;
+    private final long timeoutMillis;
+
+    public FallbackDefectSource(DefectSource delegate, DefectCache lastGoodResult, long timeoutMillis) {
+        this.delegate = delegate;
+        this.lastGoodResult = lastGoodResult;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName() + " with fallback to " + lastGoodResult.getFile();
+    }
+
+    @Override
+    public List<CoverityDefect> getDefects() throws IOException {
+        List<CoverityDefect> defects;
+        try {
+            defects = getDefectsInTime();
+        } catch (IOException e) {
+            return fallback(e);
+        }
+
+        try {
+            lastGoodResult.write(defects);
+        } catch (IOException e) {
+            LOG.warn("[Coverity] Could not save the defects as last good result: " + e.getMessage());
+        }
+        return defects;
+    }
+
+    private List<CoverityDefect> getDefectsInTime() throws IOException {
+        // the thread is abandoned when the source does not answer in time, so it must not keep the scanner alive
+        ExecutorService executor = CimExecutors.newExecutor("coverity-defect-source", 1, true);
+
+        try {
+            Future<List<CoverityDefect>> future = executor.submit(delegate::getDefects);
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException(delegate.getName() + " did not provide the defects within " + timeoutMillis + "ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retrieving the defects", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<CoverityDefect> fallback(IOException cause) throws IOException {
+        if (!lastGoodResult.exists()) {
+            throw cause;
+        }
+
+        List<CoverityDefect> defects = lastGoodResult.read();
+        LOG.warn("[Coverity] " + cause.getMessage() + ". Using the last good result from " + lastGoodResult.getFile()
+                + " (" + lastGoodResult.getAgeMillis() / 1000 + "s old, " + defects.size() + " defects)");
+        return defects;
+    }
+}
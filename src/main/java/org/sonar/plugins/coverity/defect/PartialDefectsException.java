@@ -0,0 +1,42 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.defect;
+
+import java.io.IOException;
+import java.util.List;
+
+/*
+    PartialDefectsException is thrown by a defect source which ran out of time, with the defects it could provide.
+    Layers with an earlier result, such as FallbackDefectSource, use it instead; otherwise CoverityDefects imports
+    the partial defects. Partial defects are never cached.
+ */
+public class PartialDefectsException extends IOException {
+    private final transient List<CoverityDefect> defects;
+    private final int skippedDefects;
+
+    public PartialDefectsException(String message, List<CoverityDefect> defects, int skippedDefects) {
+        super(message);
+        this.defects = defects;
+        this.skippedDefects = skippedDefects;
+    }
+
+    public List<CoverityDefect> getDefects() {
+        return defects;
+    }
+
+    /**
+     * Number of merged defects whose details were not retrieved
+     */
+    public int getSkippedDefects() {
+        return skippedDefects;
+    }
+}
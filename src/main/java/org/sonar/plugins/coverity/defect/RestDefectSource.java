@@ -0,0 +1,154 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.defect;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+import org.sonar.plugins.coverity.ws.CIMRestClient;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Function;
+
+import static org.sonar.plugins.coverity.ws.CIMRestClient.*;
+
+/*
+    RestDefectSource retrieves the defects of the configured streams or projects through the REST API of
+    Coverity Connect. The defects are the same as the ones of CimDefectSource, with one defect per CID.
+ */
+public class RestDefectSource implements DefectSource {
+    private static final Logger LOG = LoggerFactory.getLogger(RestDefectSource.class);
+
+    private CIMRestClient restClient;
+    private ImportStatistics statistics;
+    private Function<String, String> pathConverter;
+
+    private List<String> covStreams;
+    private List<String> covProjects;
+    private Map<String, Long> projectKeys = new LinkedHashMap<>();
+
+    /**
+     * @param covStreams streams to import defects from; when empty the projects are used
+     * @param pathConverter converts the file path of the main event, e.g. to strip a prefix
+     */
+    public RestDefectSource(CIMRestClient restClient, List<String> covStreams, List<String> covProjects,
+                            Function<String, String> pathConverter, ImportStatistics statistics) {
+        this.restClient = restClient;
+        this.covStreams = covStreams;
+        this.covProjects = covProjects;
+        this.pathConverter = pathConverter;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public String getName() {
+        return "Coverity Connect REST API";
+    }
+
+    /**
+     * The keys of the projects found in Coverity Connect, by name. Empty until the defects have been retrieved.
+     */
+    public Map<String, Long> getProjectKeys() {
+        return projectKeys;
+    }
+
+    @Override
+    public List<CoverityDefect> getDefects() throws IOException {
+        List<CoverityDefect> coverityDefectList = new ArrayList<>();
+        Set<Long> cids = new HashSet<>();
+
+        if (!covStreams.isEmpty()) {
+            LOG.info("Fetching defects for streams: " + covStreams);
+            for (String covStream : covStreams) {
+                String template = getUrlPrefix() + String.format("stream=%s", covStream);
+                addDefects(restClient.searchIssues(SCOPE_STREAM, Collections.singletonList(covStream)), template, cids, coverityDefectList);
+            }
+            return coverityDefectList;
+        }
+
+        ImportStatistics.Timer timer = statistics.start(ImportStatistics.Phase.PROJECT_LOOKUP);
+        try {
+            for (String covProject : covProjects) {
+                Long projectKey = restClient.getProjectKey(covProject);
+                if (projectKey == null) {
+                    throw new IOException("Couldn't find project: " + covProject);
+                }
+                LOG.info("Found project: " + covProject + " (" + projectKey + ")");
+                projectKeys.put(covProject, projectKey);
+            }
+        } finally {
+            timer.stop();
+        }
+
+        LOG.info("Fetching defects for projects: " + covProjects);
+        for (Map.Entry<String, Long> project : projectKeys.entrySet()) {
+            String template = getUrlPrefix() + String.format("projectId=%s", project.getValue());
+            addDefects(restClient.searchIssues(SCOPE_PROJECT, Collections.singletonList(project.getKey())), template, cids, coverityDefectList);
+        }
+        return coverityDefectList;
+    }
+
+    private void addDefects(List<Map<String, String>> issues, String messageTemplate, Set<Long> cids,
+                            List<CoverityDefect> coverityDefectList) {
+        ImportStatistics.Timer timer = statistics.start(ImportStatistics.Phase.MERGED_DEFECTS);
+        statistics.increment(ImportStatistics.MERGED_DEFECTS, issues.size());
+
+        for (Map<String, String> issue : issues) {
+            Long cid = Long.valueOf(issue.get(COLUMN_CID));
+
+            // A CID found in several streams or projects is only imported once, like with CimDefectSource
+            if (!cids.add(cid) || shouldFilterOut(cid, issue.get(COLUMN_STATUS))) {
+                statistics.increment(ImportStatistics.FILTERED_DEFECTS);
+                continue;
+            }
+
+            String filePath = issue.get(COLUMN_FILE);
+            if (!StringUtils.isEmpty(filePath)) {
+                filePath = pathConverter.apply(filePath);
+            }
+
+            String lineNumber = issue.get(COLUMN_LINE);
+
+            coverityDefectList.add(new CoverityDefect(
+                    cid,
+                    issue.get(COLUMN_DOMAIN),
+                    filePath,
+                    issue.get(COLUMN_SUBCATEGORY),
+                    issue.get(COLUMN_CHECKER),
+                    issue.get(COLUMN_MERGE_KEY),
+                    messageTemplate,
+                    issue.get(COLUMN_EVENT_DESCRIPTION),
+                    issue.get(COLUMN_LONG_DESCRIPTION),
+                    issue.get(COLUMN_EVENT_TAG),
+                    issue.get(COLUMN_TYPE),
+                    issue.get(COLUMN_IMPACT),
+                    StringUtils.isNumeric(lineNumber) && !lineNumber.isEmpty() ? Integer.parseInt(lineNumber) : 1));
+            statistics.increment(ImportStatistics.IMPORTED_DEFECTS);
+        }
+        timer.stop();
+    }
+
+    private boolean shouldFilterOut(Long cid, String status) {
+        if ("Dismissed".equals(status) || "Fixed".equals(status) || "Absent Dismissed".equals(status)) {
+            LOG.info("Skipping resolved defect (CID " + cid + ", status '" + status + "')");
+            return true;
+        }
+        return false;
+    }
+
+    private String getUrlPrefix() {
+        return String.format("%s://%s:%d/query/defects.htm?", restClient.isUseSSL() ? "https" : "http",
+                restClient.getHost(), restClient.getPort());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.defect;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+import org.sonar.plugins.coverity.server.DefectSnapshotWs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/*
+    ServerDefectSource reads the defects of the configured streams or projects from the SonarQube server, which
+    keeps the latest defects of Coverity Connect in DefectSnapshotCache. All the analyses of the same streams or
+    projects then share one retrieval from Coverity Connect per snapshot. The feed has the Coverity paths of the
+    defects, they are converted to local paths here.
+
+    The first time the defects of a set of streams or projects are requested, the server retrieves them in the
+    background and answers 503 with a Retry-After header; the request is then sent again until the defects are
+    ready, for at most the read timeout.
+ */
+public class ServerDefectSource implements DefectSource {
+    private static final Logger LOG = LoggerFactory.getLogger(ServerDefectSource.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+    private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.MINUTES.toMillis(30);
+
+    private String serverUrl;
+    private String login;
+    private String password;
+    private List<String> covStreams;
+    private List<String> covProjects;
+    private Function<String, String> pathConverter;
+    private ImportStatistics statistics;
+
+    /**
+     * @param serverUrl url of the SonarQube server, i.e. sonar.host.url
+     * @param login user name or token used to authenticate to the server, or null
+     * @param pathConverter converts the file path of the main event, e.g. to strip a prefix
+     */
+    public ServerDefectSource(String serverUrl, String login, String password, List<String> covStreams,
+                              List<String> covProjects, Function<String, String> pathConverter, ImportStatistics statistics) {
+        this.serverUrl = StringUtils.removeEnd(serverUrl, "/");
+        this.login = login;
+        this.password = password;
+        this.covStreams = covStreams;
+        this.covProjects = covProjects;
+        this.pathConverter = pathConverter;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public String getName() {
+        return "SonarQube server " + serverUrl;
+    }
+
+    @Override
+    public List<CoverityDefect> getDefects() throws IOException {
+        URL url = new URL(serverUrl + "/" + DefectSnapshotWs.CONTROLLER + "/" + DefectSnapshotWs.ACTION_DEFECTS
+                + "?" + DefectSnapshotWs.PARAM_STREAMS + "=" + encode(covStreams)
+                + "&" + DefectSnapshotWs.PARAM_PROJECTS + "=" + encode(covProjects));
+
+        long deadline = System.currentTimeMillis() + READ_TIMEOUT_MILLIS;
+        HttpURLConnection connection = openConnection(url);
+        try {
+            int responseCode = connection.getResponseCode();
+            while (responseCode == HttpURLConnection.HTTP_UNAVAILABLE && connection.getHeaderField("Retry-After") != null
+                    && System.currentTimeMillis() < deadline) {
+                connection.disconnect();
+                LOG.info("[Coverity] Waiting for " + getName() + " to retrieve the defects from Coverity Connect");
+                sleep(getRetryAfterMillis(connection));
+                connection = openConnection(url);
+                responseCode = connection.getResponseCode();
+            }
+
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("SonarQube server returned HTTP " + responseCode + " "
+                        + connection.getResponseMessage() + " for " + url.getPath());
+            }
+
+            List<CoverityDefect> defects;
+            try (InputStream in = connection.getInputStream()) {
+                defects = DefectCache.read(in, url.toString());
+            }
+
+            List<CoverityDefect> converted = new ArrayList<>(defects.size());
+            for (CoverityDefect defect : defects) {
+                converted.add(defect.getEventPath() != null ? defect.withEventPath(pathConverter.apply(defect.getEventPath())) : defect);
+            }
+            statistics.increment(ImportStatistics.IMPORTED_DEFECTS, converted.size());
+            LOG.info("[Coverity] Read " + converted.size() + " defects from " + getName());
+            return converted;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        if (!StringUtils.isEmpty(login)) {
+            String credentials = login + ":" + StringUtils.defaultString(password);
+            connection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+                    credentials.getBytes(StandardCharsets.UTF_8)));
+        }
+        return connection;
+    }
+
+    private static long getRetryAfterMillis(HttpURLConnection connection) {
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(1, Long.parseLong(connection.getHeaderField("Retry-After").trim())));
+        } catch (NumberFormatException e) {
+            return TimeUnit.SECONDS.toMillis(DefectSnapshotWs.RETRY_AFTER_SECONDS);
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the SonarQube server");
+        }
+    }
+
+    private static String encode(List<String> values) throws IOException {
+        return URLEncoder.encode(StringUtils.join(values, ','), "UTF-8");
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.defect;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.batch.ScannerSide;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    SharedDefectIndex is created once per analysis, while CoveritySensor runs once per module. The defects are
+    retrieved by the first module and indexed by path; the following modules with the same configuration reuse
+    them instead of retrieving all defects again. Only the index is kept, with the counts of the defects by
+    severity: each module claims the paths of its files by removing them, so the defects of a path are released
+    once imported, and less and less of them are left in memory for the following modules.
+
+    The defects of a key can also be prefetched in the background before the first module runs, see
+    DefectPrefetcher. The first module then waits for the prefetch instead of retrieving the defects itself.
+ */
+@ScannerSide
+@InstantiationStrategy(InstantiationStrategy.PER_PROJECT)
+public class SharedDefectIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedDefectIndex.class);
+
+    /**
+     * Retrieves the defects of a module, only called for the first module with a given key
+     */
+    public interface Loader {
+        List<CoverityDefect> load() throws IOException;
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Future<Entry>> prefetches = new HashMap<>();
+
+    /**
+     * Starts retrieving the defects of the given key in a background thread, unless they are already retrieved
+     * or being retrieved.
+     */
+    synchronized void prefetch(String key, Callable<Entry> task) {
+        if (entries.containsKey(key) || prefetches.containsKey(key)) {
+            return;
+        }
+
+        FutureTask<Entry> future = new FutureTask<>(task);
+        Thread thread = new Thread(future, "coverity-defect-prefetch");
+        thread.setDaemon(true);
+        thread.setContextClassLoader(SharedDefectIndex.class.getClassLoader());
+        thread.start();
+        prefetches.put(key, future);
+    }
+
+    /**
+     * Returns the defects retrieved for the given key, retrieving them with the loader the first time. A failure
+     * is also kept, so the following modules do not contact Coverity Connect again.
+     *
+     * @param key identifies everything the retrieved defects depend on
+     */
+    public synchronized Entry get(String key, Loader loader) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.shared = true;
+        } else {
+            entry = getPrefetched(key);
+        }
+        if (entry == null) {
+            try {
+                entry = new Entry(loader.load());
+            } catch (IOException | RuntimeException e) {
+                entry = new Entry(e);
+            }
+            entries.put(key, entry);
+        }
+
+        if (entry.failure != null) {
+            throw new IOException(entry.failure.getMessage(), entry.failure);
+        }
+        return entry;
+    }
+
+    /**
+     * Waits for the prefetch of the key, if any. A failed prefetch is ignored, so the module retrieves the
+     * defects itself.
+     */
+    private Entry getPrefetched(String key) {
+        Future<Entry> future = prefetches.remove(key);
+        if (future == null) {
+            return null;
+        }
+
+        try {
+            Entry entry = future.get();
+            entries.put(key, entry);
+            return entry;
+        } catch (ExecutionException e) {
+            LOG.warn("[Coverity] Could not prefetch the defects: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    public static class Entry {
+        private final int defectCount;
+        private final Map<String, Integer> severityCounts;
+        private final Map<String, List<CoverityDefect>> defectsByPath;
+        private final Exception failure;
+        private boolean shared;
+        private Long projectKey;
+        private ImportStatistics prefetchStatistics;
+
+        /**
+         * Indexes the defects, the list itself is not kept
+         */
+        Entry(List<CoverityDefect> defects) {
+            this.defectCount = defects.size();
+            this.severityCounts = countBySeverity(defects);
+            this.defectsByPath = indexByPath(defects);
+            this.failure = null;
+        }
+
+        Entry(Exception failure) {
+            this.defectCount = 0;
+            this.severityCounts = Collections.emptyMap();
+            this.defectsByPath = Collections.emptyMap();
+            this.failure = failure;
+        }
+
+        /**
+         * The number of defects retrieved, including the ones claimed by other modules
+         */
+        public int getDefectCount() {
+            return defectCount;
+        }
+
+        /**
+         * The number of defects retrieved by severity, for the defects with a severity, including the ones claimed
+         * by other modules
+         */
+        public Map<String, Integer> getSeverityCounts() {
+            return severityCounts;
+        }
+
+        /**
+         * The defects not claimed yet by a module, by path. Removing a path claims its defects.
+         */
+        public Map<String, List<CoverityDefect>> getDefectsByPath() {
+            return defectsByPath;
+        }
+
+        /**
+         * Whether the defects were retrieved by a previous module
+         */
+        public boolean isShared() {
+            return shared;
+        }
+
+        /**
+         * The key of the Coverity Connect project of the defects, when known
+         */
+        public Long getProjectKey() {
+            return projectKey;
+        }
+
+        public void setProjectKey(Long projectKey) {
+            this.projectKey = projectKey;
+        }
+
+        /**
+         * The statistics of the prefetch of the defects, or null when they were not prefetched
+         */
+        ImportStatistics getPrefetchStatistics() {
+            return prefetchStatistics;
+        }
+
+        void setPrefetchStatistics(ImportStatistics prefetchStatistics) {
+            this.prefetchStatistics = prefetchStatistics;
+        }
+
+        private static Map<String, Integer> countBySeverity(List<CoverityDefect> defects) {
+            Map<String, Integer> severityCounts = new HashMap<>();
+            for (CoverityDefect defect : defects) {
+                if (defect.getSeverity() != null && !defect.getSeverity().isEmpty()) {
+                    severityCounts.merge(defect.getSeverity(), 1, Integer::sum);
+                }
+            }
+            return Collections.unmodifiableMap(severityCounts);
+        }
+
+        private static Map<String, List<CoverityDefect>> indexByPath(List<CoverityDefect> defects) {
+            Map<String, List<CoverityDefect>> defectsByPath = new ConcurrentHashMap<>();
+            for (CoverityDefect defect : defects) {
+                String path = defect.getEventPath() != null ? defect.getEventPath() : "";
+                defectsByPath.computeIfAbsent(path, k -> new ArrayList<>()).add(defect);
+            }
+            return defectsByPath;
+        }
+    }
+}
@@ -73,9 +73,66 @@ public class CoverityPluginMetrics implements Metrics{
             .setDomain(DOMAIN)
             .create();
 
+    // This metric will contain the time spent fetching defects from CIM during the last import.
+    public static final Metric<Long> COVERITY_IMPORT_FETCH_TIME = new Metric.Builder("COVERITY-IMPORT-FETCH-TIME", "Import Fetch Time", Metric.ValueType.MILLISEC)
+            .setDirection(Metric.DIRECTION_WORST)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
+
+    // This metric will contain the size of the CIM responses downloaded during the last import, in kilobytes.
+    public static final Metric<Integer> COVERITY_IMPORT_DOWNLOADED_KB = new Metric.Builder("COVERITY-IMPORT-DOWNLOADED-KB", "Import Downloaded KB", Metric.ValueType.INT)
+            .setDirection(Metric.DIRECTION_WORST)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
+
+    // This metric will contain the number of CIM web service calls made during the last import.
+    public static final Metric<Integer> COVERITY_IMPORT_CIM_CALLS = new Metric.Builder("COVERITY-IMPORT-CIM-CALLS", "Import CIM Calls", Metric.ValueType.INT)
+            .setDirection(Metric.DIRECTION_WORST)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
+
+    // This metric will contain the number of defect paths which could not be matched to an input file.
+    public static final Metric<Integer> COVERITY_IMPORT_UNRESOLVED_PATHS = new Metric.Builder("COVERITY-IMPORT-UNRESOLVED-PATHS", "Import Unresolved Paths", Metric.ValueType.INT)
+            .setDirection(Metric.DIRECTION_WORST)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
+
+    // This metric will contain the number of defects for which no active rule could be found.
+    public static final Metric<Integer> COVERITY_IMPORT_UNRESOLVED_RULES = new Metric.Builder("COVERITY-IMPORT-UNRESOLVED-RULES", "Import Unresolved Rules", Metric.ValueType.INT)
+            .setDirection(Metric.DIRECTION_WORST)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
+
+    // This metric will contain the number of defect instances not saved as issues because an issue with the same CID, file, line and rule was saved.
+    public static final Metric<Integer> COVERITY_IMPORT_DUPLICATE_ISSUES = new Metric.Builder("COVERITY-IMPORT-DUPLICATE-ISSUES", "Import Duplicate Issues", Metric.ValueType.INT)
+            .setDirection(Metric.DIRECTION_NONE)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
+
+    // This metric will contain the number of defects not imported because their details could not be retrieved within the time budget.
+    public static final Metric<Integer> COVERITY_IMPORT_SKIPPED_DEFECTS = new Metric.Builder("COVERITY-IMPORT-SKIPPED-DEFECTS", "Import Skipped Defects", Metric.ValueType.INT)
+            .setDirection(Metric.DIRECTION_WORST)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
+
+    // This metric will contain the ratio of cache hits over cache lookups during the last import.
+    public static final Metric<Double> COVERITY_IMPORT_CACHE_HIT_RATIO = new Metric.Builder("COVERITY-IMPORT-CACHE-HIT-RATIO", "Import Cache Hit Ratio", Metric.ValueType.PERCENT)
+            .setDirection(Metric.DIRECTION_BETTER)
+            .setQualitative(false)
+            .setDomain(DOMAIN)
+            .create();
 
     public List<Metric> getMetrics() {
         return Arrays.asList(COVERITY_URL_CIM_METRIC, COVERITY_PROJECT_NAME, COVERITY_PROJECT_URL, COVERITY_OUTSTANDING_ISSUES, COVERITY_HIGH_IMPACT,
-                COVERITY_MEDIUM_IMPACT, COVERITY_LOW_IMPACT);
+                COVERITY_MEDIUM_IMPACT, COVERITY_LOW_IMPACT, COVERITY_IMPORT_FETCH_TIME, COVERITY_IMPORT_DOWNLOADED_KB,
+                COVERITY_IMPORT_CIM_CALLS, COVERITY_IMPORT_UNRESOLVED_PATHS, COVERITY_IMPORT_UNRESOLVED_RULES,
+                COVERITY_IMPORT_DUPLICATE_ISSUES, COVERITY_IMPORT_SKIPPED_DEFECTS, COVERITY_IMPORT_CACHE_HIT_RATIO);
     }
 }
@@ -0,0 +1,264 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.metrics;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    ImportStatistics collects timings and counters of one Coverity import, per phase of the sensor and per
+    CIM web service operation. At the end of the import they are logged as a summary and written as json
+    to the scanner work directory, so the cost of the import can be tracked over time.
+    All methods are thread safe.
+ */
+public class ImportStatistics {
+    private static final Logger LOG = LoggerFactory.getLogger(ImportStatistics.class);
+
+    public static final String JSON_FILE_NAME = "coverity-import-statistics.json";
+
+    public enum Phase {
+        CONFIG_VALIDATION,
+        CIM_WAIT,
+        PROJECT_LOOKUP,
+        REPORT_PARSING,
+        MERGED_DEFECTS,
+        STREAM_DEFECTS,
+        FILTERING,
+        PATH_RESOLUTION,
+        RULE_RESOLUTION,
+        ISSUE_SAVING
+    }
+
+    public static final String MERGED_DEFECTS = "mergedDefects";
+    public static final String STREAM_DEFECTS = "streamDefects";
+    public static final String FILTERED_DEFECTS = "filteredDefects";
+    public static final String IMPORTED_DEFECTS = "importedDefects";
+    public static final String UNRESOLVED_PATHS = "unresolvedPaths";
+    public static final String UNRESOLVED_RULES = "unresolvedRules";
+    public static final String SAVED_ISSUES = "savedIssues";
+    public static final String DUPLICATE_ISSUES = "duplicateIssues";
+    public static final String SKIPPED_DEFECTS = "skippedDefects";
+    public static final String CACHE_LOOKUPS = "cacheLookups";
+    public static final String CACHE_HITS = "cacheHits";
+    public static final String DELAYED_CIM_CALLS = "delayedCimCalls";
+
+    private final long startTime = System.nanoTime();
+    private final ConcurrentMap<Phase, AtomicLong> phaseNanos = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, OperationStatistics> operations = new ConcurrentHashMap<>();
+
+    /**
+     * Starts timing a phase. The returned timer adds the elapsed time to the phase when stopped.
+     */
+    public Timer start(Phase phase) {
+        return new Timer(phase);
+    }
+
+    public void addTime(Phase phase, long nanos) {
+        get(phaseNanos, phase).addAndGet(nanos);
+    }
+
+    public void increment(String counter) {
+        increment(counter, 1);
+    }
+
+    public void increment(String counter, long delta) {
+        get(counters, counter).addAndGet(delta);
+    }
+
+    /**
+     * Records one call to a CIM web service operation.
+     * @param bytes size of the response, or a negative value when it is not known
+     */
+    public void addCimCall(String operation, long nanos, long bytes) {
+        OperationStatistics statistics = getOperation(operation);
+        statistics.calls.incrementAndGet();
+        statistics.nanos.addAndGet(nanos);
+        if (bytes > 0) {
+            statistics.bytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Adds the timings, counters and calls of another import, e.g. of the defects prefetched for this one.
+     */
+    public void addAll(ImportStatistics other) {
+        for (Map.Entry<Phase, AtomicLong> phase : other.phaseNanos.entrySet()) {
+            addTime(phase.getKey(), phase.getValue().get());
+        }
+        for (Map.Entry<String, AtomicLong> counter : other.counters.entrySet()) {
+            increment(counter.getKey(), counter.getValue().get());
+        }
+        for (Map.Entry<String, OperationStatistics> operation : other.operations.entrySet()) {
+            OperationStatistics statistics = getOperation(operation.getKey());
+            statistics.calls.addAndGet(operation.getValue().calls.get());
+            statistics.nanos.addAndGet(operation.getValue().nanos.get());
+            statistics.bytes.addAndGet(operation.getValue().bytes.get());
+        }
+    }
+
+    public long getTimeMillis(Phase phase) {
+        AtomicLong nanos = phaseNanos.get(phase);
+        return nanos == null ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos.get());
+    }
+
+    public long getCount(String counter) {
+        AtomicLong value = counters.get(counter);
+        return value == null ? 0 : value.get();
+    }
+
+    public long getCimCalls() {
+        long calls = 0;
+        for (OperationStatistics statistics : operations.values()) {
+            calls += statistics.calls.get();
+        }
+        return calls;
+    }
+
+    public long getCimBytes() {
+        long bytes = 0;
+        for (OperationStatistics statistics : operations.values()) {
+            bytes += statistics.bytes.get();
+        }
+        return bytes;
+    }
+
+    /**
+     * Time spent talking to CIM: the project/stream lookup and the merged and stream defect fetches.
+     */
+    public long getFetchTimeMillis() {
+        return getTimeMillis(Phase.PROJECT_LOOKUP) + getTimeMillis(Phase.MERGED_DEFECTS) + getTimeMillis(Phase.STREAM_DEFECTS);
+    }
+
+    /**
+     * Percentage of cache lookups that were hits, or null when no cache was consulted.
+     */
+    public Double getCacheHitRatio() {
+        long lookups = getCount(CACHE_LOOKUPS);
+        if (lookups == 0) {
+            return null;
+        }
+        return 100.0 * getCount(CACHE_HITS) / lookups;
+    }
+
+    public long getTotalTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    public void logSummary() {
+        StringBuilder summary = new StringBuilder("[Coverity] Import statistics: total=")
+                .append(getTotalTimeMillis()).append("ms");
+
+        for (Phase phase : Phase.values()) {
+            summary.append(", ").append(phase.name().toLowerCase()).append('=').append(getTimeMillis(phase)).append("ms");
+        }
+        for (Map.Entry<String, AtomicLong> counter : new TreeMap<>(counters).entrySet()) {
+            summary.append(", ").append(counter.getKey()).append('=').append(counter.getValue().get());
+        }
+        LOG.info(summary.toString());
+
+        for (Map.Entry<String, OperationStatistics> operation : new TreeMap<>(operations).entrySet()) {
+            OperationStatistics statistics = operation.getValue();
+            LOG.info("[Coverity] CIM operation " + operation.getKey() + ": calls=" + statistics.calls.get()
+                    + ", time=" + TimeUnit.NANOSECONDS.toMillis(statistics.nanos.get()) + "ms"
+                    + ", bytes=" + statistics.bytes.get());
+        }
+    }
+
+    /**
+     * Writes the statistics to {@link #JSON_FILE_NAME} in the given directory.
+     */
+    public File writeJson(File directory) throws IOException {
+        File file = new File(directory, JSON_FILE_NAME);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            toJson().writeJSONString(writer);
+        }
+        return file;
+    }
+
+    @SuppressWarnings("unchecked")
+    public JSONObject toJson() {
+        JSONObject phases = new JSONObject();
+        for (Phase phase : Phase.values()) {
+            phases.put(phase.name().toLowerCase(), getTimeMillis(phase));
+        }
+
+        JSONObject counterValues = new JSONObject();
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            counterValues.put(counter.getKey(), counter.getValue().get());
+        }
+
+        JSONObject operationValues = new JSONObject();
+        for (Map.Entry<String, OperationStatistics> operation : operations.entrySet()) {
+            JSONObject values = new JSONObject();
+            values.put("calls", operation.getValue().calls.get());
+            values.put("timeMs", TimeUnit.NANOSECONDS.toMillis(operation.getValue().nanos.get()));
+            values.put("bytes", operation.getValue().bytes.get());
+            operationValues.put(operation.getKey(), values);
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("totalTimeMs", getTotalTimeMillis());
+        json.put("phasesMs", phases);
+        json.put("counters", counterValues);
+        json.put("cimOperations", operationValues);
+        return json;
+    }
+
+    private OperationStatistics getOperation(String operation) {
+        OperationStatistics statistics = operations.get(operation);
+        if (statistics == null) {
+            operations.putIfAbsent(operation, new OperationStatistics());
+            statistics = operations.get(operation);
+        }
+        return statistics;
+    }
+
+    private static <K> AtomicLong get(ConcurrentMap<K, AtomicLong> map, K key) {
+        AtomicLong value = map.get(key);
+        if (value == null) {
+            map.putIfAbsent(key, new AtomicLong());
+            value = map.get(key);
+        }
+        return value;
+    }
+
+    private static class OperationStatistics {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+    }
+
+    public class Timer {
+        private final Phase phase;
+        private final long start;
+
+        private Timer(Phase phase) {
+            this.phase = phase;
+            this.start = System.nanoTime();
+        }
+
+        public void stop() {
+            addTime(phase, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.server;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.Startable;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.defect.CimDefectSource;
+import org.sonar.plugins.coverity.defect.CoverityDefect;
+import org.sonar.plugins.coverity.defect.DefectCache;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+import org.sonar.plugins.coverity.ws.CIMClient;
+import org.sonar.plugins.coverity.ws.CIMClientFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/*
+    DefectSnapshotCache keeps the latest defects of Coverity Connect streams or projects in the SonarQube server, so
+    the analyses of the same streams or projects read them from the server through DefectSnapshotWs instead of each
+    retrieving them from Coverity Connect.
+
+    Only the streams and projects listed in the settings of the server are served, since their defects are read
+    with the Coverity Connect credentials of the server. The defects of a set of them are retrieved in the background
+    the first time they are requested, the scanner asks again until they are ready, and kept as the gzip compressed
+    feed sent to the scanners. They are refreshed on a schedule, incrementally: each refresh only asks Coverity
+    Connect for the ids of the snapshots committed to the streams since the last retrieval, and the defects are only
+    retrieved again when there is a new snapshot or when they are older than the maximum age, to pick up triage
+    changes. Defects no analysis requested for a day are dropped, and so are the least recently requested ones
+    beyond MAX_ENTRIES sets of streams or projects.
+
+    The retrievals and refreshes all run on a single thread, one at a time, with the class loader of the plugin as
+    context class loader: the thread is created by the server, whose class loader does not see the JAX-WS and SAAJ
+    implementations bundled with the plugin.
+ */
+@ServerSide
+public class DefectSnapshotCache implements Startable {
+    private static final Logger LOG = LoggerFactory.getLogger(DefectSnapshotCache.class);
+
+    // Snapshots are looked up from a bit before the last retrieval, in case the clocks of the servers differ
+    private static final long CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long EVICTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+    static final int MAX_ENTRIES = 100;
+
+    private final Configuration config;
+    private final CIMClientFactory cimClientFactory;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+
+    public DefectSnapshotCache(Configuration config, CIMClientFactory cimClientFactory) {
+        this.config = config;
+        this.cimClientFactory = cimClientFactory;
+    }
+
+    @Override
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "coverity-snapshot-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long interval = config.getLong(CoverityPlugin.COVERITY_SERVER_REFRESH_INTERVAL).orElse(300L);
+        if (interval > 0) {
+            executor.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Whether the defects of the streams or, when no stream is given, of the projects may be served, i.e. all of
+     * them are listed in the settings of the server.
+     */
+    public boolean isServed(List<String> streams, List<String> projects) {
+        if (!streams.isEmpty()) {
+            return Arrays.asList(config.getStringArray(CoverityPlugin.COVERITY_SERVER_STREAMS)).containsAll(streams);
+        }
+        return !projects.isEmpty()
+                && Arrays.asList(config.getStringArray(CoverityPlugin.COVERITY_SERVER_PROJECTS)).containsAll(projects);
+    }
+
+    /**
+     * Returns the latest defects of the streams or, when no stream is given, of the projects, or null while they
+     * are retrieved from Coverity Connect the first time they are requested. The failure of the last retrieval is
+     * thrown once, the next request retrieves the defects again.
+     */
+    public Snapshot getSnapshot(List<String> streams, List<String> projects) throws IOException {
+        if (!isServed(streams, projects)) {
+            throw new IllegalArgumentException("The defects of " + (!streams.isEmpty() ? "streams " + streams : "projects " + projects)
+                    + " are not served by this server");
+        }
+
+        List<String> requestedProjects = streams.isEmpty() ? projects : Collections.emptyList();
+        String key = StringUtils.join(streams, ',') + "\n" + StringUtils.join(requestedProjects, ',');
+        Entry entry = entries.computeIfAbsent(key, k -> new Entry(streams, requestedProjects));
+        entry.lastRequested = System.currentTimeMillis();
+        if (entries.size() > MAX_ENTRIES) {
+            evictLeastRecentlyRequested();
+        }
+        return entry.get();
+    }
+
+    private void evictLeastRecentlyRequested() {
+        Map.Entry<String, Entry> oldest = null;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (oldest == null || entry.getValue().lastRequested < oldest.getValue().lastRequested) {
+                oldest = entry;
+            }
+        }
+        if (oldest != null) {
+            entries.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    /**
+     * Refreshes the defects of all streams and projects requested during the last day, and drops the others. Runs
+     * on the refresh thread.
+     */
+    void refresh() {
+        withPluginClassLoader(() -> {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (now - entry.getValue().lastRequested > EVICTION_MILLIS) {
+                    entries.remove(entry.getKey());
+                    continue;
+                }
+
+                try {
+                    entry.getValue().refresh();
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("[Coverity] Could not refresh the defects of " + entry.getValue() + ": " + e.getMessage());
+                    LOG.debug("[Coverity] Exception occurred during refreshing defects", e);
+                }
+            }
+        });
+    }
+
+    private static void withPluginClassLoader(Runnable task) {
+        ClassLoader oldCL = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(DefectSnapshotCache.class.getClassLoader());
+        try {
+            task.run();
+        } finally {
+            Thread.currentThread().setContextClassLoader(oldCL);
+        }
+    }
+
+    /**
+     * The defects of a set of streams or projects, as sent to the scanners
+     */
+    public static class Snapshot {
+        private final byte[] feed;
+        private final int defectCount;
+        private final long retrievedAt;
+        private final List<String> streamNames;
+        private final Set<Long> snapshotIds;
+
+        Snapshot(byte[] feed, int defectCount, long retrievedAt, List<String> streamNames, Set<Long> snapshotIds) {
+            this.feed = feed;
+            this.defectCount = defectCount;
+            this.retrievedAt = retrievedAt;
+            this.streamNames = streamNames;
+            this.snapshotIds = snapshotIds;
+        }
+
+        /**
+         * The defects in the format of DefectCache, gzip compressed
+         */
+        public byte[] getFeed() {
+            return feed;
+        }
+
+        public int getDefectCount() {
+            return defectCount;
+        }
+
+        /**
+         * When the defects were retrieved from Coverity Connect, in milliseconds since the epoch
+         */
+        public long getRetrievedAt() {
+            return retrievedAt;
+        }
+    }
+
+    private class Entry {
+        private final List<String> streams;
+        private final List<String> projects;
+        private final AtomicBoolean retrieving = new AtomicBoolean();
+        private volatile Snapshot snapshot;
+        private volatile IOException failure;
+        private volatile long lastRequested;
+
+        Entry(List<String> streams, List<String> projects) {
+            this.streams = new ArrayList<>(streams);
+            this.projects = new ArrayList<>(projects);
+        }
+
+        /**
+         * Returns the snapshot, or null after starting its retrieval on the refresh thread unless it is running
+         */
+        Snapshot get() throws IOException {
+            Snapshot current = snapshot;
+            if (current != null || !retrieving.compareAndSet(false, true)) {
+                return current;
+            }
+
+            IOException lastFailure = failure;
+            if (lastFailure != null) {
+                failure = null;
+                retrieving.set(false);
+                throw lastFailure;
+            }
+            executor.execute(() -> withPluginClassLoader(() -> {
+                try {
+                    if (snapshot == null) {
+                        retrieve();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("[Coverity] Could not retrieve the defects of " + this + ": " + e.getMessage());
+                    failure = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+                } finally {
+                    retrieving.set(false);
+                }
+            }));
+            return null;
+        }
+
+        void refresh() throws IOException {
+            if (snapshot == null) {
+                return;
+            }
+
+            long maxAgeMillis = TimeUnit.SECONDS.toMillis(config.getLong(CoverityPlugin.COVERITY_SERVER_MAX_AGE).orElse(3600L));
+            if (System.currentTimeMillis() - snapshot.retrievedAt < maxAgeMillis) {
+                Set<Long> snapshotIds = getSnapshotIds(cimClientFactory.create(config), snapshot.streamNames, snapshot.retrievedAt);
+                if (snapshot.snapshotIds.containsAll(snapshotIds)) {
+                    LOG.debug("[Coverity] No new snapshot for " + this);
+                    return;
+                }
+            }
+            retrieve();
+        }
+
+        /*
+            The snapshots committed while the defects are retrieved are counted as retrieved, since their ids are
+            only looked up afterwards: their defects are picked up with the next snapshot or after the maximum age.
+         */
+        private void retrieve() throws IOException {
+            long retrievedAt = System.currentTimeMillis();
+            CIMClient cimClient = cimClientFactory.create(config);
+            CimDefectSource source = new CimDefectSource(cimClient, streams, projects, Function.identity(), new ImportStatistics());
+            List<CoverityDefect> defects = source.getDefects();
+
+            ByteArrayOutputStream feed = new ByteArrayOutputStream();
+            DefectCache.write(feed, defects);
+
+            List<String> streamNames = source.getStreamNames();
+            snapshot = new Snapshot(feed.toByteArray(), defects.size(), retrievedAt, streamNames,
+                    getSnapshotIds(cimClient, streamNames, retrievedAt));
+            LOG.info("[Coverity] Retrieved " + defects.size() + " defects of " + this + " (" + feed.size() / 1024 + " KB)");
+        }
+
+        private Set<Long> getSnapshotIds(CIMClient cimClient, List<String> streamNames, long since) throws IOException {
+            Set<Long> snapshotIds = new HashSet<>();
+            try {
+                for (String streamName : streamNames) {
+                    snapshotIds.addAll(cimClient.getSnapshotIdsSince(streamName, new Date(since - CLOCK_SKEW_MILLIS)));
+                }
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Error while retrieving snapshots from Coverity Connect: " + e.getMessage(), e);
+            }
+            return snapshotIds;
+        }
+
+        @Override
+        public String toString() {
+            return !streams.isEmpty() ? "streams " + streams : "projects " + projects;
+        }
+    }
+}
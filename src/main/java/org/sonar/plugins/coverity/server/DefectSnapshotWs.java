@@ -0,0 +1,194 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.server;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.server.ws.LocalConnector;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/*
+    DefectSnapshotWs serves the defects kept by DefectSnapshotCache to ServerDefectSource, as a gzip compressed
+    binary feed in the format of DefectCache.
+
+    The defects are read with the Coverity Connect credentials of the server, so they are only served to users
+    with the global Execute Analysis permission, and only for the streams and projects listed in the settings of
+    the server. The plugin API has no access to the user session, so the permissions of the user are read from
+    api/users/current through the local connector, which calls it as the user of the request. While the defects
+    are retrieved the first time, the action answers 503 with a Retry-After header.
+ */
+@ServerSide
+public class DefectSnapshotWs implements WebService {
+    public static final String CONTROLLER = "api/coverity";
+    public static final String ACTION_DEFECTS = "defects";
+    public static final String PARAM_STREAMS = "streams";
+    public static final String PARAM_PROJECTS = "projects";
+    public static final String MEDIA_TYPE = "application/gzip";
+    public static final int RETRY_AFTER_SECONDS = 5;
+
+    static final String CURRENT_USER_PATH = "api/users/current";
+    private static final String SCAN_PERMISSION = "scan";
+
+    private final DefectSnapshotCache cache;
+
+    public DefectSnapshotWs(DefectSnapshotCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public void define(Context context) {
+        NewController controller = context.createController(CONTROLLER)
+                .setDescription("Defects of Coverity Connect kept by the Coverity plugin");
+
+        NewAction action = controller.createAction(ACTION_DEFECTS)
+                .setDescription("Returns the latest defects of Coverity Connect streams or projects, as read by the Coverity sensor. " +
+                        "Requires the 'Execute Analysis' permission, and the streams or projects to be listed in the settings of the server")
+                .setInternal(true)
+                .setHandler(this::handle);
+        action.createParam(PARAM_STREAMS)
+                .setDescription("Comma-separated list of streams. When set, the projects are ignored");
+        action.createParam(PARAM_PROJECTS)
+                .setDescription("Comma-separated list of projects");
+
+        controller.done();
+    }
+
+    void handle(Request request, Response response) throws Exception {
+        Optional<Boolean> scanPermission = hasScanPermission(request);
+        if (!scanPermission.isPresent()) {
+            sendError(response, 401, "Authentication is required");
+            return;
+        } else if (!scanPermission.get()) {
+            sendError(response, 403, "Insufficient privileges");
+            return;
+        }
+
+        List<String> streams = getValues(request, PARAM_STREAMS);
+        List<String> projects = getValues(request, PARAM_PROJECTS);
+        if (streams.isEmpty() && projects.isEmpty()) {
+            throw new IllegalArgumentException("Either '" + PARAM_STREAMS + "' or '" + PARAM_PROJECTS + "' must be provided");
+        }
+        if (!cache.isServed(streams, projects)) {
+            sendError(response, 403, "The defects of these " + (!streams.isEmpty() ? "streams" : "projects")
+                    + " are not served by this server");
+            return;
+        }
+
+        DefectSnapshotCache.Snapshot snapshot = cache.getSnapshot(streams, projects);
+        if (snapshot == null) {
+            response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            sendError(response, 503, "The defects are being retrieved from Coverity Connect");
+            return;
+        }
+
+        Response.Stream stream = response.stream();
+        stream.setMediaType(MEDIA_TYPE);
+        try (OutputStream out = stream.output()) {
+            out.write(snapshot.getFeed());
+        }
+    }
+
+    /**
+     * Returns whether the user of the request has the global Execute Analysis permission, or nothing when the
+     * request is not authenticated
+     */
+    private static Optional<Boolean> hasScanPermission(Request request) throws ParseException {
+        LocalConnector.LocalResponse currentUser = request.localConnector().call(new CurrentUserRequest());
+        if (currentUser.getStatus() != 200) {
+            return Optional.empty();
+        }
+
+        JSONObject user = (JSONObject) new JSONParser().parse(new String(currentUser.getBytes(), StandardCharsets.UTF_8));
+        if (!Boolean.TRUE.equals(user.get("isLoggedIn"))) {
+            return Optional.empty();
+        }
+        JSONObject permissions = (JSONObject) user.get("permissions");
+        JSONArray global = permissions != null ? (JSONArray) permissions.get("global") : null;
+        return Optional.of(global != null && global.contains(SCAN_PERMISSION));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void sendError(Response response, int status, String message) throws Exception {
+        JSONObject error = new JSONObject();
+        error.put("msg", message);
+        JSONArray errors = new JSONArray();
+        errors.add(error);
+        JSONObject body = new JSONObject();
+        body.put("errors", errors);
+
+        Response.Stream stream = response.stream();
+        stream.setStatus(status);
+        stream.setMediaType("application/json");
+        try (OutputStream out = stream.output()) {
+            out.write(body.toJSONString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static List<String> getValues(Request request, String key) {
+        List<String> values = new ArrayList<>();
+        List<String> params = request.paramAsStrings(key);
+        if (params != null) {
+            for (String value : params) {
+                if (!value.trim().isEmpty() && !values.contains(value.trim())) {
+                    values.add(value.trim());
+                }
+            }
+        }
+        return values;
+    }
+
+    private static class CurrentUserRequest implements LocalConnector.LocalRequest {
+        @Override
+        public String getPath() {
+            return CURRENT_USER_PATH;
+        }
+
+        @Override
+        public String getMediaType() {
+            return "application/json";
+        }
+
+        @Override
+        public String getMethod() {
+            return "GET";
+        }
+
+        @Override
+        public boolean hasParam(String key) {
+            return false;
+        }
+
+        @Override
+        public String getParam(String key) {
+            return null;
+        }
+
+        @Override
+        public List<String> getMultiParam(String key) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Optional<String> getHeader(String name) {
+            return Optional.empty();
+        }
+    }
+}
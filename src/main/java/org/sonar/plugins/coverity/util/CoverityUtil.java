@@ -13,6 +13,8 @@ package org.sonar.plugins.coverity.util;
 
 import com.coverity.ws.v9.DefectInstanceDataObj;
 import org.apache.commons.lang.StringUtils;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.rule.RuleKey;
 import org.sonar.plugins.coverity.CoverityPlugin;
@@ -22,9 +24,8 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class CoverityUtil {
 
@@ -53,25 +54,23 @@ public class CoverityUtil {
         return String.format("http%s://%s:%d/", (ssl ? "s" : ""), host, port);
     }
 
-    public static List<File> listFiles(File dir, List<File> listOfFiles){
-        List<File> tmpList = Arrays.asList(dir.listFiles());
-        for(File possibleFile : tmpList){
-            if(possibleFile.isFile()){
-                listOfFiles.add(possibleFile);
-            } else if (possibleFile.isDirectory()){
-                listFiles(possibleFile, listOfFiles);
-            }
-        }
-        return listOfFiles;
+    /**
+     * Returns the directory of the files kept across analyses. The scanner work directory is emptied at the start
+     * of every analysis, so it can't be used for them.
+     */
+    public static File getCacheDirectory(Configuration config) {
+        return new File(config.get(CoverityPlugin.COVERITY_CACHE_DIRECTORY)
+                .orElse(new File(System.getProperty("user.home"), ".sonar/coverity").getPath()));
     }
 
-    public static List<File> listFiles(File dir){
-        if(dir.isFile()){
-            List<File> tmpList = new ArrayList<File>();
-            tmpList.add(dir);
-            return tmpList;
-        } else {
-            return listFiles(dir, new ArrayList<File>());
-        }
+    public static Path getPath(InputFile inputFile) {
+        return Paths.get(inputFile.uri());
+    }
+
+    /**
+     * Returns the path of the input file relative to the base directory of the module, with '/' separators
+     */
+    public static String getRelativePath(FileSystem fileSystem, InputFile inputFile) {
+        return fileSystem.baseDir().toPath().toAbsolutePath().relativize(getPath(inputFile)).toString().replace('\\', '/');
     }
 }
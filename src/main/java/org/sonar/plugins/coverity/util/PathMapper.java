@@ -0,0 +1,156 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+import org.sonar.plugins.coverity.CoverityPlugin;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/*
+    PathMapper converts the paths of the Coverity analysis to local paths. It is built once per analysis from
+    sonar.coverity.prefix and sonar.coverity.path.rewrites, and remembers the local path of each Coverity path,
+    since many defects share the same file.
+
+    The longest matching prefix is replaced by the working directory; the prefixes are kept in a trie, so a path is
+    only read once whatever the number of checkouts. Paths without a prefix go through the rewrites in order, the
+    first regular expression matching the beginning of the path replaces it. Relative results are resolved against
+    the working directory. Other paths are kept.
+ */
+public class PathMapper implements Function<String, String> {
+    private static final Logger LOG = LoggerFactory.getLogger(PathMapper.class);
+
+    public static final String REWRITE_SEPARATOR = "=>";
+
+    private final Node prefixes = new Node();
+    private final List<String> prefixList;
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final List<String> replacements = new ArrayList<>();
+    private final File baseDirectory;
+    private final boolean windows;
+    private final Map<String, String> localPaths = new ConcurrentHashMap<>();
+
+    /**
+     * @param rewrites regular expressions and their replacements, separated by {@link #REWRITE_SEPARATOR}
+     * @param baseDirectory directory the prefixes are replaced with
+     * @param windows whether the local paths use backslashes
+     */
+    public PathMapper(List<String> prefixList, List<String> rewrites, File baseDirectory, boolean windows) {
+        this.prefixList = new ArrayList<>();
+        this.baseDirectory = baseDirectory;
+        this.windows = windows;
+
+        for (String prefix : prefixList) {
+            if (!StringUtils.isEmpty(prefix)) {
+                this.prefixList.add(prefix);
+                prefixes.add(prefix);
+            }
+        }
+        for (String rewrite : rewrites) {
+            int separator = rewrite.indexOf(REWRITE_SEPARATOR);
+            if (separator < 0) {
+                LOG.warn("[Coverity] Ignoring path rewrite without '" + REWRITE_SEPARATOR + "': " + rewrite);
+                continue;
+            }
+            try {
+                patterns.add(Pattern.compile(rewrite.substring(0, separator).trim()));
+                replacements.add(rewrite.substring(separator + REWRITE_SEPARATOR.length()).trim());
+            } catch (PatternSyntaxException e) {
+                LOG.warn("[Coverity] Ignoring invalid path rewrite '" + rewrite + "': " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the mapper of the analysis, with the working directory and platform of the scanner.
+     */
+    public static PathMapper create(Configuration config) {
+        return new PathMapper(
+                Arrays.asList(config.getStringArray(CoverityPlugin.COVERITY_PREFIX)),
+                Arrays.asList(config.getStringArray(CoverityPlugin.COVERITY_PATH_REWRITES)),
+                new File(System.getProperty("user.dir")),
+                System.getProperty("os.name").startsWith("Windows"));
+    }
+
+    /**
+     * The prefixes, in their configured order
+     */
+    public List<String> getPrefixes() {
+        return Collections.unmodifiableList(prefixList);
+    }
+
+    public File getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    @Override
+    public String apply(String coverityPath) {
+        return localPaths.computeIfAbsent(coverityPath, this::map);
+    }
+
+    private String map(String path) {
+        int prefixLength = prefixes.findLongestPrefix(path);
+        if (prefixLength >= 0) {
+            path = new File(baseDirectory, path.substring(prefixLength)).getAbsolutePath();
+            LOG.info("Full path after prefix being stripped: " + path);
+        } else {
+            for (int i = 0; i < patterns.size(); i++) {
+                Matcher matcher = patterns.get(i).matcher(path);
+                if (matcher.lookingAt()) {
+                    String rewritten = matcher.replaceFirst(replacements.get(i));
+                    path = new File(rewritten).isAbsolute() ? rewritten : new File(baseDirectory, rewritten).getAbsolutePath();
+                    break;
+                }
+            }
+        }
+
+        return windows ? path.replace("/", "\\") : path;
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        // length of the prefix ending at this node, or -1
+        private int prefixLength = -1;
+
+        void add(String prefix) {
+            Node node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+            }
+            node.prefixLength = prefix.length();
+        }
+
+        /**
+         * Returns the length of the longest prefix of the path, or -1 when no prefix matches
+         */
+        int findLongestPrefix(String path) {
+            Node node = this;
+            int longest = -1;
+            for (int i = 0; i < path.length() && node != null; i++) {
+                node = node.children.get(path.charAt(i));
+                if (node != null && node.prefixLength >= 0) {
+                    longest = node.prefixLength;
+                }
+            }
+            return longest;
+        }
+    }
+}
@@ -10,7 +10,6 @@
  */
 package org.sonar.plugins.coverity.util;
 
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -22,6 +21,7 @@ import org.sonar.plugins.coverity.server.InternalRule;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class RulesGenerator {
 
@@ -36,12 +36,15 @@ public class RulesGenerator {
     static final String VULNERABILITY = "VULNERABILITY";
     static final String BUG = "BUG";
 
+    static final String BINARY_OPTION = "--binary";
+
     static String outputFilePath = "src/main/resources/org/sonar/plugins/coverity/server";
 
     /*
     RulesGenerator is used to generate rules based on the coverity quality checker-properties.json files
     and Find bug checkers that coverity will understand( required to be named findbugs-checker-properties.json )
     The file paths are needed to passed as main method's parameters.
+    Passing "--binary" also writes the binary rules files next to the xml files.
      */
     public static void main(String[] args) throws Exception {
 
@@ -52,7 +55,13 @@ public class RulesGenerator {
             return;
         }
 
+        boolean writeBinary = false;
         for (String filePath : args) {
+            if (BINARY_OPTION.equals(filePath)) {
+                writeBinary = true;
+                continue;
+            }
+
             File file = new File(filePath);
             if (filePath.endsWith("findbugs-checker-properties.json")) {
                 generateRulesForFindBugCheckers(file);
@@ -65,7 +74,7 @@ public class RulesGenerator {
         addFallbackRuleForLanguage();
         addDifferentOriginRules();
 
-        writeRulesToFiles(xmlDir);
+        writeRulesToFiles(xmlDir, writeBinary);
     }
 
     public static void generateRulesForQualityCheckers(File jsonFile) throws Exception {
@@ -223,56 +232,77 @@ public class RulesGenerator {
      * resources used by the plugin.
      */
     public static void writeRulesToFiles(File xmlDir){
-        /**
-         * Print out rules for each language.
-         */
-        for(String language : rulesList.keySet()){
-
-            File xmlFile = new File(xmlDir, "coverity-" + language + ".xml");
-            PrintWriter xmlFileOut = null;
-            try {
-                xmlFileOut = new PrintWriter(xmlFile,"UTF-8" );
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (UnsupportedEncodingException e) {
-                e.printStackTrace();
+        writeRulesToFiles(xmlDir, false);
+    }
+
+    /**
+     * Write the result of the rules generation to one xml file per language and, if requested, to a binary file
+     * per language generated from the same pass. Languages are written in parallel.
+     */
+    public static void writeRulesToFiles(final File xmlDir, final boolean writeBinary){
+        int threads = Math.max(1, Math.min(rulesList.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<File>> results = new ArrayList<>();
+            for (final String language : rulesList.keySet()) {
+                results.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        return writeRulesToFile(xmlDir, language, writeBinary);
+                    }
+                }));
             }
-            xmlFileOut.println("<rules>");
-            String domain = null;
-            if (language.equals(JAVA_LANGUAGE)) {
-                domain = "STATIC_JAVA";
-            } else if (language.equals(CPP_LANGUAGE) || language.equals(OBJECTIVE_C)) {
-                domain = "STATIC_C";
-            } else if (language.equals(CS_LANGUAGE)) {
-                domain = "STATIC_CS";
-            } else if (language.equals(JAVASCRIPT_LANGUAGE) || language.equals(PYTHON_LANGUAGE) || language.equals(PHP_LANGUAGE)) {
-                domain = "OTHER";
+
+            for (Future<File> result : results) {
+                try {
+                    System.out.println("The following file has been updated: " + result.get().getPath());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    e.printStackTrace();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
             }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static File writeRulesToFile(File xmlDir, String language, boolean writeBinary) throws IOException {
+        File xmlFile = new File(xmlDir, "coverity-" + language + ".xml");
+        File binaryFile = writeBinary ? new File(xmlDir, "coverity-" + language + ".rules") : null;
+        String domain = getDomain(language);
 
+        int ruleCount = 0;
+        for (List<InternalRule> rules : rulesList.get(language).values()) {
+            ruleCount += rules.size();
+        }
+
+        try (RulesWriter writer = new RulesWriter(xmlFile, binaryFile, ruleCount)) {
             for (String key : rulesList.get(language).keySet()) {
                 for (InternalRule rule : rulesList.get(language).get(key)) {
-                    xmlFileOut.println("    <rule>");
-                    xmlFileOut.println("        <key>" + StringEscapeUtils.escapeXml(domain + "_" + rule.getKey()) + "</key>");
-                    xmlFileOut.println("        <name>" + StringEscapeUtils.escapeXml(rule.getRuleName()) + "</name>");
-                    xmlFileOut.println("        <internalKey>" + StringEscapeUtils.escapeXml(domain + "_" + rule.getKey()) + "</internalKey>");
-                    xmlFileOut.println("        <description>" + StringEscapeUtils.escapeXml(rule.getDescription()) + "</description>");
-                    xmlFileOut.println("        <severity>" + StringEscapeUtils.escapeXml(rule.getSeverity()) + "</severity>");
-                    xmlFileOut.println("        <cardinality>SINGLE</cardinality>");
-                    xmlFileOut.println("        <status>READY</status>");
-                    xmlFileOut.println("        <type>" + StringEscapeUtils.escapeXml(rule.getRuleType()) + "</type>");
-
-                    for (String tag : rule.getTags()) {
-                        xmlFileOut.println("        <tag>" + StringEscapeUtils.escapeXml(tag) + "</tag>");
-                    }
-
-                    xmlFileOut.println("    </rule>");
+                    writer.writeRule(domain, rule);
                 }
             }
+        }
 
-            xmlFileOut.println("</rules>");
-            xmlFileOut.close();
-            System.out.println("The following file has been updated: " + xmlFile.getPath());
+        return xmlFile;
+    }
+
+    public static String getDomain(String language) {
+        String domain = null;
+        if (language.equals(JAVA_LANGUAGE)) {
+            domain = "STATIC_JAVA";
+        } else if (language.equals(CPP_LANGUAGE) || language.equals(OBJECTIVE_C)) {
+            domain = "STATIC_C";
+        } else if (language.equals(CS_LANGUAGE)) {
+            domain = "STATIC_CS";
+        } else if (language.equals(JAVASCRIPT_LANGUAGE) || language.equals(PYTHON_LANGUAGE) || language.equals(PHP_LANGUAGE)) {
+            domain = "OTHER";
         }
+
+        return domain;
     }
 
     public static String findLanguage(String lang) {
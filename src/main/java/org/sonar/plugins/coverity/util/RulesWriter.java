@@ -0,0 +1,199 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+package org.sonar.plugins.coverity.util;
+
+import org.sonar.plugins.coverity.server.InternalRule;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/*
+    RulesWriter streams the rules of a single language into the xml file loaded by CoverityRules.
+    When a binary file is given, every rule is written to it from the same pass, so both outputs always
+    describe exactly the same set of rules.
+    The xml output is byte-identical to the one produced with PrintWriter.println and StringEscapeUtils.escapeXml.
+ */
+public class RulesWriter implements Closeable {
+    public static final int BINARY_MAGIC = 0x43525631; // "CRV1"
+    public static final int BINARY_VERSION = 1;
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer xmlOut;
+    private final DataOutputStream binaryOut;
+    private final StringBuilder escapeBuffer = new StringBuilder(256);
+
+    public RulesWriter(File xmlFile, File binaryFile, int ruleCount) throws IOException {
+        this.xmlOut = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(xmlFile), StandardCharsets.UTF_8), BUFFER_SIZE);
+
+        if (binaryFile != null) {
+            this.binaryOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFile), BUFFER_SIZE));
+            binaryOut.writeInt(BINARY_MAGIC);
+            binaryOut.writeInt(BINARY_VERSION);
+            binaryOut.writeInt(ruleCount);
+        } else {
+            this.binaryOut = null;
+        }
+
+        writeLine("<rules>");
+    }
+
+    public void writeRule(String domain, InternalRule rule) throws IOException {
+        String key = domain + "_" + rule.getKey();
+
+        writeLine("    <rule>");
+        writeElement("key", key);
+        writeElement("name", rule.getRuleName());
+        writeElement("internalKey", key);
+        writeElement("description", rule.getDescription());
+        writeElement("severity", rule.getSeverity());
+        writeLine("        <cardinality>SINGLE</cardinality>");
+        writeLine("        <status>READY</status>");
+        writeElement("type", rule.getRuleType());
+
+        for (String tag : rule.getTags()) {
+            writeElement("tag", tag);
+        }
+
+        writeLine("    </rule>");
+
+        if (binaryOut != null) {
+            writeBinaryString(key);
+            writeBinaryString(rule.getRuleName());
+            writeBinaryString(rule.getDescription());
+            writeBinaryString(rule.getSeverity());
+            writeBinaryString(rule.getRuleType());
+            binaryOut.writeShort(rule.getTags().size());
+            for (String tag : rule.getTags()) {
+                writeBinaryString(tag);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeLine("</rules>");
+        } finally {
+            try {
+                xmlOut.close();
+            } finally {
+                if (binaryOut != null) {
+                    binaryOut.close();
+                }
+            }
+        }
+    }
+
+    private void writeElement(String name, String value) throws IOException {
+        xmlOut.write("        <");
+        xmlOut.write(name);
+        xmlOut.write('>');
+        writeEscaped(value);
+        xmlOut.write("</");
+        xmlOut.write(name);
+        xmlOut.write('>');
+        xmlOut.write(LINE_SEPARATOR);
+    }
+
+    private void writeLine(String line) throws IOException {
+        xmlOut.write(line);
+        xmlOut.write(LINE_SEPARATOR);
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        // StringEscapeUtils.escapeXml(null) returns null, which was then concatenated as "null"
+        if (value == null) {
+            xmlOut.write("null");
+            return;
+        }
+
+        int first = firstCharToEscape(value);
+        if (first < 0) {
+            xmlOut.write(value);
+            return;
+        }
+
+        escapeBuffer.setLength(0);
+        escapeBuffer.append(value, 0, first);
+        escapeXml(value, first, escapeBuffer);
+        xmlOut.append(escapeBuffer);
+    }
+
+    private void writeBinaryString(String value) throws IOException {
+        binaryOut.writeBoolean(value != null);
+        if (value != null) {
+            binaryOut.writeUTF(value);
+        }
+    }
+
+    /**
+     * Same escaping rules as commons-lang 2.6 StringEscapeUtils.escapeXml: the five basic xml entities are
+     * replaced by their names and every char above 0x7F (including each half of a surrogate pair) is written as
+     * a decimal character reference.
+     */
+    public static String escapeXml(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        int first = firstCharToEscape(value);
+        if (first < 0) {
+            return value;
+        }
+
+        StringBuilder builder = new StringBuilder(value.length() + 16);
+        builder.append(value, 0, first);
+        escapeXml(value, first, builder);
+        return builder.toString();
+    }
+
+    private static void escapeXml(String value, int from, StringBuilder out) {
+        for (int i = from; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("&quot;");
+                    break;
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '\'':
+                    out.append("&apos;");
+                    break;
+                default:
+                    if (c > 0x7F) {
+                        out.append("&#").append((int) c).append(';');
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+    }
+
+    private static int firstCharToEscape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c > 0x7F || c == '"' || c == '&' || c == '<' || c == '>' || c == '\'') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.util;
+
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.utils.WildcardPattern;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    SourceCrawler lists the local files the Coverity paths are matched against when they are not indexed by
+    SonarQube. The directories are walked with Files.walkFileTree; the subdirectories of the first levels are walked
+    by their own tasks of a fork-join pool, so wide trees are listed in parallel. Files and directories matching
+    sonar.exclusions are skipped, as well as the directories of version control systems and build tools.
+
+    The paths of the files found are written to a manifest together with the modification time of each directory.
+    Adding, removing or renaming a file changes the modification time of its directory, so the next analysis reads
+    the manifest instead of walking the directories when no directory changed. The scanner work directory is emptied
+    at the start of every analysis, so the manifest is kept in the Coverity cache directory, in a file named after
+    the project key, the roots and the exclusions.
+ */
+public class SourceCrawler {
+    private static final Logger LOG = LoggerFactory.getLogger(SourceCrawler.class);
+
+    public static final List<String> SKIPPED_DIRECTORIES = Arrays.asList(
+            ".git", ".svn", ".hg", ".bzr", "CVS", ".scannerwork", ".sonar", ".gradle", ".idea", "node_modules", "target");
+
+    private static final String MANIFEST_FILE_PREFIX = "sources-";
+    private static final int MANIFEST_MAGIC = 0x43534D32; // "CSM2"
+    private static final int FORK_DEPTH = 2;
+
+    private final File baseDirectory;
+    private final WildcardPattern[] exclusions;
+    private final String exclusionsKey;
+    private final File cacheDirectory;
+    private final String projectKey;
+
+    /**
+     * @param baseDirectory directory the exclusion patterns are relative to
+     * @param exclusions sonar.exclusions patterns
+     * @param cacheDirectory directory of the manifest, or null not to keep one
+     * @param projectKey key of the project the manifest belongs to
+     */
+    public SourceCrawler(File baseDirectory, String[] exclusions, File cacheDirectory, String projectKey) {
+        this.baseDirectory = baseDirectory.getAbsoluteFile();
+        this.exclusions = WildcardPattern.create(exclusions);
+        this.exclusionsKey = StringUtils.join(exclusions, ',');
+        this.cacheDirectory = cacheDirectory;
+        this.projectKey = projectKey;
+    }
+
+    /**
+     * Returns the files in the given directories. A root which is a file is returned as is.
+     */
+    public List<File> listFiles(List<File> roots) {
+        String key = getKey(roots);
+        File manifest = getManifest(key);
+        List<File> files = readManifest(manifest, key);
+        if (files != null) {
+            LOG.debug("[Coverity] Read " + files.size() + " local files from " + manifest);
+            return files;
+        }
+
+        Listing listing = new Listing();
+        for (File root : roots) {
+            Path path = root.toPath().toAbsolutePath();
+            if (Files.isRegularFile(path)) {
+                listing.addFile(path);
+            } else if (Files.isDirectory(path)) {
+                listing.addAll(ForkJoinPool.commonPool().invoke(new CrawlTask(path, 0)));
+            }
+        }
+
+        writeManifest(manifest, key, listing);
+        List<File> result = new ArrayList<>(listing.files.size());
+        for (String file : listing.files) {
+            result.add(new File(file));
+        }
+        return result;
+    }
+
+    private String getKey(List<File> roots) {
+        StringBuilder key = new StringBuilder(projectKey).append('\n').append(exclusionsKey);
+        for (File root : roots) {
+            key.append('\n').append(root.getAbsolutePath());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the manifest of the roots, or null when no manifest is kept
+     */
+    File getManifest(List<File> roots) {
+        return getManifest(getKey(roots));
+    }
+
+    private File getManifest(String key) {
+        if (cacheDirectory == null) {
+            return null;
+        }
+        return new File(cacheDirectory, MANIFEST_FILE_PREFIX + Hashing.sha1().hashString(key, StandardCharsets.UTF_8) + ".bin.gz");
+    }
+
+    private boolean isExcluded(Path path) {
+        if (exclusions.length == 0) {
+            return false;
+        }
+        String relativePath = path.startsWith(baseDirectory.toPath())
+                ? baseDirectory.toPath().relativize(path).toString().replace('\\', '/') : path.toString().replace('\\', '/');
+        return WildcardPattern.match(exclusions, relativePath);
+    }
+
+    private class CrawlTask extends RecursiveTask<Listing> {
+        private final Path directory;
+        private final int depth;
+
+        CrawlTask(Path directory, int depth) {
+            this.directory = directory;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Listing compute() {
+            Listing listing = new Listing();
+            List<CrawlTask> subtasks = new ArrayList<>();
+            try {
+                Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                        if (!dir.equals(directory)) {
+                            if (SKIPPED_DIRECTORIES.contains(String.valueOf(dir.getFileName())) || isExcluded(dir)) {
+                                return FileVisitResult.SKIP_SUBTREE;
+                            }
+                            if (depth < FORK_DEPTH && dir.getParent().equals(directory)) {
+                                CrawlTask subtask = new CrawlTask(dir, depth + 1);
+                                subtask.fork();
+                                subtasks.add(subtask);
+                                return FileVisitResult.SKIP_SUBTREE;
+                            }
+                        }
+                        listing.addDirectory(dir, attributes.lastModifiedTime().toMillis());
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if (attributes.isRegularFile() && !isExcluded(file)) {
+                            listing.addFile(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        LOG.debug("[Coverity] Could not read " + file + ": " + e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                LOG.warn("[Coverity] Could not list the files of " + directory + ": " + e.getMessage());
+            }
+
+            for (CrawlTask subtask : subtasks) {
+                listing.addAll(subtask.join());
+            }
+            return listing;
+        }
+    }
+
+    private List<File> readManifest(File manifest, String key) {
+        if (manifest == null || !manifest.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(manifest))))) {
+            if (in.readInt() != MANIFEST_MAGIC || !key.equals(readString(in))) {
+                return null;
+            }
+
+            int directoryCount = in.readInt();
+            for (int i = 0; i < directoryCount; i++) {
+                File directory = new File(readString(in));
+                if (directory.lastModified() != in.readLong()) {
+                    LOG.debug("[Coverity] " + directory + " changed, listing the local files again");
+                    return null;
+                }
+            }
+
+            int fileCount = in.readInt();
+            List<File> files = new ArrayList<>(fileCount);
+            for (int i = 0; i < fileCount; i++) {
+                files.add(new File(readString(in)));
+            }
+            return files;
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("[Coverity] Could not read " + manifest + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeManifest(File manifest, String key, Listing listing) {
+        if (manifest == null) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(manifest.getAbsoluteFile().getParentFile().toPath());
+        } catch (IOException e) {
+            LOG.debug("[Coverity] Could not create the directory of " + manifest + ": " + e.getMessage());
+            return;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(manifest))))) {
+            out.writeInt(MANIFEST_MAGIC);
+            writeString(out, key);
+            out.writeInt(listing.directories.size());
+            for (DirectoryEntry directory : listing.directories) {
+                writeString(out, directory.path);
+                out.writeLong(directory.lastModified);
+            }
+            out.writeInt(listing.files.size());
+            for (String file : listing.files) {
+                writeString(out, file);
+            }
+        } catch (IOException e) {
+            LOG.debug("[Coverity] Could not write " + manifest + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Listing {
+        private final List<DirectoryEntry> directories = new ArrayList<>();
+        private final List<String> files = new ArrayList<>();
+
+        void addDirectory(Path path, long lastModified) {
+            directories.add(new DirectoryEntry(path.toString(), lastModified));
+        }
+
+        void addFile(Path path) {
+            files.add(path.toString());
+        }
+
+        void addAll(Listing other) {
+            directories.addAll(other.directories);
+            files.addAll(other.files);
+        }
+    }
+
+    private static class DirectoryEntry {
+        private final String path;
+        private final long lastModified;
+
+        DirectoryEntry(String path, long lastModified) {
+            this.path = path;
+            this.lastModified = lastModified;
+        }
+    }
+}
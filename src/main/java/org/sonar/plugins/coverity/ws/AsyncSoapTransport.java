@@ -0,0 +1,397 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v9.*;
+import com.google.common.io.ByteStreams;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.*;
+import javax.xml.ws.WebServiceException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/*
+    AsyncSoapTransport sends the SOAP requests of the operations the defects are fetched with (getProjects,
+    getStreams, getMergedDefectsForProjectScope, getMergedDefectsForStreams and getStreamDefects) without the JAX-WS
+    runtime. The envelope is written with JAXB and StAX, with the same UsernameToken header as UsernameTokenHeader,
+    and the response body is read the same way once it is received, so no SAAJ message is built. The responses
+    carrying defects are read by DefectResponseDecoder instead of JAXB.
+
+    On JDK 11 and later, the requests are sent with the java.net.http client, whose few threads wait for all the
+    responses in flight; the plugin is built for Java 8, so the client is used by reflection. On Java 8 each request
+    holds a thread of a pool of CimExecutors while it waits for its response. Either way the calls return a
+    CompletableFuture, which CIMClient composes, e.g. to fetch the pages of several projects at the same time.
+
+    The request limiter and the statistics are applied here, since the handler chain of the JAX-WS ports is not used.
+ */
+public class AsyncSoapTransport {
+    private static final String CONTENT_TYPE = "text/xml; charset=utf-8";
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private static JAXBContext jaxbContext;
+
+    private final URL baseUrl;
+    private final String user;
+    private final String password;
+    private final ImportStatistics statistics;
+    private final CimRequestLimiter requestLimiter;
+    private final HttpPost http;
+
+    /**
+     * @param maxConcurrent number of threads waiting for the responses when the java.net.http client is not available
+     */
+    public AsyncSoapTransport(URL baseUrl, String user, String password, ImportStatistics statistics,
+                              CimRequestLimiter requestLimiter, int maxConcurrent) {
+        this.baseUrl = baseUrl;
+        this.user = user;
+        this.password = password;
+        this.statistics = statistics;
+        this.requestLimiter = requestLimiter;
+        HttpPost jdkHttp = JdkHttpPost.create();
+        this.http = jdkHttp != null ? jdkHttp : new UrlConnectionPost(maxConcurrent);
+    }
+
+    /**
+     * Sends the request of the operation and returns its response. A SOAP fault completes the future with a
+     * CovRemoteServiceException_Exception when Coverity Connect describes it, otherwise with a WebServiceException.
+     * The request is written before this method returns, so the request objects can be changed afterwards.
+     *
+     * @param timeoutMillis time to wait for the response, or 0 to wait as long as it takes
+     */
+    public <T> CompletableFuture<T> call(String servicePath, String operation, Object request, Class<T> responseType,
+                                         long timeoutMillis) {
+        byte[] envelope;
+        URI uri;
+        CimRequestLimiter.Permit permit;
+        try {
+            envelope = writeEnvelope(new QName(CIMClient.COVERITY_NAMESPACE, operation), request);
+            uri = new URL(baseUrl, servicePath).toURI();
+            permit = requestLimiter != null ? requestLimiter.acquire(statistics) : null;
+        } catch (IOException | URISyntaxException e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<HttpResult> response = http.post(uri, envelope, timeoutMillis);
+        response.whenComplete((result, failure) -> {
+            if (permit != null) {
+                permit.close();
+            }
+            if (statistics != null) {
+                statistics.addCimCall(operation, System.nanoTime() - start, result != null ? result.body.length : -1);
+            }
+        });
+        return response.thenApply(result -> {
+            try {
+                return readResponse(result, responseType);
+            } catch (IOException | CovRemoteServiceException_Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private byte[] writeEnvelope(QName operation, Object request) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("S", "Envelope", UsernameTokenHeader.SOAP_ENVELOPE_URI);
+            writer.writeNamespace("S", UsernameTokenHeader.SOAP_ENVELOPE_URI);
+            writer.writeStartElement("S", "Header", UsernameTokenHeader.SOAP_ENVELOPE_URI);
+            writeUsernameToken(writer);
+            writer.writeEndElement();
+            writer.writeStartElement("S", "Body", UsernameTokenHeader.SOAP_ENVELOPE_URI);
+
+            Marshaller marshaller = getContext().createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            marshaller.marshal(newElement(operation, request), writer);
+
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException | JAXBException e) {
+            throw new IOException("Could not write the " + operation.getLocalPart() + " request", e);
+        }
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> JAXBElement<T> newElement(QName name, T value) {
+        return new JAXBElement<>(name, (Class<T>) value.getClass(), value);
+    }
+
+    private void writeUsernameToken(XMLStreamWriter writer) throws XMLStreamException {
+        String wsse = ClientAuthenticationHandlerWSS.WSS_AUTH_PREFIX;
+        String wssUri = ClientAuthenticationHandlerWSS.WSS_AUTH_URI;
+
+        writer.writeStartElement(wsse, ClientAuthenticationHandlerWSS.WSS_AUTH_LNAME, wssUri);
+        writer.writeNamespace(wsse, wssUri);
+        writer.writeAttribute("S", UsernameTokenHeader.SOAP_ENVELOPE_URI, "mustUnderstand", "1");
+
+        writer.writeStartElement(wsse, "UsernameToken", wssUri);
+        writer.writeNamespace("wsu", UsernameTokenHeader.WSS_UTILITY_URI);
+        writer.writeAttribute("wsu", UsernameTokenHeader.WSS_UTILITY_URI, "Id", "UsernameToken-1");
+
+        writer.writeStartElement(wsse, "Username", wssUri);
+        writer.writeCharacters(user);
+        writer.writeEndElement();
+
+        writer.writeStartElement(wsse, "Password", wssUri);
+        writer.writeAttribute("Type", UsernameTokenHeader.PASSWORD_TEXT_TYPE);
+        writer.writeCharacters(password);
+        writer.writeEndElement();
+
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    /**
+     * Reads the first element of the body of the response, or the fault in its place. The defects are read with
+     * DefectResponseDecoder, the other responses with JAXB.
+     */
+    private <T> T readResponse(HttpResult result, Class<T> responseType) throws IOException, CovRemoteServiceException_Exception {
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(result.body));
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && isSoapElement(reader, "Body")) {
+                    if (reader.nextTag() != XMLStreamConstants.START_ELEMENT) {
+                        break;
+                    }
+                    if (isSoapElement(reader, "Fault")) {
+                        readFault(reader, getContext().createUnmarshaller());
+                    }
+                    if (DefectResponseDecoder.isSupported(responseType)) {
+                        return DefectResponseDecoder.read(reader, responseType);
+                    }
+                    Unmarshaller unmarshaller = getContext().createUnmarshaller();
+                    return unmarshaller.unmarshal(reader, responseType).getValue();
+                }
+            }
+        } catch (XMLStreamException | JAXBException | NumberFormatException e) {
+            throw new IOException("Could not read the response of Coverity Connect (HTTP " + result.status + ")", e);
+        }
+        throw new IOException("Unexpected response of Coverity Connect (HTTP " + result.status + ")");
+    }
+
+    private static boolean isSoapElement(XMLStreamReader reader, String localName) {
+        return UsernameTokenHeader.SOAP_ENVELOPE_URI.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+    }
+
+    /**
+     * Reads the message and the CoverityFault detail of a fault, until the end of the response, and throws it
+     */
+    private static void readFault(XMLStreamReader reader, Unmarshaller unmarshaller)
+            throws CovRemoteServiceException_Exception, XMLStreamException, JAXBException {
+        String message = null;
+        CovRemoteServiceException faultInfo = null;
+        while (reader.hasNext()) {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if ("faultstring".equals(reader.getLocalName())) {
+                message = reader.getElementText();
+            } else if ("CoverityFault".equals(reader.getLocalName())) {
+                faultInfo = unmarshaller.unmarshal(reader, CovRemoteServiceException.class).getValue();
+            }
+        }
+
+        if (faultInfo != null) {
+            throw new CovRemoteServiceException_Exception(message, faultInfo);
+        }
+        throw new WebServiceException("SOAP fault: " + message);
+    }
+
+    private static synchronized JAXBContext getContext() throws JAXBException {
+        if (jaxbContext == null) {
+            jaxbContext = JAXBContext.newInstance(
+                    GetProjects.class, GetProjectsResponse.class,
+                    GetStreams.class, GetStreamsResponse.class,
+                    GetMergedDefectsForProjectScope.class, GetMergedDefectsForProjectScopeResponse.class,
+                    GetMergedDefectsForStreams.class, GetMergedDefectsForStreamsResponse.class,
+                    GetStreamDefects.class, GetStreamDefectsResponse.class,
+                    CovRemoteServiceException.class);
+        }
+        return jaxbContext;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static class HttpResult {
+        private final int status;
+        private final byte[] body;
+
+        HttpResult(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private interface HttpPost {
+        CompletableFuture<HttpResult> post(URI uri, byte[] body, long timeoutMillis);
+    }
+
+    /**
+     * Posts with the java.net.http client of JDK 11 and later, by reflection
+     */
+    private static class JdkHttpPost implements HttpPost {
+        private final Object client;
+        private final Method newRequestBuilder;
+        private final Method header;
+        private final Method timeout;
+        private final Method postBody;
+        private final Method build;
+        private final Method ofByteArray;
+        private final Method sendAsync;
+        private final Object bodyHandler;
+        private final Method statusCode;
+        private final Method responseBody;
+
+        private JdkHttpPost() throws ReflectiveOperationException {
+            Class<?> clientClass = Class.forName("java.net.http.HttpClient");
+            Class<?> clientBuilderClass = Class.forName("java.net.http.HttpClient$Builder");
+            Class<?> versionClass = Class.forName("java.net.http.HttpClient$Version");
+            Class<?> requestClass = Class.forName("java.net.http.HttpRequest");
+            Class<?> requestBuilderClass = Class.forName("java.net.http.HttpRequest$Builder");
+            Class<?> publisherClass = Class.forName("java.net.http.HttpRequest$BodyPublisher");
+            Class<?> publishersClass = Class.forName("java.net.http.HttpRequest$BodyPublishers");
+            Class<?> handlerClass = Class.forName("java.net.http.HttpResponse$BodyHandler");
+            Class<?> handlersClass = Class.forName("java.net.http.HttpResponse$BodyHandlers");
+            Class<?> responseClass = Class.forName("java.net.http.HttpResponse");
+
+            Object clientBuilder = clientClass.getMethod("newBuilder").invoke(null);
+            clientBuilderClass.getMethod("version", versionClass).invoke(clientBuilder, versionClass.getField("HTTP_1_1").get(null));
+            client = clientBuilderClass.getMethod("build").invoke(clientBuilder);
+
+            newRequestBuilder = requestClass.getMethod("newBuilder", URI.class);
+            header = requestBuilderClass.getMethod("header", String.class, String.class);
+            timeout = requestBuilderClass.getMethod("timeout", Duration.class);
+            postBody = requestBuilderClass.getMethod("POST", publisherClass);
+            build = requestBuilderClass.getMethod("build");
+            ofByteArray = publishersClass.getMethod("ofByteArray", byte[].class);
+            sendAsync = clientClass.getMethod("sendAsync", requestClass, handlerClass);
+            bodyHandler = handlersClass.getMethod("ofByteArray").invoke(null);
+            statusCode = responseClass.getMethod("statusCode");
+            responseBody = responseClass.getMethod("body");
+        }
+
+        /**
+         * Returns the client, or null before JDK 11
+         */
+        static JdkHttpPost create() {
+            try {
+                return new JdkHttpPost();
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                return null;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public CompletableFuture<HttpResult> post(URI uri, byte[] body, long timeoutMillis) {
+            try {
+                Object builder = newRequestBuilder.invoke(null, uri);
+                header.invoke(builder, "Content-Type", CONTENT_TYPE);
+                header.invoke(builder, "SOAPAction", "\"\"");
+                if (timeoutMillis > 0) {
+                    timeout.invoke(builder, Duration.ofMillis(timeoutMillis));
+                }
+                postBody.invoke(builder, ofByteArray.invoke(null, (Object) body));
+                Object request = build.invoke(builder);
+
+                return ((CompletableFuture<Object>) sendAsync.invoke(client, request, bodyHandler)).thenApply(response -> {
+                    try {
+                        return new HttpResult((Integer) statusCode.invoke(response), (byte[]) responseBody.invoke(response));
+                    } catch (ReflectiveOperationException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                CompletableFuture<HttpResult> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IOException("Could not send the request to " + uri, e));
+                return failed;
+            }
+        }
+    }
+
+    /**
+     * Posts with HttpURLConnection, each request holding a thread of the pool while it waits for its response
+     */
+    private static class UrlConnectionPost implements HttpPost {
+        private final ExecutorService executor;
+
+        UrlConnectionPost(int maxConcurrent) {
+            executor = CimExecutors.newExecutor("coverity-cim-soap", maxConcurrent, false);
+        }
+
+        @Override
+        public CompletableFuture<HttpResult> post(URI uri, byte[] body, long timeoutMillis) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+                    connection.setRequestMethod("POST");
+                    connection.setDoOutput(true);
+                    connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+                    connection.setRequestProperty("SOAPAction", "\"\"");
+                    connection.setFixedLengthStreamingMode(body.length);
+                    if (timeoutMillis > 0) {
+                        connection.setConnectTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMillis));
+                        connection.setReadTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMillis));
+                    }
+                    try (OutputStream out = connection.getOutputStream()) {
+                        out.write(body);
+                    }
+
+                    int status = connection.getResponseCode();
+                    InputStream in = status >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream();
+                    if (in == null) {
+                        return new HttpResult(status, new byte[0]);
+                    }
+                    try {
+                        return new HttpResult(status, ByteStreams.toByteArray(in));
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+    }
+}
@@ -12,17 +12,26 @@
 package org.sonar.plugins.coverity.ws;
 
 import com.coverity.ws.v9.*;
+import com.sun.xml.ws.api.message.Header;
+import com.sun.xml.ws.developer.JAXWSProperties;
+import com.sun.xml.ws.developer.WSBindingProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
 
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
 import javax.xml.namespace.QName;
 import javax.xml.ws.BindingProvider;
+import javax.xml.ws.Service;
+import javax.xml.ws.WebServiceException;
 import javax.xml.ws.handler.Handler;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Represents one Coverity Integrity Manager server. Abstracts functions like getting streams and defects.
@@ -30,10 +39,27 @@ import java.util.*;
 public class CIMClient {
     public static final String COVERITY_WS_VERSION = "v9";
     public static final String COVERITY_NAMESPACE = "http://ws.coverity.com/" + COVERITY_WS_VERSION;
-    public static final String CONFIGURATION_SERVICE_WSDL = "/ws/" + COVERITY_WS_VERSION + "/configurationservice?wsdl";
-    public static final String DEFECT_SERVICE_WSDL = "/ws/" + COVERITY_WS_VERSION + "/defectservice?wsdl";
+    public static final String CONFIGURATION_SERVICE_PATH = "/ws/" + COVERITY_WS_VERSION + "/configurationservice";
+    public static final String DEFECT_SERVICE_PATH = "/ws/" + COVERITY_WS_VERSION + "/defectservice";
+    public static final String CONFIGURATION_SERVICE_WSDL = CONFIGURATION_SERVICE_PATH + "?wsdl";
+    public static final String DEFECT_SERVICE_WSDL = DEFECT_SERVICE_PATH + "?wsdl";
+    public static final String CONFIGURATION_SERVICE_RESOURCE = "com/coverity/ws/" + COVERITY_WS_VERSION + "/configurationservice.wsdl";
+    public static final String DEFECT_SERVICE_RESOURCE = "com/coverity/ws/" + COVERITY_WS_VERSION + "/defectservice.wsdl";
+
+    /**
+     * Issue comparison of getMergedDefectsForSnapshotScope for the defects absent from the compared snapshots
+     */
+    public static final String ISSUE_COMPARISON_ABSENT = "ABSENT";
 
     private static final int GET_STREAM_DEFECTS_MAX_CIDS = 100;
+    private static final int MAX_SHARD_ATTEMPTS = 3;
+    private static final int PAGE_SIZE = 1000;
+    private static final int MAX_FILENAME_PATTERNS = 100;
+    private static final int MIN_TIMEOUT_MILLIS = 1000;
+    /**
+     * Impacts of the merged defects, in the order their details are fetched
+     */
+    private static final List<String> IMPACTS = Arrays.asList("High", "Medium", "Low");
 
     private static final Logger LOG = LoggerFactory.getLogger(CIMClient.class);
 
@@ -60,12 +86,55 @@ public class CIMClient {
     /**
      * cached webservice port for Defect service
      */
-    private transient DefectServiceService defectServiceService;
+    private transient Service defectServiceService;
     /**
      * cached webservice port for Configuration service
      */
-    private transient ConfigurationServiceService configurationServiceService;
+    private transient Service configurationServiceService;
     private transient Map<String, Long> projectKeys;
+    /**
+     * Statistics of the current import, if any
+     */
+    private transient ImportStatistics statistics;
+    /**
+     * Limiter of the requests of all analyses of the host, if any
+     */
+    private transient CimRequestLimiter requestLimiter;
+    /**
+     * Download the WSDLs from the CIM server instead of using the web service classes bundled in the plugin
+     */
+    private boolean useRemoteWsdl;
+    /**
+     * Secure each message with XWSS instead of adding the precomputed UsernameTokenHeader
+     */
+    private boolean useXwss;
+    private transient Header authenticationHeader;
+    /**
+     * Approximate number of defects per CID range when fetching the defects of streams, or 0 to page through all
+     * defects by offset
+     */
+    private int shardSize;
+    /**
+     * Names of the components the defects are fetched from, e.g. "MyMap.Core", or empty for all components
+     */
+    private List<String> componentNames = Collections.emptyList();
+    /**
+     * System.nanoTime() after which no more defect details are fetched, or 0 without time budget
+     */
+    private long deadline;
+    /**
+     * Maximum number of calls made at the same time when fetching several projects or CID ranges
+     */
+    private int maxConcurrentCalls = 4;
+    /**
+     * Run the concurrent calls on virtual threads when the JDK provides them
+     */
+    private boolean useVirtualThreads = true;
+    /**
+     * Fetch the projects, streams and defects with the AsyncSoapTransport instead of the JAX-WS ports
+     */
+    private boolean useAsyncTransport;
+    private transient AsyncSoapTransport asyncTransport;
 
     public CIMClient(String host, int port, String user, String password, boolean ssl) {
         this.host = host;
@@ -95,6 +164,123 @@ public class CIMClient {
         return useSSL;
     }
 
+    public ImportStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Sets the statistics recording the time and size of every web service call made by this client
+     */
+    public void setStatistics(ImportStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    public CimRequestLimiter getRequestLimiter() {
+        return requestLimiter;
+    }
+
+    /**
+     * Sets the limiter each web service call made by this client waits for
+     */
+    public void setRequestLimiter(CimRequestLimiter requestLimiter) {
+        this.requestLimiter = requestLimiter;
+    }
+
+    /**
+     * Sets the time budget of the import, as a System.nanoTime() value, or 0 for none. The requests time out when
+     * the budget runs out, and getStreamDefectsForMergedDefects stops fetching details.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    public boolean isPastDeadline() {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    public boolean isUseRemoteWsdl() {
+        return useRemoteWsdl;
+    }
+
+    /**
+     * Sets whether the WSDLs are downloaded from the CIM server. By default the WSDLs bundled in the plugin are
+     * used, so no WSDL or XSD is downloaded.
+     */
+    public void setUseRemoteWsdl(boolean useRemoteWsdl) {
+        this.useRemoteWsdl = useRemoteWsdl;
+    }
+
+    public boolean isUseXwss() {
+        return useXwss;
+    }
+
+    /**
+     * Sets whether each message is secured by XWSS (ClientAuthenticationHandlerWSS). By default the same
+     * UsernameToken header is built once and added to each message without processing the message.
+     */
+    public void setUseXwss(boolean useXwss) {
+        this.useXwss = useXwss;
+    }
+
+    public int getShardSize() {
+        return shardSize;
+    }
+
+    /**
+     * Sets the approximate number of defects of each CID range fetched concurrently by getDefectsFromStreams.
+     * With 0, the default, the defects are fetched by offset with a single query.
+     */
+    public void setShardSize(int shardSize) {
+        this.shardSize = shardSize;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    /**
+     * Sets the maximum number of calls made at the same time when fetching several projects or CID ranges
+     */
+    public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+        this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * Sets whether the concurrent calls run on virtual threads when the JDK provides them (JDK 21 and later),
+     * see {@link CimExecutors}
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    public boolean isUseAsyncTransport() {
+        return useAsyncTransport;
+    }
+
+    /**
+     * Sets whether the projects, streams and defects are fetched with the {@link AsyncSoapTransport}, which keeps
+     * many requests in flight without a thread each, instead of the JAX-WS ports
+     */
+    public void setUseAsyncTransport(boolean useAsyncTransport) {
+        this.useAsyncTransport = useAsyncTransport;
+    }
+
+    public List<String> getComponentNames() {
+        return componentNames;
+    }
+
+    /**
+     * Sets the components of the defects returned by the defect queries of this client, by full name
+     * ("map.component"). With an empty list, the defects of all components are returned.
+     */
+    public void setComponentNames(List<String> componentNames) {
+        this.componentNames = componentNames;
+    }
+
     /**
      * The root URL for the CIM instance
      *
@@ -111,14 +297,14 @@ public class CIMClient {
     public DefectService getDefectService() throws IOException {
         synchronized(this) {
             if (defectServiceService == null) {
-                defectServiceService = new DefectServiceService(
-                        new URL(getURL(), DEFECT_SERVICE_WSDL),
-                        new QName(COVERITY_NAMESPACE, "DefectServiceService"));
+                defectServiceService = createService(DEFECT_SERVICE_WSDL, DEFECT_SERVICE_RESOURCE, "DefectServiceService");
             }
 
             ClassLoader cl = Thread.currentThread().getContextClassLoader();
             try {
-                DefectService defectService = defectServiceService.getDefectServicePort();
+                DefectService defectService = defectServiceService.getPort(
+                        new QName(COVERITY_NAMESPACE, "DefectServicePort"), DefectService.class);
+                setEndpointAddress((BindingProvider) defectService, DEFECT_SERVICE_PATH);
                 attachAuthenticationHandler((BindingProvider) defectService);
 
                 return defectService;
@@ -128,11 +314,61 @@ public class CIMClient {
         }
     }
 
+    /**
+     * Creates a web service from the WSDL bundled in the plugin, or from the remote WSDL when it is enabled.
+     * The endpoint address is set on each port, so the address in the WSDL is never used.
+     */
+    private Service createService(String wsdlPath, String wsdlResource, String serviceName) throws IOException {
+        URL wsdlLocation = useRemoteWsdl ? new URL(getURL(), wsdlPath) : CIMClient.class.getClassLoader().getResource(wsdlResource);
+        if (wsdlLocation == null) {
+            throw new IOException("Missing bundled WSDL " + wsdlResource + ", set sonar.coverity.ws.remoteWsdl=true to download it");
+        }
+        return Service.create(wsdlLocation, new QName(COVERITY_NAMESPACE, serviceName));
+    }
+
+    /**
+     * Sends the requests of the web service to the CIM server, whatever address the WSDL contains
+     */
+    private void setEndpointAddress(BindingProvider service, String servicePath) throws MalformedURLException {
+        service.getRequestContext().put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, new URL(getURL(), servicePath).toString());
+        if (deadline != 0) {
+            int remainingMillis = getTimeoutMillis();
+            service.getRequestContext().put(JAXWSProperties.CONNECT_TIMEOUT, remainingMillis);
+            service.getRequestContext().put(JAXWSProperties.REQUEST_TIMEOUT, remainingMillis);
+        }
+    }
+
+    /**
+     * Returns the time left until the deadline, at least MIN_TIMEOUT_MILLIS, or 0 without time budget
+     */
+    private int getTimeoutMillis() {
+        if (deadline == 0) {
+            return 0;
+        }
+        return (int) Math.max(MIN_TIMEOUT_MILLIS,
+                Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+    }
+
     /**
      * Attach an authentication handler to the web service, that uses the configured user and password
      */
     private void attachAuthenticationHandler(BindingProvider service) {
-        service.getBinding().setHandlerChain(Arrays.<Handler>asList(new ClientAuthenticationHandlerWSS(user, password)));
+        List<Handler> handlers = new ArrayList<Handler>();
+        if (useXwss) {
+            handlers.add(new ClientAuthenticationHandlerWSS(user, password));
+        } else {
+            if (authenticationHeader == null) {
+                authenticationHeader = UsernameTokenHeader.create(user, password);
+            }
+            ((WSBindingProvider) service).setOutboundHeaders(authenticationHeader);
+        }
+        if (requestLimiter != null) {
+            handlers.add(new LimiterHandler(requestLimiter, statistics));
+        }
+        if (statistics != null) {
+            handlers.add(new StatisticsHandler(statistics));
+        }
+        service.getBinding().setHandlerChain(handlers);
     }
 
     /**
@@ -142,14 +378,14 @@ public class CIMClient {
         synchronized(this) {
             if (configurationServiceService == null) {
                 // Create a Web Services port to the server
-                configurationServiceService = new ConfigurationServiceService(
-                        new URL(getURL(), CONFIGURATION_SERVICE_WSDL),
-                        new QName(COVERITY_NAMESPACE, "ConfigurationServiceService"));
+                configurationServiceService = createService(CONFIGURATION_SERVICE_WSDL, CONFIGURATION_SERVICE_RESOURCE, "ConfigurationServiceService");
             }
 
             ClassLoader cl = Thread.currentThread().getContextClassLoader();
             try {
-                ConfigurationService configurationService = configurationServiceService.getConfigurationServicePort();
+                ConfigurationService configurationService = configurationServiceService.getPort(
+                        new QName(COVERITY_NAMESPACE, "ConfigurationServicePort"), ConfigurationService.class);
+                setEndpointAddress((BindingProvider) configurationService, CONFIGURATION_SERVICE_PATH);
                 attachAuthenticationHandler((BindingProvider)configurationService);
 
                 return configurationService;
@@ -160,22 +396,93 @@ public class CIMClient {
     }
 
 
+    private synchronized AsyncSoapTransport getAsyncTransport() throws MalformedURLException {
+        if (asyncTransport == null) {
+            asyncTransport = new AsyncSoapTransport(getURL(), user, password, statistics, requestLimiter, maxConcurrentCalls);
+        }
+        return asyncTransport;
+    }
+
+    public CompletableFuture<List<ProjectDataObj>> getProjectsAsync(ProjectFilterSpecDataObj filterSpec) throws IOException {
+        GetProjects request = new GetProjects();
+        request.setFilterSpec(filterSpec);
+        return getAsyncTransport().call(CONFIGURATION_SERVICE_PATH, "getProjects", request, GetProjectsResponse.class,
+                getTimeoutMillis()).thenApply(GetProjectsResponse::getReturn);
+    }
+
+    public CompletableFuture<List<StreamDataObj>> getStreamsAsync(StreamFilterSpecDataObj filterSpec) throws IOException {
+        GetStreams request = new GetStreams();
+        request.setFilterSpec(filterSpec);
+        return getAsyncTransport().call(CONFIGURATION_SERVICE_PATH, "getStreams", request, GetStreamsResponse.class,
+                getTimeoutMillis()).thenApply(GetStreamsResponse::getReturn);
+    }
+
+    public CompletableFuture<MergedDefectsPageDataObj> getMergedDefectsForProjectScopeAsync(
+            ProjectIdDataObj projectId, ProjectScopeDefectFilterSpecDataObj filterSpec, PageSpecDataObj pageSpec) throws IOException {
+        GetMergedDefectsForProjectScope request = new GetMergedDefectsForProjectScope();
+        request.setProjectId(projectId);
+        request.setFilterSpec(filterSpec);
+        request.setPageSpec(pageSpec);
+        return getAsyncTransport().call(DEFECT_SERVICE_PATH, "getMergedDefectsForProjectScope", request,
+                GetMergedDefectsForProjectScopeResponse.class, getTimeoutMillis())
+                .thenApply(GetMergedDefectsForProjectScopeResponse::getReturn);
+    }
+
+    public CompletableFuture<MergedDefectsPageDataObj> getMergedDefectsForStreamsAsync(
+            List<StreamIdDataObj> streamIdList, MergedDefectFilterSpecDataObj filterSpec, PageSpecDataObj pageSpec,
+            SnapshotScopeSpecDataObj snapshotScope) throws IOException {
+        GetMergedDefectsForStreams request = new GetMergedDefectsForStreams();
+        request.getStreamIds().addAll(streamIdList);
+        request.setFilterSpec(filterSpec);
+        request.setPageSpec(pageSpec);
+        request.setSnapshotScope(snapshotScope);
+        return getAsyncTransport().call(DEFECT_SERVICE_PATH, "getMergedDefectsForStreams", request,
+                GetMergedDefectsForStreamsResponse.class, getTimeoutMillis())
+                .thenApply(GetMergedDefectsForStreamsResponse::getReturn);
+    }
+
+    public CompletableFuture<List<StreamDefectDataObj>> getStreamDefectsAsync(
+            List<MergedDefectIdDataObj> mergedDefectIds, StreamDefectFilterSpecDataObj filterSpec) throws IOException {
+        GetStreamDefects request = new GetStreamDefects();
+        request.getMergedDefectIdDataObjs().addAll(mergedDefectIds);
+        request.setFilterSpec(filterSpec);
+        return getAsyncTransport().call(DEFECT_SERVICE_PATH, "getStreamDefects", request, GetStreamDefectsResponse.class,
+                getTimeoutMillis()).thenApply(GetStreamDefectsResponse::getReturn);
+    }
+
+    private MergedDefectsPageDataObj getMergedDefectsForProjectScope(ProjectIdDataObj projectId,
+            ProjectScopeDefectFilterSpecDataObj filterSpec, PageSpecDataObj pageSpec) throws IOException, CovRemoteServiceException_Exception {
+        if (useAsyncTransport) {
+            return getResult(getMergedDefectsForProjectScopeAsync(projectId, filterSpec, pageSpec));
+        }
+        return getDefectService().getMergedDefectsForProjectScope(projectId, filterSpec, pageSpec);
+    }
+
+    private MergedDefectsPageDataObj getMergedDefectsForStreams(List<StreamIdDataObj> streamIdList, MergedDefectFilterSpecDataObj filterSpec,
+            PageSpecDataObj pageSpec, SnapshotScopeSpecDataObj snapshotScope) throws IOException, CovRemoteServiceException_Exception {
+        if (useAsyncTransport) {
+            return getResult(getMergedDefectsForStreamsAsync(streamIdList, filterSpec, pageSpec, snapshotScope));
+        }
+        return getDefectService().getMergedDefectsForStreams(streamIdList, filterSpec, pageSpec, snapshotScope);
+    }
+
     /**
      * Returns all merged defects on a given project.
      */
     public List<MergedDefectDataObj> getDefectsFromProject(String project) throws IOException, CovRemoteServiceException_Exception {
         ProjectScopeDefectFilterSpecDataObj filterSpec = new ProjectScopeDefectFilterSpecDataObj();
+        addComponentFilter(filterSpec.getComponentIdList());
         ProjectIdDataObj projectId = new ProjectIdDataObj();
         projectId.setName(project);
         PageSpecDataObj pageSpec = new PageSpecDataObj();
-        pageSpec.setPageSize(1000);
+        pageSpec.setPageSize(PAGE_SIZE);
 
         List<MergedDefectDataObj> result = new ArrayList<MergedDefectDataObj>();
         int defectCount = 0;
         MergedDefectsPageDataObj defects = null;
         do {
             pageSpec.setStartIndex(defectCount);
-            defects = getDefectService().getMergedDefectsForProjectScope(projectId, filterSpec, pageSpec);
+            defects = getMergedDefectsForProjectScope(projectId, filterSpec, pageSpec);
             result.addAll(defects.getMergedDefects());
             defectCount += defects.getMergedDefects().size();
             LOG.info(MessageFormat.format("Fetching coverity defects for project \"{0}\" (fetched {1} of {2})",
@@ -186,25 +493,164 @@ public class CIMClient {
     }
 
     /**
-     * Returns all merged defects on a given project.
+     * Returns all merged defects of the given projects, fetched concurrently and keyed by project name in the
+     * order of the given list.
      */
-    public List<MergedDefectDataObj> getDefectsFromStream(String stream) throws IOException, CovRemoteServiceException_Exception {
-        MergedDefectFilterSpecDataObj filterSpec = new MergedDefectFilterSpecDataObj();
-        SnapshotScopeSpecDataObj snapshotScopeSpecDataObj = new SnapshotScopeSpecDataObj();
+    public Map<String, List<MergedDefectDataObj>> getDefectsFromProjects(List<String> projects) throws IOException, CovRemoteServiceException_Exception {
+        Map<String, List<MergedDefectDataObj>> result = new LinkedHashMap<String, List<MergedDefectDataObj>>();
+        if (projects.size() == 1) {
+            result.put(projects.get(0), getDefectsFromProject(projects.get(0)));
+            return result;
+        }
+
+        if (useAsyncTransport) {
+            Map<String, CompletableFuture<List<MergedDefectDataObj>>> futures = new LinkedHashMap<String, CompletableFuture<List<MergedDefectDataObj>>>();
+            for (String project : projects) {
+                futures.put(project, getDefectsFromProjectAsync(project));
+            }
+            for (Map.Entry<String, CompletableFuture<List<MergedDefectDataObj>>> future : futures.entrySet()) {
+                result.put(future.getKey(), getResult(future.getValue()));
+            }
+            return result;
+        }
+
+        ExecutorService executor = CimExecutors.newExecutor("coverity-cim-project",
+                Math.min(projects.size(), maxConcurrentCalls), useVirtualThreads);
+        try {
+            Map<String, Future<List<MergedDefectDataObj>>> futures = new LinkedHashMap<String, Future<List<MergedDefectDataObj>>>();
+            for (final String project : projects) {
+                futures.put(project, executor.submit(new Callable<List<MergedDefectDataObj>>() {
+                    @Override
+                    public List<MergedDefectDataObj> call() throws Exception {
+                        return getDefectsFromProject(project);
+                    }
+                }));
+            }
+
+            for (Map.Entry<String, Future<List<MergedDefectDataObj>>> future : futures.entrySet()) {
+                result.put(future.getKey(), getResult(future.getValue()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns all merged defects on a given project. Each page is requested once the previous one is received,
+     * without holding a thread in between.
+     */
+    private CompletableFuture<List<MergedDefectDataObj>> getDefectsFromProjectAsync(String project) throws IOException {
+        ProjectScopeDefectFilterSpecDataObj filterSpec = new ProjectScopeDefectFilterSpecDataObj();
+        addComponentFilter(filterSpec.getComponentIdList());
+        ProjectIdDataObj projectId = new ProjectIdDataObj();
+        projectId.setName(project);
+        return getProjectPagesAsync(project, projectId, filterSpec, new ArrayList<MergedDefectDataObj>());
+    }
+
+    private CompletableFuture<List<MergedDefectDataObj>> getProjectPagesAsync(String project, ProjectIdDataObj projectId,
+            ProjectScopeDefectFilterSpecDataObj filterSpec, List<MergedDefectDataObj> result) throws IOException {
         PageSpecDataObj pageSpec = new PageSpecDataObj();
-        pageSpec.setPageSize(1000);
+        pageSpec.setPageSize(PAGE_SIZE);
+        pageSpec.setStartIndex(result.size());
+
+        return getMergedDefectsForProjectScopeAsync(projectId, filterSpec, pageSpec).thenCompose(defects -> {
+            result.addAll(defects.getMergedDefects());
+            LOG.info(MessageFormat.format("Fetching coverity defects for project \"{0}\" (fetched {1} of {2})",
+                    project, result.size(), defects.getTotalNumberOfRecords()));
+            if (defects.getMergedDefects().isEmpty() || result.size() >= defects.getTotalNumberOfRecords()) {
+                return CompletableFuture.completedFuture(result);
+            }
+            try {
+                return getProjectPagesAsync(project, projectId, filterSpec, result);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException, CovRemoteServiceException_Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof CovRemoteServiceException_Exception) {
+                throw (CovRemoteServiceException_Exception) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
 
+    /**
+     * Returns all merged defects on a given stream.
+     */
+    public List<MergedDefectDataObj> getDefectsFromStream(String stream) throws IOException, CovRemoteServiceException_Exception {
+        return getDefectsFromStreams(Collections.singletonList(stream));
+    }
+
+    /**
+     * Returns all merged defects on the given streams. All streams are queried together, so a CID found in
+     * several streams is returned only once.
+     */
+    public List<MergedDefectDataObj> getDefectsFromStreams(List<String> streams) throws IOException, CovRemoteServiceException_Exception {
+        return getDefectsFromStreams(streams, null);
+    }
+
+    /**
+     * Returns the merged defects on the given streams in the files matching one of the given patterns, or in
+     * all files when the patterns are null. The patterns are sent MAX_FILENAME_PATTERNS at a time, so the
+     * requests stay small whatever the number of files.
+     */
+    public List<MergedDefectDataObj> getDefectsFromStreams(List<String> streams, List<String> filenamePatterns) throws IOException, CovRemoteServiceException_Exception {
         List<StreamIdDataObj> streamIdList = new ArrayList<>();
-        StreamIdDataObj streamIdDataObj = new StreamIdDataObj();
-        streamIdDataObj.setName(stream);
-        streamIdList.add(streamIdDataObj);
+        for (String stream : streams) {
+            StreamIdDataObj streamIdDataObj = new StreamIdDataObj();
+            streamIdDataObj.setName(stream);
+            streamIdList.add(streamIdDataObj);
+        }
+        String stream = streams.size() == 1 ? streams.get(0) : streams.toString();
+
+        if (filenamePatterns != null) {
+            Map<Long, MergedDefectDataObj> result = new LinkedHashMap<Long, MergedDefectDataObj>();
+            for (int i = 0; i < filenamePatterns.size(); i += MAX_FILENAME_PATTERNS) {
+                MergedDefectFilterSpecDataObj filterSpec = new MergedDefectFilterSpecDataObj();
+                filterSpec.getFilenamePatternList().addAll(
+                        filenamePatterns.subList(i, Math.min(i + MAX_FILENAME_PATTERNS, filenamePatterns.size())));
+                for (MergedDefectDataObj defect : getDefectsFromStreams(streamIdList, stream, filterSpec)) {
+                    result.put(defect.getCid(), defect);
+                }
+            }
+            return new ArrayList<MergedDefectDataObj>(result.values());
+        }
+
+        if (shardSize > 0) {
+            return getDefectsFromStreamsByCidRange(streamIdList, stream);
+        }
+
+        return getDefectsFromStreams(streamIdList, stream, new MergedDefectFilterSpecDataObj());
+    }
+
+    private List<MergedDefectDataObj> getDefectsFromStreams(List<StreamIdDataObj> streamIdList, String stream,
+                                                            MergedDefectFilterSpecDataObj filterSpec) throws IOException, CovRemoteServiceException_Exception {
+        addComponentFilter(filterSpec.getComponentIdList());
+        SnapshotScopeSpecDataObj snapshotScopeSpecDataObj = new SnapshotScopeSpecDataObj();
+        PageSpecDataObj pageSpec = new PageSpecDataObj();
+        pageSpec.setPageSize(PAGE_SIZE);
 
         List<MergedDefectDataObj> result = new ArrayList<MergedDefectDataObj>();
         int defectCount = 0;
         MergedDefectsPageDataObj defects = null;
         do {
             pageSpec.setStartIndex(defectCount);
-            defects = getDefectService().getMergedDefectsForStreams(streamIdList, filterSpec, pageSpec, snapshotScopeSpecDataObj);
+            defects = getMergedDefectsForStreams(streamIdList, filterSpec, pageSpec, snapshotScopeSpecDataObj);
             result.addAll(defects.getMergedDefects());
             defectCount += defects.getMergedDefects().size();
             LOG.info(MessageFormat.format("Fetching coverity defects for stream \"{0}\" (fetched {1} of {2})",
@@ -214,13 +660,184 @@ public class CIMClient {
         return result;
     }
 
+    /**
+     * Returns the merged defects of the given streams by CID range. Deep offsets are slow, since the server sorts
+     * and skips all defects before the offset, and defects move between pages when they are triaged during the
+     * fetch. So the defects are counted first, the CIDs between the lowest and highest one are split into ranges
+     * of about shardSize defects, and each range is fetched on its own, concurrently, with a shallow paging.
+     */
+    private List<MergedDefectDataObj> getDefectsFromStreamsByCidRange(final List<StreamIdDataObj> streamIdList, final String stream)
+            throws IOException, CovRemoteServiceException_Exception {
+        MergedDefectsPageDataObj lowest = getMergedDefectsPage(streamIdList, null, null, 0, 1, true);
+        int totalNumberOfRecords = lowest.getTotalNumberOfRecords();
+        if (totalNumberOfRecords == 0 || lowest.getMergedDefects().isEmpty()) {
+            return new ArrayList<MergedDefectDataObj>();
+        }
+        MergedDefectsPageDataObj highest = getMergedDefectsPage(streamIdList, null, null, 0, 1, false);
+        long minCid = lowest.getMergedDefects().get(0).getCid();
+        long maxCid = highest.getMergedDefects().isEmpty() ? minCid : highest.getMergedDefects().get(0).getCid();
+
+        int shardCount = (int) Math.min((totalNumberOfRecords + shardSize - 1) / shardSize, maxCid - minCid + 1);
+        long cidsPerShard = (maxCid - minCid + shardCount) / shardCount;
+        LOG.info(MessageFormat.format("Fetching {0} coverity defects for stream \"{1}\" in {2} CID ranges",
+                totalNumberOfRecords, stream, shardCount));
+
+        ExecutorService executor = CimExecutors.newExecutor("coverity-cim-range",
+                Math.min(shardCount, maxConcurrentCalls), useVirtualThreads);
+        Map<Long, MergedDefectDataObj> result = new LinkedHashMap<Long, MergedDefectDataObj>();
+        int duplicates = 0;
+        try {
+            List<Future<List<MergedDefectDataObj>>> futures = new ArrayList<Future<List<MergedDefectDataObj>>>();
+            for (long shardMinCid = minCid; shardMinCid <= maxCid; shardMinCid += cidsPerShard) {
+                final long fromCid = shardMinCid;
+                final long toCid = Math.min(shardMinCid + cidsPerShard - 1, maxCid);
+                futures.add(executor.submit(new Callable<List<MergedDefectDataObj>>() {
+                    @Override
+                    public List<MergedDefectDataObj> call() throws Exception {
+                        return getDefectsFromCidRange(streamIdList, stream, fromCid, toCid);
+                    }
+                }));
+            }
+
+            // The CID ranges do not overlap, so a duplicate CID means the server did not apply the range
+            for (Future<List<MergedDefectDataObj>> future : futures) {
+                for (MergedDefectDataObj defect : getResult(future)) {
+                    if (result.put(defect.getCid(), defect) != null) {
+                        duplicates++;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (duplicates > 0) {
+            LOG.warn("Skipped " + duplicates + " defects returned for more than one CID range of stream \"" + stream + "\"");
+        }
+        if (result.size() != totalNumberOfRecords) {
+            LOG.info(MessageFormat.format("Fetched {0} coverity defects for stream \"{1}\", {2} were counted before the fetch",
+                    result.size(), stream, totalNumberOfRecords));
+        }
+        return new ArrayList<MergedDefectDataObj>(result.values());
+    }
+
+    /**
+     * Returns the merged defects of the given streams with a CID between fromCid and toCid. The whole range is
+     * fetched again when a call fails, up to MAX_SHARD_ATTEMPTS times.
+     */
+    private List<MergedDefectDataObj> getDefectsFromCidRange(List<StreamIdDataObj> streamIdList, String stream, long fromCid, long toCid)
+            throws IOException, CovRemoteServiceException_Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                List<MergedDefectDataObj> result = new ArrayList<MergedDefectDataObj>();
+                MergedDefectsPageDataObj defects;
+                do {
+                    defects = getMergedDefectsPage(streamIdList, fromCid, toCid, result.size(), PAGE_SIZE, true);
+                    result.addAll(defects.getMergedDefects());
+                } while (!defects.getMergedDefects().isEmpty() && result.size() < defects.getTotalNumberOfRecords());
+
+                LOG.debug(MessageFormat.format("Fetched {0} coverity defects for stream \"{1}\" (CID {2} to {3})",
+                        result.size(), stream, String.valueOf(fromCid), String.valueOf(toCid)));
+                return result;
+            } catch (IOException | CovRemoteServiceException_Exception | WebServiceException e) {
+                if (attempt >= MAX_SHARD_ATTEMPTS) {
+                    throw e;
+                }
+                LOG.warn(MessageFormat.format("Error while fetching coverity defects for stream \"{0}\" (CID {1} to {2}), retrying: {3}",
+                        stream, String.valueOf(fromCid), String.valueOf(toCid), e.getMessage()));
+            }
+        }
+    }
+
+    private MergedDefectsPageDataObj getMergedDefectsPage(List<StreamIdDataObj> streamIdList, Long minCid, Long maxCid,
+                                                          int startIndex, int pageSize, boolean ascending)
+            throws IOException, CovRemoteServiceException_Exception {
+        MergedDefectFilterSpecDataObj filterSpec = new MergedDefectFilterSpecDataObj();
+        filterSpec.setMinCid(minCid);
+        filterSpec.setMaxCid(maxCid);
+        addComponentFilter(filterSpec.getComponentIdList());
+        PageSpecDataObj pageSpec = new PageSpecDataObj();
+        pageSpec.setPageSize(pageSize);
+        pageSpec.setStartIndex(startIndex);
+        pageSpec.setSortField("cid");
+        pageSpec.setSortAscending(ascending);
+
+        return getMergedDefectsForStreams(streamIdList, filterSpec, pageSpec, new SnapshotScopeSpecDataObj());
+    }
+
+    /**
+     * Returns the merged defects of a project found in the snapshots selected by showSelector but not in the ones
+     * selected by compareSelector, e.g. the defects introduced by a pull request compared to its target branch.
+     * The comparison is done by Coverity Connect, so only the new defects are returned.
+     *
+     * @param streams the streams of the project the snapshots are selected from, or empty for all its streams
+     * @param showSelector snapshot selector, e.g. "last()" or a snapshot id
+     * @param compareSelector snapshot selector of the baseline, e.g. "lastBefore(last())" or a snapshot id
+     */
+    public List<MergedDefectDataObj> getNewDefectsFromProject(String project, List<String> streams, String showSelector,
+                                                              String compareSelector) throws IOException, CovRemoteServiceException_Exception {
+        ProjectIdDataObj projectId = new ProjectIdDataObj();
+        projectId.setName(project);
+
+        SnapshotScopeDefectFilterSpecDataObj filterSpec = new SnapshotScopeDefectFilterSpecDataObj();
+        filterSpec.setIssueComparison(ISSUE_COMPARISON_ABSENT);
+        addComponentFilter(filterSpec.getComponentIdList());
+        for (String stream : streams) {
+            StreamIdDataObj streamIdDataObj = new StreamIdDataObj();
+            streamIdDataObj.setName(stream);
+            filterSpec.getStreamIncludeNameList().add(streamIdDataObj);
+        }
+
+        SnapshotScopeSpecDataObj snapshotScope = new SnapshotScopeSpecDataObj();
+        snapshotScope.setShowSelector(showSelector);
+        snapshotScope.setCompareSelector(compareSelector);
+
+        PageSpecDataObj pageSpec = new PageSpecDataObj();
+        pageSpec.setPageSize(PAGE_SIZE);
+
+        List<MergedDefectDataObj> result = new ArrayList<MergedDefectDataObj>();
+        MergedDefectsPageDataObj defects;
+        do {
+            pageSpec.setStartIndex(result.size());
+            defects = getDefectService().getMergedDefectsForSnapshotScope(projectId, filterSpec, pageSpec, snapshotScope);
+            result.addAll(defects.getMergedDefects());
+            LOG.info(MessageFormat.format("Fetching new coverity defects for project \"{0}\" in \"{1}\" compared to \"{2}\" (fetched {3} of {4})",
+                    project, showSelector, compareSelector, result.size(), defects.getTotalNumberOfRecords()));
+        } while (!defects.getMergedDefects().isEmpty() && result.size() < defects.getTotalNumberOfRecords());
+
+        return result;
+    }
+
+    private void addComponentFilter(List<ComponentIdDataObj> componentIdList) {
+        for (String componentName : componentNames) {
+            ComponentIdDataObj componentId = new ComponentIdDataObj();
+            componentId.setName(componentName);
+            componentIdList.add(componentId);
+        }
+    }
+
+    /**
+     * Returns the component map with the given name, or null when it does not exist.
+     */
+    public ComponentMapDataObj getComponentMap(String componentMapName) throws IOException, CovRemoteServiceException_Exception {
+        ComponentMapFilterSpecDataObj filterSpec = new ComponentMapFilterSpecDataObj();
+        filterSpec.setNamePattern(componentMapName);
+        for (ComponentMapDataObj componentMap : getConfigurationService().getComponentMaps(filterSpec)) {
+            if (componentMap.getComponentMapId() != null && componentMapName.equals(componentMap.getComponentMapId().getName())) {
+                return componentMap;
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns a ProjectDataObj for a given project id.
      */
     public ProjectDataObj getProject(String projectId) throws IOException, CovRemoteServiceException_Exception {
         ProjectFilterSpecDataObj filterSpec = new ProjectFilterSpecDataObj();
         filterSpec.setNamePattern(projectId);
-        List<ProjectDataObj> projects = getConfigurationService().getProjects(filterSpec);
+        List<ProjectDataObj> projects = useAsyncTransport ? getResult(getProjectsAsync(filterSpec))
+                : getConfigurationService().getProjects(filterSpec);
         if(projects.size() == 0) {
             return null;
         } else {
@@ -238,7 +855,8 @@ public class CIMClient {
     public StreamDataObj getStream(String streamId) throws IOException, CovRemoteServiceException_Exception {
         StreamFilterSpecDataObj filterSpec = new StreamFilterSpecDataObj();
         filterSpec.setNamePattern(streamId);
-        List<StreamDataObj> streams = getConfigurationService().getStreams(filterSpec);
+        List<StreamDataObj> streams = useAsyncTransport ? getResult(getStreamsAsync(filterSpec))
+                : getConfigurationService().getStreams(filterSpec);
         if(streams.size() == 0){
             return null;
         } else {
@@ -246,10 +864,35 @@ public class CIMClient {
         }
     }
 
+    /**
+     * Returns the ids of the snapshots committed to a stream since the given time. Only the ids are returned, so
+     * it is a cheap way to know whether a stream changed.
+     */
+    public List<Long> getSnapshotIdsSince(String streamName, Date since) throws IOException, CovRemoteServiceException_Exception {
+        StreamIdDataObj streamId = new StreamIdDataObj();
+        streamId.setName(streamName);
+        SnapshotFilterSpecDataObj filterSpec = new SnapshotFilterSpecDataObj();
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTime(since);
+        try {
+            filterSpec.setStartDate(DatatypeFactory.newInstance().newXMLGregorianCalendar(calendar));
+        } catch (DatatypeConfigurationException e) {
+            throw new IOException(e);
+        }
+
+        List<Long> snapshotIds = new ArrayList<>();
+        for (SnapshotIdDataObj snapshotId : getConfigurationService().getSnapshotsForStream(streamId, filterSpec)) {
+            snapshotIds.add(snapshotId.getId());
+        }
+        return snapshotIds;
+    }
+
     /**
      * Returns a map of <CID, StreamDefectDataObj>. It essentially calls getDefectService().getStreamDefects() on a
      * specific list of MergedDefectDataObj. Then it takes the resulting List<StreamDefectDataObj> and creates a map
      * with the CID of each element on that list as the key, and the actual object as value.
+     * The details of the high impact defects are fetched first. With a time budget, the details are no longer
+     * fetched once it has run out, so the defects of lower impact are missing from the map.
      */
     public Map<Long, StreamDefectDataObj> getStreamDefectsForMergedDefects(List<MergedDefectDataObj> defects) throws IOException, CovRemoteServiceException_Exception {
         Map<Long, MergedDefectDataObj> cids = new HashMap<Long, MergedDefectDataObj>();
@@ -276,48 +919,104 @@ public class CIMClient {
         filter.setIncludeDefectInstances(true);
 
         List<Long> cidList = new ArrayList<Long>(cids.keySet());
+        cidList.sort(Comparator.comparingInt(cid -> getImpactRank(cids.get(cid))));
+
+        // with the async transport, up to maxConcurrentCalls slices are in flight, the next one is sent once one is received
+        Semaphore window = new Semaphore(Math.max(1, maxConcurrentCalls));
+        Map<CompletableFuture<List<StreamDefectDataObj>>, List<MergedDefectIdDataObj>> futures =
+                new LinkedHashMap<CompletableFuture<List<StreamDefectDataObj>>, List<MergedDefectIdDataObj>>();
 
         for(int i = 0; i < cidList.size(); i += GET_STREAM_DEFECTS_MAX_CIDS) {
+            if (isPastDeadline()) {
+                LOG.warn(MessageFormat.format("The time budget ran out, the details of {0} of {1} coverity defects were not fetched",
+                        cidList.size() - i, cidList.size()));
+                break;
+            }
+
             List<Long> slice = cidList.subList(i, i + Math.min(GET_STREAM_DEFECTS_MAX_CIDS, cidList.size() - i));
             List<MergedDefectIdDataObj> sliceMergedDefectIdDataObj = new ArrayList<MergedDefectIdDataObj>();
             for(Long cid : slice){
                 sliceMergedDefectIdDataObj.add(mdidos.get(cid));
             }
 
-            try{
-                List<StreamDefectDataObj> temp = getDefectService().getStreamDefects(sliceMergedDefectIdDataObj, filter);
-
-                for(StreamDefectDataObj sddo : temp) {
-                    MergedDefectDataObj curMergedDefectDataObj = cids.get(sddo.getCid());
-                    StreamIdDataObj curStreamIdDataObj = sddo.getStreamId();
-
-                    if (curMergedDefectDataObj != null && curStreamIdDataObj != null
-                            && curMergedDefectDataObj.getLastDetectedStream().equals(curStreamIdDataObj.getName())) {
-                        sddos.put(sddo.getCid(), sddo);
-                    }
+            if (useAsyncTransport) {
+                try {
+                    window.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
                 }
+                CompletableFuture<List<StreamDefectDataObj>> future;
+                try {
+                    future = getStreamDefectsAsync(sliceMergedDefectIdDataObj, filter);
+                } catch (IOException | RuntimeException e) {
+                    window.release();
+                    throw e;
+                }
+                future.whenComplete((streamDefects, failure) -> window.release());
+                futures.put(future, sliceMergedDefectIdDataObj);
+                continue;
+            }
 
+            try{
+                addStreamDefects(getDefectService().getStreamDefects(sliceMergedDefectIdDataObj, filter), cids, sddos);
                 LOG.info(MessageFormat.format("Fetching coverity defect details (fetched {0} of {1})",
                         sddos.size(), cidList.size()));
             } catch (Exception ex) {
-                LOG.error("Error occurred while fetching defect details.", ex);
-
-                LOG.debug("===== MergeDefectIdDataObj information =====");
-                LOG.debug("Size of SliceMergedDefectIdDataObj: " + sliceMergedDefectIdDataObj.size());
-                for (MergedDefectIdDataObj mergedDefectIdDataObj : sliceMergedDefectIdDataObj) {
-                    LOG.debug(MessageFormat.format("[Coverity] CID: {0}", mergedDefectIdDataObj.getCid()));
-                }
+                logStreamDefectsError(ex, sliceMergedDefectIdDataObj, filter);
+                break;
+            }
 
-                LOG.debug("\n====== StreamDefectFilterSpecDataObj information =====");
-                for (StreamIdDataObj streamIdDataObj : filter.getStreamIdList()) {
-                    LOG.debug(MessageFormat.format("[Coverity] Stream: {0}", streamIdDataObj.getName()));
-                }
+        }
 
+        for (Map.Entry<CompletableFuture<List<StreamDefectDataObj>>, List<MergedDefectIdDataObj>> future : futures.entrySet()) {
+            try {
+                addStreamDefects(getResult(future.getKey()), cids, sddos);
+                LOG.info(MessageFormat.format("Fetching coverity defect details (fetched {0} of {1})",
+                        sddos.size(), cidList.size()));
+            } catch (Exception ex) {
+                logStreamDefectsError(ex, future.getValue(), filter);
                 break;
             }
-
         }
 
         return sddos;
     }
+
+    /**
+     * Keeps the stream defects of the stream each merged defect was last detected in
+     */
+    private static void addStreamDefects(List<StreamDefectDataObj> streamDefects, Map<Long, MergedDefectDataObj> cids,
+                                         Map<Long, StreamDefectDataObj> sddos) {
+        for(StreamDefectDataObj sddo : streamDefects) {
+            MergedDefectDataObj curMergedDefectDataObj = cids.get(sddo.getCid());
+            StreamIdDataObj curStreamIdDataObj = sddo.getStreamId();
+
+            if (curMergedDefectDataObj != null && curStreamIdDataObj != null
+                    && curMergedDefectDataObj.getLastDetectedStream().equals(curStreamIdDataObj.getName())) {
+                sddos.put(sddo.getCid(), sddo);
+            }
+        }
+    }
+
+    private static void logStreamDefectsError(Exception ex, List<MergedDefectIdDataObj> sliceMergedDefectIdDataObj,
+                                              StreamDefectFilterSpecDataObj filter) {
+        LOG.error("Error occurred while fetching defect details.", ex);
+
+        LOG.debug("===== MergeDefectIdDataObj information =====");
+        LOG.debug("Size of SliceMergedDefectIdDataObj: " + sliceMergedDefectIdDataObj.size());
+        for (MergedDefectIdDataObj mergedDefectIdDataObj : sliceMergedDefectIdDataObj) {
+            LOG.debug(MessageFormat.format("[Coverity] CID: {0}", mergedDefectIdDataObj.getCid()));
+        }
+
+        LOG.debug("\n====== StreamDefectFilterSpecDataObj information =====");
+        for (StreamIdDataObj streamIdDataObj : filter.getStreamIdList()) {
+            LOG.debug(MessageFormat.format("[Coverity] Stream: {0}", streamIdDataObj.getName()));
+        }
+    }
+
+    private static int getImpactRank(MergedDefectDataObj defect) {
+        int rank = IMPACTS.indexOf(defect.getDisplayImpact());
+        return rank >= 0 ? rank : IMPACTS.size();
+    }
 }
@@ -14,11 +14,13 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.sonar.api.batch.ScannerSide;
 import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
 import org.sonar.plugins.coverity.CoverityPlugin;
 
 import javax.annotation.Nonnull;
 
 @ScannerSide
+@ServerSide
 public class CIMClientFactory {
 
     public CIMClient create(@Nonnull Configuration config) {
@@ -30,6 +32,14 @@ public class CIMClientFactory {
         String password = config.get(CoverityPlugin.COVERITY_CONNECT_PASSWORD).orElse(StringUtils.EMPTY);
         boolean ssl = config.getBoolean(CoverityPlugin.COVERITY_CONNECT_SSL).orElse(false);
 
-        return new CIMClient(host, port, user, password, ssl);
+        CIMClient cimClient = new CIMClient(host, port, user, password, ssl);
+        cimClient.setUseRemoteWsdl(config.getBoolean(CoverityPlugin.COVERITY_REMOTE_WSDL).orElse(false));
+        cimClient.setUseXwss(config.getBoolean(CoverityPlugin.COVERITY_XWSS).orElse(false));
+        cimClient.setShardSize(config.getInt(CoverityPlugin.COVERITY_SHARD_SIZE).orElse(0));
+        cimClient.setMaxConcurrentCalls(config.getInt(CoverityPlugin.COVERITY_WS_THREADS).orElse(4));
+        cimClient.setUseVirtualThreads(config.getBoolean(CoverityPlugin.COVERITY_WS_VIRTUAL_THREADS).orElse(true));
+        cimClient.setUseAsyncTransport(config.getBoolean(CoverityPlugin.COVERITY_WS_ASYNC).orElse(false));
+        cimClient.setRequestLimiter(CimRequestLimiter.create(config));
+        return cimClient;
     }
 }
@@ -0,0 +1,287 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+package org.sonar.plugins.coverity.ws;
+
+import com.google.common.io.CountingInputStream;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/*
+    CIMRestClient retrieves issues through the v2 REST API of Coverity Connect, as an alternative to the SOAP
+    DefectService of CIMClient. The issues search only returns the columns used by the plugin, a page at a time,
+    so the responses are much smaller than the merged and stream defect SOAP messages.
+ */
+public class CIMRestClient {
+    public static final String ISSUES_SEARCH_PATH = "/api/v2/issues/search";
+    public static final String PROJECTS_PATH = "/api/v2/projects/";
+
+    public static final String COLUMN_CID = "cid";
+    public static final String COLUMN_MERGE_KEY = "mergeKey";
+    public static final String COLUMN_CHECKER = "checker";
+    public static final String COLUMN_SUBCATEGORY = "subcategory";
+    public static final String COLUMN_DOMAIN = "domain";
+    public static final String COLUMN_TYPE = "displayType";
+    public static final String COLUMN_IMPACT = "displayImpact";
+    public static final String COLUMN_FILE = "displayFile";
+    public static final String COLUMN_LINE = "lineNumber";
+    public static final String COLUMN_STATUS = "status";
+    public static final String COLUMN_EVENT_TAG = "eventTag";
+    public static final String COLUMN_EVENT_DESCRIPTION = "eventDescription";
+    public static final String COLUMN_LONG_DESCRIPTION = "longDescription";
+
+    /**
+     * The columns requested from the issues search
+     */
+    public static final List<String> COLUMNS = Collections.unmodifiableList(Arrays.asList(
+            COLUMN_CID,
+            COLUMN_MERGE_KEY,
+            COLUMN_CHECKER,
+            COLUMN_SUBCATEGORY,
+            COLUMN_DOMAIN,
+            COLUMN_TYPE,
+            COLUMN_IMPACT,
+            COLUMN_FILE,
+            COLUMN_LINE,
+            COLUMN_STATUS,
+            COLUMN_EVENT_TAG,
+            COLUMN_EVENT_DESCRIPTION,
+            COLUMN_LONG_DESCRIPTION));
+
+    public static final String SCOPE_PROJECT = "Project";
+    public static final String SCOPE_STREAM = "Stream";
+
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(CIMRestClient.class);
+
+    /**
+     * The host name for the CIM server
+     */
+    private final String host;
+    /**
+     * The port for the CIM server (this is the HTTP port and not the data port)
+     */
+    private final int port;
+    /**
+     * Username for connecting to the CIM server
+     */
+    private final String user;
+    /**
+     * Password for connecting to the CIM server
+     */
+    private final String password;
+    /**
+     * Use SSL
+     */
+    private final boolean useSSL;
+    /**
+     * Number of issues requested per page
+     */
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    /**
+     * Statistics of the current import, if any
+     */
+    private transient ImportStatistics statistics;
+    /**
+     * Limiter of the requests of all analyses of the host, if any
+     */
+    private transient CimRequestLimiter requestLimiter;
+
+    public CIMRestClient(String host, int port, String user, String password, boolean ssl) {
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.password = password;
+        this.useSSL = ssl;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isUseSSL() {
+        return useSSL;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Sets the statistics recording the time and size of every call made by this client
+     */
+    public void setStatistics(ImportStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Sets the limiter each call made by this client waits for
+     */
+    public void setRequestLimiter(CimRequestLimiter requestLimiter) {
+        this.requestLimiter = requestLimiter;
+    }
+
+    /**
+     * Returns the issues of the last snapshot of the given projects or streams, one map of column key to value per
+     * issue, in the order of {@link #COLUMNS}.
+     *
+     * @param scope {@link #SCOPE_PROJECT} or {@link #SCOPE_STREAM}
+     */
+    @SuppressWarnings("unchecked")
+    public List<Map<String, String>> searchIssues(String scope, List<String> names) throws IOException {
+        JSONArray matchers = new JSONArray();
+        for (String name : names) {
+            JSONObject matcher = new JSONObject();
+            matcher.put("class", scope);
+            matcher.put("name", name);
+            matcher.put("type", "nameMatcher");
+            matchers.add(matcher);
+        }
+
+        JSONObject filter = new JSONObject();
+        filter.put("columnKey", SCOPE_PROJECT.equals(scope) ? "project" : "streams");
+        filter.put("matchMode", "oneOrMoreMatch");
+        filter.put("matchers", matchers);
+
+        JSONArray filters = new JSONArray();
+        filters.add(filter);
+
+        JSONObject show = new JSONObject();
+        show.put("scope", "last()");
+        show.put("includeOutdatedSnapshots", false);
+        JSONObject snapshotScope = new JSONObject();
+        snapshotScope.put("show", show);
+
+        JSONArray columns = new JSONArray();
+        columns.addAll(COLUMNS);
+
+        JSONObject request = new JSONObject();
+        request.put("filters", filters);
+        request.put("columns", columns);
+        request.put("snapshotScope", snapshotScope);
+        String body = request.toJSONString();
+
+        List<Map<String, String>> issues = new ArrayList<>();
+        long totalRows;
+        do {
+            String query = String.format("?includeColumnLabels=false&offset=%d&rowCount=%d&queryType=bySnapshot&sortOrder=asc",
+                    issues.size(), pageSize);
+            JSONObject response = (JSONObject) call("POST", ISSUES_SEARCH_PATH + query, body, "issues/search");
+
+            totalRows = ((Number) response.get("totalRows")).longValue();
+            JSONArray rows = (JSONArray) response.get("rows");
+            if (rows == null || rows.isEmpty()) {
+                break;
+            }
+
+            for (Object row : rows) {
+                Map<String, String> issue = new LinkedHashMap<>();
+                for (Object cell : (JSONArray) row) {
+                    Object value = ((JSONObject) cell).get("value");
+                    issue.put((String) ((JSONObject) cell).get("key"), value != null ? value.toString() : null);
+                }
+                issues.add(issue);
+            }
+        } while (issues.size() < totalRows);
+
+        LOG.debug("Found " + issues.size() + " issues for " + scope + " " + names);
+        return issues;
+    }
+
+    /**
+     * Returns the key of a project, or null when it does not exist
+     */
+    public Long getProjectKey(String projectName) throws IOException {
+        String path = PROJECTS_PATH + URLEncoder.encode(projectName, "UTF-8").replace("+", "%20") + "?includeChildren=false";
+
+        JSONObject response;
+        try {
+            response = (JSONObject) call("GET", path, null, "projects");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+
+        JSONArray projects = (JSONArray) response.get("projects");
+        if (projects == null || projects.isEmpty()) {
+            return null;
+        }
+        Number projectKey = (Number) ((JSONObject) projects.get(0)).get("projectKey");
+        return projectKey != null ? projectKey.longValue() : null;
+    }
+
+    private Object call(String method, String path, String body, String operation) throws IOException {
+        URL url = new URL(useSSL ? "https" : "http", host, port, path);
+        CimRequestLimiter.Permit permit = requestLimiter != null ? requestLimiter.acquire(statistics) : null;
+        long start = System.nanoTime();
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        CountingInputStream response = null;
+        try {
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setRequestProperty("Accept", "application/json");
+            connection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+                    (user + ":" + password).getBytes(StandardCharsets.UTF_8)));
+
+            if (body != null) {
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setFixedLengthStreamingMode(bytes.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(bytes);
+                }
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new FileNotFoundException(url.toString());
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Coverity Connect returned HTTP " + responseCode + " "
+                        + connection.getResponseMessage() + " for " + method + " " + path);
+            }
+
+            response = new CountingInputStream(connection.getInputStream());
+            try (Reader reader = new BufferedReader(new InputStreamReader(response, StandardCharsets.UTF_8))) {
+                return new JSONParser().parse(reader);
+            } catch (ParseException e) {
+                throw new IOException("Invalid response from Coverity Connect for " + method + " " + path + ": " + e, e);
+            }
+        } finally {
+            if (statistics != null) {
+                statistics.addCimCall(operation, System.nanoTime() - start, response != null ? response.getCount() : -1);
+            }
+            connection.disconnect();
+            if (permit != null) {
+                permit.close();
+            }
+        }
+    }
+}
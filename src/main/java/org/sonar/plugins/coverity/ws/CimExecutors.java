@@ -0,0 +1,167 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    CimExecutors creates the executors running the blocking web service calls of the CIM client, e.g. the pages of
+    several projects or the CID ranges of a stream. On JDK 21 and later, each call runs on its own virtual thread,
+    which does not hold a platform thread while it waits for Coverity Connect. The plugin is built for Java 8, so
+    the virtual threads are created by reflection; on older JDKs a fixed pool of daemon threads is used instead.
+
+    Either way at most maxConcurrent calls of an executor run at the same time, and each task runs with the context
+    class loader of the thread that submitted it: the JAX-WS and SAAJ implementations bundled in the plugin are
+    looked up through the context class loader, which is not inherited from the submitting thread by a pool.
+ */
+public final class CimExecutors {
+    private static final Logger LOG = LoggerFactory.getLogger(CimExecutors.class);
+
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutorFactory();
+    private static final long IDLE_SECONDS = 60;
+
+    private CimExecutors() {
+    }
+
+    /**
+     * Whether the JDK running the analysis provides virtual threads
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor running at most maxConcurrent tasks at the same time, on virtual threads when they are
+     * available and enabled. The executor is to be shut down by the caller.
+     *
+     * @param name prefix of the names of the threads
+     */
+    public static ExecutorService newExecutor(String name, int maxConcurrent, boolean virtualThreads) {
+        int permits = Math.max(1, maxConcurrent);
+        if (virtualThreads && NEW_VIRTUAL_EXECUTOR != null) {
+            try {
+                return new ContextExecutor((ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null, name + "-"), new Semaphore(permits));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("[Coverity] Could not create virtual threads, using platform threads: " + e);
+            }
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(permits, permits, IDLE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // an executor kept by a client does not hold idle threads
+        pool.allowCoreThreadTimeOut(true);
+        return new ContextExecutor(pool, null);
+    }
+
+    /**
+     * Returns the method creating a virtual thread per task executor, or null before JDK 21. On JDK 19 and 20 the
+     * virtual threads are a preview feature, which fails with UnsupportedOperationException unless it is enabled.
+     */
+    private static Method findVirtualExecutorFactory() {
+        try {
+            Method method = CimExecutors.class.getDeclaredMethod("newVirtualThreadPerTaskExecutor", String.class);
+            ((ExecutorService) method.invoke(null, "coverity-probe-")).shutdownNow();
+            return method;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unused") // called by reflection
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String prefix) throws ReflectiveOperationException {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+        ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+    }
+
+    /**
+     * Runs the tasks on the delegate with the context class loader of the submitting thread, waiting for one of the
+     * permits first, if any. A thread per task executor does not bound the tasks running at the same time itself.
+     */
+    private static class ContextExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        ContextExecutor(ExecutorService delegate, Semaphore permits) {
+            this.delegate = delegate;
+            this.permits = permits;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            delegate.execute(() -> {
+                Thread thread = Thread.currentThread();
+                ClassLoader oldCL = thread.getContextClassLoader();
+                thread.setContextClassLoader(cl);
+                try {
+                    if (permits != null) {
+                        permits.acquire();
+                    }
+                    try {
+                        command.run();
+                    } finally {
+                        if (permits != null) {
+                            permits.release();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // the executor was shut down before the task started
+                    if (command instanceof Future) {
+                        ((Future<?>) command).cancel(false);
+                    }
+                    thread.interrupt();
+                } finally {
+                    thread.setContextClassLoader(oldCL);
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
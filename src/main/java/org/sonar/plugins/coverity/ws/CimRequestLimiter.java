@@ -0,0 +1,235 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+    CimRequestLimiter limits the requests sent to Coverity Connect by all the analyses running on a host, e.g. the
+    scanners of a build agent. The analyses share a directory in which each request holds the lock of one of the
+    slot files while it runs, so no more than maxConcurrent requests run at the same time. With a minimum interval,
+    the time at which the next request may start is kept in another locked file, which spreads the requests evenly.
+
+    File locks are held by processes, and closing any channel of a file releases all the locks of the process on
+    it. So each slot file is opened once per process, its channel kept open in SLOTS, and the threads of a process
+    take the slots through the in-memory state of that channel: a slot held by another thread is skipped without
+    opening the file again. The interval file is only opened by one thread of a process at a time.
+ */
+public class CimRequestLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(CimRequestLimiter.class);
+
+    static final String SLOT_FILE_PREFIX = "cim-slot-";
+    static final String INTERVAL_FILE_NAME = "cim-interval";
+
+    private static final long MIN_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 500;
+    private static final ConcurrentMap<String, Slot> SLOTS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Object> INTERVAL_LOCKS = new ConcurrentHashMap<>();
+
+    private final File directory;
+    private final int maxConcurrent;
+    private final long minIntervalMillis;
+
+    public CimRequestLimiter(File directory, int maxConcurrent, long minIntervalMillis) {
+        this.directory = directory;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.minIntervalMillis = Math.max(0, minIntervalMillis);
+    }
+
+    /**
+     * Creates the limiter of the shared directory of the configuration, or returns null when no directory is set.
+     */
+    public static CimRequestLimiter create(Configuration config) {
+        String directory = config.get(CoverityPlugin.COVERITY_LIMITER_DIRECTORY).orElse(StringUtils.EMPTY);
+        if (StringUtils.isBlank(directory)) {
+            return null;
+        }
+
+        File limiterDirectory = new File(directory.trim());
+        if (!limiterDirectory.isDirectory() && !limiterDirectory.mkdirs()) {
+            LOG.warn("[Coverity] Could not create the limiter directory " + limiterDirectory + ", requests are not limited");
+            return null;
+        }
+        return new CimRequestLimiter(limiterDirectory,
+                config.getInt(CoverityPlugin.COVERITY_LIMITER_MAX_CONCURRENT).orElse(4),
+                config.getLong(CoverityPlugin.COVERITY_LIMITER_MIN_INTERVAL).orElse(0L));
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    /**
+     * Waits for a slot and for the minimum interval, then returns the permit of the request, to be closed once the
+     * response is read. The time waited is added to {@link ImportStatistics.Phase#CIM_WAIT} of the statistics.
+     */
+    public Permit acquire(ImportStatistics statistics) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Permit permit = acquireSlot();
+            try {
+                waitForInterval();
+            } catch (IOException | RuntimeException e) {
+                permit.close();
+                throw e;
+            }
+            return permit;
+        } finally {
+            long waited = System.nanoTime() - start;
+            if (statistics != null) {
+                statistics.addTime(ImportStatistics.Phase.CIM_WAIT, waited);
+                if (waited >= TimeUnit.MILLISECONDS.toNanos(MIN_BACKOFF_MILLIS)) {
+                    statistics.increment(ImportStatistics.DELAYED_CIM_CALLS);
+                }
+            }
+        }
+    }
+
+    private Permit acquireSlot() throws IOException {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (true) {
+            for (int i = 0; i < maxConcurrent; i++) {
+                File file = new File(directory, SLOT_FILE_PREFIX + i);
+                Slot slot = SLOTS.computeIfAbsent(file.getAbsolutePath(), path -> new Slot(file));
+                Permit permit = slot.tryAcquire();
+                if (permit != null) {
+                    return permit;
+                }
+            }
+
+            sleep(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private void waitForInterval() throws IOException {
+        if (minIntervalMillis == 0) {
+            return;
+        }
+
+        long delay;
+        File file = new File(directory, INTERVAL_FILE_NAME);
+        synchronized (INTERVAL_LOCKS.computeIfAbsent(file.getAbsolutePath(), path -> new Object())) {
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+                    long nextStart = channel.read(buffer, 0) == Long.BYTES ? ((ByteBuffer) buffer.flip()).getLong() : 0;
+
+                    long now = System.currentTimeMillis();
+                    long start = Math.max(now, nextStart);
+                    delay = start - now;
+
+                    buffer.clear();
+                    buffer.putLong(start + minIntervalMillis).flip();
+                    channel.write(buffer, 0);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+
+        if (delay > 0) {
+            sleep(delay);
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to call Coverity Connect");
+        }
+    }
+
+    /**
+     * A slot file, opened once per process. Its channel is never closed, which would release the lock of another
+     * thread of the process.
+     */
+    private static class Slot {
+        private final File file;
+        private FileChannel channel;
+        private FileLock lock;
+
+        Slot(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Locks the slot file, or returns null when the slot is held by this process or another one
+         */
+        synchronized Permit tryAcquire() throws IOException {
+            if (lock != null) {
+                return null;
+            }
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            lock = channel.tryLock();
+            return lock != null ? new Permit(this) : null;
+        }
+
+        synchronized void release() {
+            try {
+                if (lock != null) {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                LOG.debug("[Coverity] Could not release a request slot: " + e.getMessage());
+            } finally {
+                lock = null;
+            }
+        }
+    }
+
+    /**
+     * A running request. Closing the permit releases its slot.
+     */
+    public static class Permit implements AutoCloseable {
+        private final Slot slot;
+        private boolean closed;
+
+        private Permit(Slot slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                slot.release();
+            }
+        }
+    }
+}
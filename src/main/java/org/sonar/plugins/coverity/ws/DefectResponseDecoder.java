@@ -0,0 +1,456 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v9.*;
+
+import javax.xml.XMLConstants;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    DefectResponseDecoder reads the responses of getMergedDefectsForProjectScope, getMergedDefectsForStreams and
+    getStreamDefects for AsyncSoapTransport, in place of JAXB, which spends most of the CPU time of an import
+    unmarshalling them by reflection. Only the elements the plugin reads are decoded:
+
+        mergedDefectsPageDataObj    mergedDefects, totalNumberOfRecords
+        mergedDefectDataObj         checkerName, cid, defectStateAttributeValues, displayImpact, displayType, domain,
+                                    filePathname, firstDetected, lastDetected, lastDetectedStream, lastFixed,
+                                    lastTriaged, mergeKey
+        streamDefectDataObj         checkerName, cid, defectInstances, domain, streamId
+        defectInstanceDataObj       events, checkerName, domain, impact, longDescription, subcategory
+        eventDataObj                eventDescription, eventTag, fileId, lineNumber, main
+
+    The other elements, e.g. the history of the stream defects or the nested events, are skipped and left null or
+    empty in the objects returned; reading one of them from a decoded object means adding it here first.
+
+    The dates of the merged defects are kept as text and only parsed when they are read. The text repeated across
+    the defects of a response, e.g. the checkers, the attribute values or the file paths of the events, is shared,
+    so a page of defects holds one copy of each.
+ */
+final class DefectResponseDecoder {
+    private static DatatypeFactory datatypeFactory;
+
+    private final XMLStreamReader reader;
+    private final Map<String, String> strings = new HashMap<>();
+
+    private DefectResponseDecoder(XMLStreamReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Whether the responses of the given type are read by the decoder
+     */
+    static boolean isSupported(Class<?> responseType) {
+        return responseType == GetMergedDefectsForProjectScopeResponse.class
+                || responseType == GetMergedDefectsForStreamsResponse.class
+                || responseType == GetStreamDefectsResponse.class;
+    }
+
+    /**
+     * Reads the response element the reader is positioned on, until its end element.
+     */
+    static <T> T read(XMLStreamReader reader, Class<T> responseType) throws XMLStreamException {
+        DefectResponseDecoder decoder = new DefectResponseDecoder(reader);
+        if (responseType == GetMergedDefectsForProjectScopeResponse.class) {
+            GetMergedDefectsForProjectScopeResponse response = new GetMergedDefectsForProjectScopeResponse();
+            response.setReturn(decoder.readPageResponse());
+            return responseType.cast(response);
+        } else if (responseType == GetMergedDefectsForStreamsResponse.class) {
+            GetMergedDefectsForStreamsResponse response = new GetMergedDefectsForStreamsResponse();
+            response.setReturn(decoder.readPageResponse());
+            return responseType.cast(response);
+        } else if (responseType == GetStreamDefectsResponse.class) {
+            GetStreamDefectsResponse response = new GetStreamDefectsResponse();
+            while (decoder.nextChild()) {
+                if ("return".equals(reader.getLocalName())) {
+                    response.getReturn().add(decoder.readStreamDefect());
+                } else {
+                    decoder.skip();
+                }
+            }
+            return responseType.cast(response);
+        }
+        throw new IllegalArgumentException("Unsupported response type: " + responseType.getName());
+    }
+
+    private MergedDefectsPageDataObj readPageResponse() throws XMLStreamException {
+        MergedDefectsPageDataObj page = null;
+        while (nextChild()) {
+            if ("return".equals(reader.getLocalName())) {
+                page = readPage();
+            } else {
+                skip();
+            }
+        }
+        return page;
+    }
+
+    private MergedDefectsPageDataObj readPage() throws XMLStreamException {
+        MergedDefectsPageDataObj page = new MergedDefectsPageDataObj();
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "mergedDefects":
+                    page.getMergedDefects().add(readMergedDefect());
+                    break;
+                case "totalNumberOfRecords":
+                    String total = readText();
+                    page.setTotalNumberOfRecords(total != null ? Integer.valueOf(total.trim()) : null);
+                    break;
+                default:
+                    skip();
+            }
+        }
+        return page;
+    }
+
+    private MergedDefectDataObj readMergedDefect() throws XMLStreamException {
+        DecodedMergedDefect defect = new DecodedMergedDefect();
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "checkerName":
+                    defect.setCheckerName(readSharedText());
+                    break;
+                case "cid":
+                    defect.setCid(readLong());
+                    break;
+                case "defectStateAttributeValues":
+                    defect.getDefectStateAttributeValues().add(readAttributeValue());
+                    break;
+                case "displayImpact":
+                    defect.setDisplayImpact(readSharedText());
+                    break;
+                case "displayType":
+                    defect.setDisplayType(readSharedText());
+                    break;
+                case "domain":
+                    defect.setDomain(readSharedText());
+                    break;
+                case "filePathname":
+                    defect.setFilePathname(readSharedText());
+                    break;
+                case "firstDetected":
+                    defect.firstDetectedText = readText();
+                    break;
+                case "lastDetected":
+                    defect.lastDetectedText = readText();
+                    break;
+                case "lastDetectedStream":
+                    defect.setLastDetectedStream(readSharedText());
+                    break;
+                case "lastFixed":
+                    defect.lastFixedText = readText();
+                    break;
+                case "lastTriaged":
+                    defect.lastTriagedText = readText();
+                    break;
+                case "mergeKey":
+                    defect.setMergeKey(readText());
+                    break;
+                default:
+                    skip();
+            }
+        }
+        return defect;
+    }
+
+    private DefectStateAttributeValueDataObj readAttributeValue() throws XMLStreamException {
+        DefectStateAttributeValueDataObj attributeValue = new DefectStateAttributeValueDataObj();
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "attributeDefinitionId":
+                    AttributeDefinitionIdDataObj definitionId = new AttributeDefinitionIdDataObj();
+                    definitionId.setName(readSharedName());
+                    attributeValue.setAttributeDefinitionId(definitionId);
+                    break;
+                case "attributeValueId":
+                    AttributeValueIdDataObj valueId = new AttributeValueIdDataObj();
+                    valueId.setName(readSharedName());
+                    attributeValue.setAttributeValueId(valueId);
+                    break;
+                default:
+                    skip();
+            }
+        }
+        return attributeValue;
+    }
+
+    private StreamDefectDataObj readStreamDefect() throws XMLStreamException {
+        StreamDefectDataObj defect = new StreamDefectDataObj();
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "checkerName":
+                    defect.setCheckerName(readSharedText());
+                    break;
+                case "cid":
+                    defect.setCid(readLong());
+                    break;
+                case "defectInstances":
+                    defect.getDefectInstances().add(readDefectInstance());
+                    break;
+                case "domain":
+                    defect.setDomain(readSharedText());
+                    break;
+                case "streamId":
+                    StreamIdDataObj streamId = new StreamIdDataObj();
+                    streamId.setName(readSharedName());
+                    defect.setStreamId(streamId);
+                    break;
+                default:
+                    skip();
+            }
+        }
+        return defect;
+    }
+
+    private DefectInstanceDataObj readDefectInstance() throws XMLStreamException {
+        DefectInstanceDataObj defectInstance = new DefectInstanceDataObj();
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "events":
+                    defectInstance.getEvents().add(readEvent());
+                    break;
+                case "checkerName":
+                    defectInstance.setCheckerName(readSharedText());
+                    break;
+                case "domain":
+                    defectInstance.setDomain(readSharedText());
+                    break;
+                case "impact":
+                    defectInstance.setImpact(readLocalizedValue());
+                    break;
+                case "longDescription":
+                    defectInstance.setLongDescription(readSharedText());
+                    break;
+                case "subcategory":
+                    defectInstance.setSubcategory(readSharedText());
+                    break;
+                default:
+                    skip();
+            }
+        }
+        return defectInstance;
+    }
+
+    private LocalizedValueDataObj readLocalizedValue() throws XMLStreamException {
+        LocalizedValueDataObj localizedValue = new LocalizedValueDataObj();
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "displayName":
+                    localizedValue.setDisplayName(readSharedText());
+                    break;
+                case "name":
+                    localizedValue.setName(readSharedText());
+                    break;
+                default:
+                    skip();
+            }
+        }
+        return localizedValue;
+    }
+
+    private EventDataObj readEvent() throws XMLStreamException {
+        EventDataObj event = new EventDataObj();
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "eventDescription":
+                    event.setEventDescription(readText());
+                    break;
+                case "eventTag":
+                    event.setEventTag(readSharedText());
+                    break;
+                case "fileId":
+                    event.setFileId(readFileId());
+                    break;
+                case "lineNumber":
+                    event.setLineNumber(Integer.parseInt(reader.getElementText().trim()));
+                    break;
+                case "main":
+                    String main = reader.getElementText().trim();
+                    event.setMain("true".equals(main) || "1".equals(main));
+                    break;
+                default:
+                    skip();
+            }
+        }
+        return event;
+    }
+
+    private FileIdDataObj readFileId() throws XMLStreamException {
+        FileIdDataObj fileId = new FileIdDataObj();
+        while (nextChild()) {
+            if ("filePathname".equals(reader.getLocalName())) {
+                fileId.setFilePathname(readSharedText());
+            } else {
+                skip();
+            }
+        }
+        return fileId;
+    }
+
+    /**
+     * Reads the name element of an id, e.g. a streamIdDataObj
+     */
+    private String readSharedName() throws XMLStreamException {
+        String name = null;
+        while (nextChild()) {
+            if ("name".equals(reader.getLocalName())) {
+                name = readSharedText();
+            } else {
+                skip();
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Moves to the next child element of the current element and returns true, or to the end of the current
+     * element and returns false.
+     */
+    private boolean nextChild() throws XMLStreamException {
+        return reader.nextTag() == XMLStreamConstants.START_ELEMENT;
+    }
+
+    /**
+     * Moves to the end of the current element, without decoding its content
+     */
+    private void skip() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Reads the text of the current element, or null when it is nil like JAXB
+     */
+    private String readText() throws XMLStreamException {
+        if ("true".equals(reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "nil"))) {
+            skip();
+            return null;
+        }
+        return reader.getElementText();
+    }
+
+    /**
+     * Reads the text of the current element, returning the same instance for the same text within the response
+     */
+    private String readSharedText() throws XMLStreamException {
+        String text = readText();
+        if (text == null) {
+            return null;
+        }
+        String shared = strings.putIfAbsent(text, text);
+        return shared != null ? shared : text;
+    }
+
+    private Long readLong() throws XMLStreamException {
+        String text = readText();
+        return text != null ? Long.valueOf(text.trim()) : null;
+    }
+
+    private static synchronized DatatypeFactory getDatatypeFactory() {
+        if (datatypeFactory == null) {
+            try {
+                datatypeFactory = DatatypeFactory.newInstance();
+            } catch (DatatypeConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return datatypeFactory;
+    }
+
+    private static XMLGregorianCalendar parseDate(String text) {
+        return text != null ? getDatatypeFactory().newXMLGregorianCalendar(text.trim()) : null;
+    }
+
+    /**
+     * A merged defect parsing its dates the first time they are read
+     */
+    private static class DecodedMergedDefect extends MergedDefectDataObj {
+        private String firstDetectedText;
+        private String lastDetectedText;
+        private String lastFixedText;
+        private String lastTriagedText;
+
+        @Override
+        public XMLGregorianCalendar getFirstDetected() {
+            if (firstDetectedText != null) {
+                firstDetected = parseDate(firstDetectedText);
+                firstDetectedText = null;
+            }
+            return firstDetected;
+        }
+
+        @Override
+        public void setFirstDetected(XMLGregorianCalendar value) {
+            firstDetectedText = null;
+            firstDetected = value;
+        }
+
+        @Override
+        public XMLGregorianCalendar getLastDetected() {
+            if (lastDetectedText != null) {
+                lastDetected = parseDate(lastDetectedText);
+                lastDetectedText = null;
+            }
+            return lastDetected;
+        }
+
+        @Override
+        public void setLastDetected(XMLGregorianCalendar value) {
+            lastDetectedText = null;
+            lastDetected = value;
+        }
+
+        @Override
+        public XMLGregorianCalendar getLastFixed() {
+            if (lastFixedText != null) {
+                lastFixed = parseDate(lastFixedText);
+                lastFixedText = null;
+            }
+            return lastFixed;
+        }
+
+        @Override
+        public void setLastFixed(XMLGregorianCalendar value) {
+            lastFixedText = null;
+            lastFixed = value;
+        }
+
+        @Override
+        public XMLGregorianCalendar getLastTriaged() {
+            if (lastTriagedText != null) {
+                lastTriaged = parseDate(lastTriagedText);
+                lastTriagedText = null;
+            }
+            return lastTriaged;
+        }
+
+        @Override
+        public void setLastTriaged(XMLGregorianCalendar value) {
+            lastTriagedText = null;
+            lastTriaged = value;
+        }
+    }
+}
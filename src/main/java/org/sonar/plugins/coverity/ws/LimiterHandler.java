@@ -0,0 +1,66 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+
+import javax.xml.namespace.QName;
+import javax.xml.ws.WebServiceException;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.handler.soap.SOAPHandler;
+import javax.xml.ws.handler.soap.SOAPMessageContext;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * SOAP handler waiting for the {@link CimRequestLimiter} before each CIM web service call. The permit is released
+ * when the exchange is closed, whether the call succeeded or not.
+ */
+public class LimiterHandler implements SOAPHandler<SOAPMessageContext> {
+    private static final String PERMIT_PROPERTY = LimiterHandler.class.getName() + ".permit";
+
+    private final CimRequestLimiter limiter;
+    private final ImportStatistics statistics;
+
+    public LimiterHandler(CimRequestLimiter limiter, ImportStatistics statistics) {
+        this.limiter = limiter;
+        this.statistics = statistics;
+    }
+
+    public Set<QName> getHeaders() {
+        return Collections.emptySet();
+    }
+
+    public boolean handleMessage(SOAPMessageContext smc) {
+        boolean outbound = ((Boolean) smc.get(MessageContext.MESSAGE_OUTBOUND_PROPERTY)).booleanValue();
+        if (outbound) {
+            try {
+                smc.put(PERMIT_PROPERTY, limiter.acquire(statistics));
+            } catch (IOException e) {
+                throw new WebServiceException("Could not call Coverity Connect: " + e.getMessage(), e);
+            }
+        }
+        return true;
+    }
+
+    public boolean handleFault(SOAPMessageContext smc) {
+        return true;
+    }
+
+    public void close(MessageContext mc) {
+        Object permit = mc.remove(PERMIT_PROPERTY);
+        if (permit instanceof CimRequestLimiter.Permit) {
+            ((CimRequestLimiter.Permit) permit).close();
+        }
+    }
+}
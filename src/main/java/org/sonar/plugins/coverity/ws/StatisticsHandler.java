@@ -0,0 +1,112 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+
+import javax.xml.namespace.QName;
+import javax.xml.soap.SOAPException;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.handler.soap.SOAPHandler;
+import javax.xml.ws.handler.soap.SOAPMessageContext;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SOAP handler recording the time and response size of every CIM web service call. The size is taken from the
+ * Content-Length response header; chunked responses have none, so their message is written to a counting stream
+ * instead to record the bytes of the received envelope.
+ */
+public class StatisticsHandler implements SOAPHandler<SOAPMessageContext> {
+    private static final String START_TIME_PROPERTY = StatisticsHandler.class.getName() + ".start";
+
+    private final ImportStatistics statistics;
+
+    public StatisticsHandler(ImportStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    public Set<QName> getHeaders() {
+        return Collections.emptySet();
+    }
+
+    public boolean handleMessage(SOAPMessageContext smc) {
+        boolean outbound = ((Boolean) smc.get(MessageContext.MESSAGE_OUTBOUND_PROPERTY)).booleanValue();
+        if (outbound) {
+            smc.put(START_TIME_PROPERTY, System.nanoTime());
+        } else {
+            record(smc);
+        }
+        return true;
+    }
+
+    public boolean handleFault(SOAPMessageContext smc) {
+        record(smc);
+        return true;
+    }
+
+    public void close(MessageContext mc) {
+    }
+
+    private void record(SOAPMessageContext smc) {
+        Object start = smc.get(START_TIME_PROPERTY);
+        long nanos = start instanceof Long ? System.nanoTime() - (Long) start : 0;
+
+        QName operation = (QName) smc.get(MessageContext.WSDL_OPERATION);
+        String operationName = operation != null ? operation.getLocalPart() : "unknown";
+
+        long bytes = getContentLength(smc);
+        if (bytes < 0) {
+            bytes = getMessageLength(smc);
+        }
+        statistics.addCimCall(operationName, nanos, bytes);
+    }
+
+    private long getMessageLength(SOAPMessageContext smc) {
+        if (smc.getMessage() == null) {
+            return -1;
+        }
+
+        CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+        try {
+            smc.getMessage().writeTo(out);
+        } catch (SOAPException | IOException e) {
+            return -1;
+        }
+        return out.getCount();
+    }
+
+    @SuppressWarnings("unchecked")
+    private long getContentLength(SOAPMessageContext smc) {
+        Map<String, List<String>> headers = (Map<String, List<String>>) smc.get(MessageContext.HTTP_RESPONSE_HEADERS);
+        if (headers == null) {
+            return -1;
+        }
+
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if ("Content-Length".equalsIgnoreCase(header.getKey())
+                    && header.getValue() != null && !header.getValue().isEmpty()) {
+                try {
+                    return Long.parseLong(header.getValue().get(0).trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+}
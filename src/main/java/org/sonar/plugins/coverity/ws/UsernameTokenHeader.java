@@ -0,0 +1,70 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.sun.xml.ws.api.message.Header;
+import com.sun.xml.ws.api.message.Headers;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * WS-Security header with the user's user name and password, the same one ClientAuthenticationHandlerWSS adds
+ * to each message. The token has neither nonce nor digest, so the header is built once and the JAX-WS runtime
+ * writes it with every request while streaming the message: the SOAP body is never read into a DOM to be secured.
+ */
+public class UsernameTokenHeader {
+    public static final String SOAP_ENVELOPE_URI = "http://schemas.xmlsoap.org/soap/envelope/";
+    public static final String WSS_UTILITY_URI = "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd";
+    public static final String PASSWORD_TEXT_TYPE = "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-username-token-profile-1.0#PasswordText";
+
+    private UsernameTokenHeader() {
+    }
+
+    /**
+     * Creates the header, to be set on a port with WSBindingProvider.setOutboundHeaders
+     */
+    public static Header create(String userName, String password) {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+
+        String wsse = ClientAuthenticationHandlerWSS.WSS_AUTH_PREFIX + ":";
+        String wssUri = ClientAuthenticationHandlerWSS.WSS_AUTH_URI;
+
+        Element security = document.createElementNS(wssUri, wsse + ClientAuthenticationHandlerWSS.WSS_AUTH_LNAME);
+        security.setAttributeNS(SOAP_ENVELOPE_URI, "S:mustUnderstand", "1");
+
+        Element usernameToken = document.createElementNS(wssUri, wsse + "UsernameToken");
+        usernameToken.setAttributeNS(WSS_UTILITY_URI, "wsu:Id", "UsernameToken-1");
+        security.appendChild(usernameToken);
+
+        Element username = document.createElementNS(wssUri, wsse + "Username");
+        username.setTextContent(userName);
+        usernameToken.appendChild(username);
+
+        Element passwordElement = document.createElementNS(wssUri, wsse + "Password");
+        passwordElement.setAttribute("Type", PASSWORD_TEXT_TYPE);
+        passwordElement.setTextContent(password);
+        usernameToken.appendChild(passwordElement);
+
+        document.appendChild(security);
+        return Headers.create(security);
+    }
+}
@@ -13,10 +13,13 @@ package org.sonar.plugins.coverity.batch;
 
 import com.coverity.ws.v9.*;
 import org.apache.commons.lang.StringUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.internal.DefaultIndexedFile;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.batch.fs.internal.Metadata;
@@ -30,17 +33,25 @@ import org.sonar.api.batch.sensor.measure.Measure;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.rule.RuleKey;
 import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.defect.CoverityDefect;
+import org.sonar.plugins.coverity.defect.SharedDefectIndex;
 import org.sonar.plugins.coverity.metrics.CoverityPluginMetrics;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
 import org.sonar.plugins.coverity.server.CppLanguage;
 import org.sonar.plugins.coverity.ws.CIMClientFactory;
 import org.sonar.plugins.coverity.ws.TestCIMClient;
 
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -134,6 +145,550 @@ public class CoveritySensorTest {
         assertEquals(expectedIssueMessage, issue.primaryLocation().message());
     }
 
+    @Test
+    public void testExecute_writesImportStatistics() throws Exception {
+        final SensorContextTester sensorContextTester = SensorContextTester.create(new File("src"));
+        final File workDir = temp.newFolder();
+        sensorContextTester.fileSystem().setWorkDir(workDir.toPath());
+        final String filePath = "src/Foo.java";
+        String content = "public class Foo {\n}";
+
+        final Metadata metadata = new Metadata(1, 1, "", new int[1], 0);
+        final DefaultIndexedFile indexedFile = new DefaultIndexedFile(
+                StringUtils.EMPTY,
+                sensorContextTester.fileSystem().baseDirPath(),
+                filePath,
+                "java");
+        DefaultInputFile inputFile = new DefaultInputFile(indexedFile, f -> f.setMetadata(metadata), content);
+
+        sensorContextTester
+                .fileSystem()
+                .add(inputFile);
+        final HashMap<String, String> properties = new HashMap<>();
+
+        final String projectName = "my-cov-project";
+        final String streamName = "my-cov-stream";
+        testCimClient.setupProject(projectName);
+
+        properties.put(CoverityPlugin.COVERITY_PROJECT, projectName);
+        properties.put(CoverityPlugin.COVERITY_ENABLE, "true");
+        properties.put("sonar.sources", "src");
+        sensorContextTester
+                .settings()
+                .addProperties(properties);
+
+        final String checkerName = "TEST_CHECKER";
+        final String domain = "STATIC_JAVA";
+        final String subcategory = "none";
+
+        final ActiveRulesBuilder rulesBuilder = new ActiveRulesBuilder();
+        final RuleKey ruleKey = RuleKey.of("coverity-java", domain + "_" + checkerName + "_" + subcategory);
+        final NewActiveRule javaTestChecker = rulesBuilder.create(ruleKey);
+        sensorContextTester
+                .setActiveRules(new DefaultActiveRules(Arrays.asList(javaTestChecker)));
+
+        testCimClient.setupDefect(domain, checkerName, streamName, Arrays.asList(filePath, "src/Missing.java"));
+
+        sensor.execute(sensorContextTester);
+
+        final File statisticsFile = new File(workDir, ImportStatistics.JSON_FILE_NAME);
+        assertTrue(statisticsFile.exists());
+
+        final JSONObject json = (JSONObject) new JSONParser().parse(new FileReader(statisticsFile));
+        final JSONObject counters = (JSONObject) json.get("counters");
+        assertEquals(1L, counters.get(ImportStatistics.MERGED_DEFECTS));
+        assertEquals(2L, counters.get(ImportStatistics.IMPORTED_DEFECTS));
+        assertEquals(1L, counters.get(ImportStatistics.SAVED_ISSUES));
+        assertEquals(1L, counters.get(ImportStatistics.UNRESOLVED_PATHS));
+        assertNotNull(((JSONObject) json.get("phasesMs")).get("merged_defects"));
+
+        Measure<Integer> unresolvedPaths = sensorContextTester.measure("projectKey", CoverityPluginMetrics.COVERITY_IMPORT_UNRESOLVED_PATHS);
+        assertEquals(Integer.valueOf(1), unresolvedPaths.value());
+        Measure<Integer> unresolvedRules = sensorContextTester.measure("projectKey", CoverityPluginMetrics.COVERITY_IMPORT_UNRESOLVED_RULES);
+        assertEquals(Integer.valueOf(0), unresolvedRules.value());
+        assertNotNull(sensorContextTester.measure("projectKey", CoverityPluginMetrics.COVERITY_IMPORT_FETCH_TIME));
+        assertNotNull(sensorContextTester.measure("projectKey", CoverityPluginMetrics.COVERITY_IMPORT_CIM_CALLS));
+    }
+
+    @Test
+    public void testExecute_savesIssue_FromJsonReport() throws Exception {
+        final SensorContextTester sensorContextTester = SensorContextTester.create(new File("src"));
+        final File workDir = temp.newFolder();
+        sensorContextTester.fileSystem().setWorkDir(workDir.toPath());
+        final String filePath = "src/Foo.java";
+        String content = "public class Foo {\n}";
+
+        final Metadata metadata = new Metadata(1, 1, "", new int[1], 0);
+        final DefaultIndexedFile indexedFile = new DefaultIndexedFile(
+                StringUtils.EMPTY,
+                sensorContextTester.fileSystem().baseDirPath(),
+                filePath,
+                "java");
+        DefaultInputFile inputFile = new DefaultInputFile(indexedFile, f -> f.setMetadata(metadata), content);
+
+        sensorContextTester
+                .fileSystem()
+                .add(inputFile);
+        final HashMap<String, String> properties = new HashMap<>();
+
+        final File report = new File("src/test/java/org/sonar/plugins/coverity/batch/cov-format-errors-v7.json");
+        properties.put(CoverityPlugin.COVERITY_REPORT_PATH, report.getAbsolutePath());
+        properties.put(CoverityPlugin.COVERITY_ENABLE, "true");
+        properties.put("sonar.sources", "src");
+        sensorContextTester
+                .settings()
+                .addProperties(properties);
+
+        final ActiveRulesBuilder rulesBuilder = new ActiveRulesBuilder();
+        final RuleKey ruleKey = RuleKey.of("coverity-java", "STATIC_JAVA_TEST_CHECKER_none");
+        final NewActiveRule javaTestChecker = rulesBuilder.create(ruleKey);
+        sensorContextTester
+                .setActiveRules(new DefaultActiveRules(Arrays.asList(javaTestChecker)));
+
+        sensor.execute(sensorContextTester);
+
+        final List<String> messages = new ArrayList<>();
+        for (Issue issue : sensorContextTester.allIssues()) {
+            assertEquals(ruleKey, issue.ruleKey());
+            assertEquals(inputFile, issue.primaryLocation().inputComponent());
+            messages.add(issue.primaryLocation().message());
+        }
+        Collections.sort(messages);
+        assertEquals(Arrays.asList(
+                "[TEST_CHECKER(type)] new_defect: New defect. ( mergeKey MK_3 )",
+                "[TEST_CHECKER(type)] var_deref_op: Dereferencing null. ( CID 1 )"), messages);
+
+        Measure<Integer> highImpact = sensorContextTester.measure("projectKey", CoverityPluginMetrics.COVERITY_HIGH_IMPACT);
+        assertEquals(Integer.valueOf(1), highImpact.value());
+        Measure<Integer> outstanding = sensorContextTester.measure("projectKey", CoverityPluginMetrics.COVERITY_OUTSTANDING_ISSUES);
+        assertEquals(Integer.valueOf(2), outstanding.value());
+        Measure<Integer> cimCalls = sensorContextTester.measure("projectKey", CoverityPluginMetrics.COVERITY_IMPORT_CIM_CALLS);
+        assertEquals(Integer.valueOf(0), cimCalls.value());
+    }
+
+    @Test
+    public void testExecute_savesIssue_FromLastGoodResult_WhenProjectNotAvailable() throws Exception {
+        final File cacheDir = temp.newFolder();
+        final String filePath = "src/Foo.java";
+        final String projectName = "my-cov-project";
+        final HashMap<String, String> properties = new HashMap<>();
+        properties.put(CoverityPlugin.COVERITY_PROJECT, projectName);
+        properties.put(CoverityPlugin.COVERITY_ENABLE, "true");
+        properties.put(CoverityPlugin.COVERITY_SOURCE_LAYERS, "fallback,cache");
+        properties.put(CoverityPlugin.COVERITY_CACHE_DIRECTORY, cacheDir.getAbsolutePath());
+        properties.put(CoverityPlugin.COVERITY_CACHE_TTL, "0");
+        properties.put("sonar.sources", "src");
+
+        final RuleKey ruleKey = RuleKey.of("coverity-java", "STATIC_JAVA_TEST_CHECKER_none");
+        final String expectedIssueMessage =
+                "[TEST_CHECKER(type)] Event Tag: Event Description ( CID 1 : https://test-host:8443/query/defects.htm?projectId=0&mergeKey=MK_1 )";
+
+        testCimClient.setupProject(projectName);
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList(filePath));
+
+        SensorContextTester sensorContextTester = createContext(filePath, properties, ruleKey);
+        sensor.execute(sensorContextTester);
+        assertEquals(1, sensorContextTester.allIssues().size());
+
+        // The project no longer exists on the second analysis, so the defects of the first one are used
+        CIMClientFactory unavailableClientFactory = mock(CIMClientFactory.class);
+        when(unavailableClientFactory.create(any())).thenReturn(new TestCIMClient());
+        sensorContextTester = createContext(filePath, properties, ruleKey);
+        new CoveritySensor(unavailableClientFactory).execute(sensorContextTester);
+
+        final Collection<Issue> issues = sensorContextTester.allIssues();
+        assertEquals(1, issues.size());
+        final Issue issue = issues.iterator().next();
+        assertEquals(ruleKey, issue.ruleKey());
+        assertEquals(expectedIssueMessage, issue.primaryLocation().message());
+    }
+
+    private SensorContextTester createContext(String filePath, Map<String, String> properties, RuleKey ruleKey) {
+        return createContext(filePath, 1, properties, ruleKey);
+    }
+
+    private SensorContextTester createContext(String filePath, int lines, Map<String, String> properties, RuleKey ruleKey) {
+        final SensorContextTester sensorContextTester = SensorContextTester.create(new File("src"));
+        sensorContextTester.fileSystem().setWorkDir(temp.getRoot().toPath());
+        String content = "public class Foo {\n}";
+
+        final Metadata metadata = new Metadata(lines, lines, "", new int[lines], 0);
+        final DefaultIndexedFile indexedFile = new DefaultIndexedFile(
+                StringUtils.EMPTY,
+                sensorContextTester.fileSystem().baseDirPath(),
+                filePath,
+                "java");
+        sensorContextTester
+                .fileSystem()
+                .add(new DefaultInputFile(indexedFile, f -> f.setMetadata(metadata), content));
+        sensorContextTester
+                .settings()
+                .addProperties(properties);
+        sensorContextTester
+                .setActiveRules(new DefaultActiveRules(Arrays.asList(new ActiveRulesBuilder().create(ruleKey))));
+        return sensorContextTester;
+    }
+
+    @Test
+    public void testExecute_savesOnlyNewIssues_WithBaselineSnapshot() {
+        final String filePath = "src/Foo.java";
+        final RuleKey ruleKey = RuleKey.of("coverity-java", "STATIC_JAVA_TEST_CHECKER_none");
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(CoverityPlugin.COVERITY_PROJECT, "my-cov-project");
+        properties.put(CoverityPlugin.COVERITY_ENABLE, "true");
+        properties.put(CoverityPlugin.COVERITY_SNAPSHOT_COMPARE, "10010");
+        properties.put("sonar.sources", "src");
+        final SensorContextTester sensorContextTester = createContext(filePath, properties, ruleKey);
+
+        testCimClient.setupProject("my-cov-project");
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList(filePath));
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList(filePath));
+        testCimClient.getTestDefectService().addBaselineCid(1);
+
+        sensor.execute(sensorContextTester);
+
+        final Collection<Issue> issues = sensorContextTester.allIssues();
+        assertEquals(1, issues.size());
+        assertTrue(issues.iterator().next().primaryLocation().message().contains("( CID 2 :"));
+        final SnapshotScopeSpecDataObj snapshotScope = testCimClient.getTestDefectService().getSnapshotScopes().get(0);
+        assertEquals("last()", snapshotScope.getShowSelector());
+        assertEquals("10010", snapshotScope.getCompareSelector());
+    }
+
+    @Test
+    public void testExecute_savesOnlyNewIssuesOfChangedFiles_WithBaselineSnapshot() {
+        final SensorContextTester sensorContextTester = SensorContextTester.create(new File("src"));
+        final Metadata metadata = new Metadata(1, 1, "", new int[1], 0);
+        for (String filePath : Arrays.asList("src/Foo.java", "src/Bar.java")) {
+            final InputFile.Status status = filePath.equals("src/Foo.java") ? InputFile.Status.CHANGED : InputFile.Status.SAME;
+            final DefaultIndexedFile indexedFile = new DefaultIndexedFile(
+                    StringUtils.EMPTY,
+                    sensorContextTester.fileSystem().baseDirPath(),
+                    filePath,
+                    "java");
+            sensorContextTester
+                    .fileSystem()
+                    .add(new DefaultInputFile(indexedFile, f -> f.setMetadata(metadata).setStatus(status), "public class Foo {\n}"));
+        }
+
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(CoverityPlugin.COVERITY_PROJECT, "my-cov-project");
+        properties.put(CoverityPlugin.COVERITY_ENABLE, "true");
+        properties.put(CoverityPlugin.COVERITY_SNAPSHOT_COMPARE, "10010");
+        properties.put(CoverityPlugin.COVERITY_CHANGED_FILES_ONLY, "true");
+        properties.put("sonar.sources", "src");
+        sensorContextTester.settings().addProperties(properties);
+        final RuleKey ruleKey = RuleKey.of("coverity-java", "STATIC_JAVA_TEST_CHECKER_none");
+        sensorContextTester.setActiveRules(new DefaultActiveRules(Arrays.asList(new ActiveRulesBuilder().create(ruleKey))));
+
+        testCimClient.setupProject("my-cov-project");
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList("src/Foo.java"));
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList("src/Foo.java"));
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList("src/Bar.java"));
+        testCimClient.getTestDefectService().addBaselineCid(1);
+
+        sensor.execute(sensorContextTester);
+
+        final Collection<Issue> issues = sensorContextTester.allIssues();
+        assertEquals(1, issues.size());
+        assertTrue(issues.iterator().next().primaryLocation().message().contains("( CID 2 :"));
+    }
+
+    @Test
+    public void testExecute_savesIssue_FromChangedFilesOnly() {
+        final SensorContextTester sensorContextTester = SensorContextTester.create(new File("src"));
+        final Metadata metadata = new Metadata(1, 1, "", new int[1], 0);
+        for (String filePath : Arrays.asList("src/Foo.java", "src/Bar.java")) {
+            final InputFile.Status status = filePath.equals("src/Foo.java") ? InputFile.Status.CHANGED : InputFile.Status.SAME;
+            final DefaultIndexedFile indexedFile = new DefaultIndexedFile(
+                    StringUtils.EMPTY,
+                    sensorContextTester.fileSystem().baseDirPath(),
+                    filePath,
+                    "java");
+            sensorContextTester
+                    .fileSystem()
+                    .add(new DefaultInputFile(indexedFile, f -> f.setMetadata(metadata).setStatus(status), "public class Foo {\n}"));
+        }
+
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(CoverityPlugin.COVERITY_PROJECT, "my-cov-project");
+        properties.put(CoverityPlugin.COVERITY_ENABLE, "true");
+        properties.put(CoverityPlugin.COVERITY_CHANGED_FILES_ONLY, "true");
+        properties.put("sonar.sources", "src");
+        sensorContextTester.settings().addProperties(properties);
+        final RuleKey ruleKey = RuleKey.of("coverity-java", "STATIC_JAVA_TEST_CHECKER_none");
+        sensorContextTester.setActiveRules(new DefaultActiveRules(Arrays.asList(new ActiveRulesBuilder().create(ruleKey))));
+
+        testCimClient.setupProject("my-cov-project");
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList("src/Foo.java"));
+
+        sensor.execute(sensorContextTester);
+
+        assertEquals(1, sensorContextTester.allIssues().size());
+        final List<MergedDefectFilterSpecDataObj> queries = testCimClient.getTestDefectService().getStreamQueries();
+        assertEquals(1, queries.size());
+        assertEquals(Arrays.asList("*src/Foo.java"), queries.get(0).getFilenamePatternList());
+    }
+
+    @Test
+    public void testExecute_fetchesDefectsOfModuleComponents() {
+        final String filePath = "src/Foo.java";
+        final RuleKey ruleKey = RuleKey.of("coverity-java", "STATIC_JAVA_TEST_CHECKER_none");
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(CoverityPlugin.COVERITY_PROJECT, "my-cov-project");
+        properties.put(CoverityPlugin.COVERITY_ENABLE, "true");
+        properties.put(CoverityPlugin.COVERITY_COMPONENTS_AUTO, "true");
+        properties.put("sonar.sources", "src");
+        final SensorContextTester sensorContextTester = createContext(filePath, properties, ruleKey);
+
+        testCimClient.setupProject("my-cov-project");
+        final Map<String, String> pathRules = new LinkedHashMap<>();
+        pathRules.put(".*/lib/.*", "MyMap.Lib");
+        pathRules.put(".*/src/Foo\\.java", "MyMap.Foo");
+        pathRules.put(".*\\.java", "MyMap.Java");
+        testCimClient.setupComponentMap("MyMap", pathRules);
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList(filePath));
+
+        sensor.execute(sensorContextTester);
+
+        assertEquals(1, sensorContextTester.allIssues().size());
+        final ProjectScopeDefectFilterSpecDataObj filterSpec = testCimClient.getTestDefectService().getProjectQueries().get(0);
+        assertEquals(1, filterSpec.getComponentIdList().size());
+        assertEquals("MyMap.Foo", filterSpec.getComponentIdList().get(0).getName());
+    }
+
+    @Test
+    public void testScanFiles_savesDuplicateInstancesOnce() {
+        final String filePath = "src/Foo.java";
+        final RuleKey ruleKey = RuleKey.of("coverity-java", "STATIC_JAVA_TEST_CHECKER_none");
+        final SensorContextTester sensorContextTester = createContext(filePath, new HashMap<>(), ruleKey);
+
+        // the same header included by two translation units, and another defect on the same line
+        final List<CoverityDefect> defects = Arrays.asList(
+                new CoverityDefect(1L, "STATIC_JAVA", filePath, null, "TEST_CHECKER", "MK_1", null, "first", null, "tag", "type", "Low", 1),
+                new CoverityDefect(1L, "STATIC_JAVA", filePath, null, "TEST_CHECKER", "MK_1", null, "second", null, "tag", "type", "Low", 1),
+                new CoverityDefect(2L, "STATIC_JAVA", filePath, null, "TEST_CHECKER", "MK_2", null, "other", null, "tag", "type", "Low", 1));
+        final ImportStatistics statistics = new ImportStatistics();
+
+        new CoverityScanner(sensorContextTester, defects, statistics).scanFiles();
+
+        assertEquals(2, sensorContextTester.allIssues().size());
+        assertEquals(2, statistics.getCount(ImportStatistics.SAVED_ISSUES));
+        assertEquals(1, statistics.getCount(ImportStatistics.DUPLICATE_ISSUES));
+    }
+
+    @Test
+    public void testScanFiles_reusesResolvedPaths_InTheNextAnalysis() throws IOException {
+        final RuleKey ruleKey = RuleKey.of("coverity-java", "STATIC_JAVA_TEST_CHECKER_none");
+        final File baseDir = temp.newFolder("module");
+        final File sourceFile = new File(baseDir, "src/Foo.java");
+        assertTrue(sourceFile.getParentFile().mkdirs());
+        Files.write(sourceFile.toPath(), "public class Foo {\n}".getBytes(StandardCharsets.UTF_8));
+
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(CoverityPlugin.COVERITY_CACHE_DIRECTORY, temp.newFolder("cache").getAbsolutePath());
+        properties.put("sonar.projectKey", "projectKey");
+        properties.put("sonar.sources", sourceFile.getParentFile().getAbsolutePath());
+
+        // the path is not indexed, so the first analysis finds the file by searching the local files
+        final ImportStatistics firstStatistics = new ImportStatistics();
+        final SensorContextTester firstAnalysis = createModuleContext(baseDir, properties, ruleKey);
+        new CoverityScanner(firstAnalysis, Collections.singletonList(newDefect("/src/Foo.java")), firstStatistics).scanFiles();
+        assertEquals(1, firstAnalysis.allIssues().size());
+
+        // the next analysis starts with an empty work directory and finds no local file, so it reads the cache
+        properties.put("sonar.sources", temp.newFolder("empty").getAbsolutePath());
+        final ImportStatistics secondStatistics = new ImportStatistics();
+        final SensorContextTester secondAnalysis = createModuleContext(baseDir, properties, ruleKey);
+        new CoverityScanner(secondAnalysis, Collections.singletonList(newDefect("/src/Foo.java")), secondStatistics).scanFiles();
+        assertEquals(1, secondAnalysis.allIssues().size());
+        assertEquals(0, secondStatistics.getCount(ImportStatistics.UNRESOLVED_PATHS));
+    }
+
+    private SensorContextTester createModuleContext(File baseDir, Map<String, String> properties, RuleKey ruleKey) throws IOException {
+        final SensorContextTester sensorContextTester = SensorContextTester.create(baseDir);
+        sensorContextTester.fileSystem().setWorkDir(temp.newFolder().toPath());
+        final Metadata metadata = new Metadata(1, 1, "", new int[1], 0);
+        final DefaultIndexedFile indexedFile = new DefaultIndexedFile(
+                StringUtils.EMPTY,
+                baseDir.toPath(),
+                "src/Foo.java",
+                "java");
+        sensorContextTester
+                .fileSystem()
+                .add(new DefaultInputFile(indexedFile, f -> f.setMetadata(metadata), "public class Foo {\n}"));
+        sensorContextTester
+                .settings()
+                .addProperties(properties);
+        sensorContextTester
+                .setActiveRules(new DefaultActiveRules(Arrays.asList(new ActiveRulesBuilder().create(ruleKey))));
+        return sensorContextTester;
+    }
+
+    private static CoverityDefect newDefect(String filePath) {
+        return new CoverityDefect(1L, "STATIC_JAVA", filePath, null, "TEST_CHECKER", "MK_1", null, "description", null, "tag", "type", "Low", 1);
+    }
+
+    @Test
+    public void testExecute_sharesDefectsAcrossModules() {
+        final RuleKey ruleKey = RuleKey.of("coverity-java", "STATIC_JAVA_TEST_CHECKER_none");
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(CoverityPlugin.COVERITY_PROJECT, "my-cov-project");
+        properties.put(CoverityPlugin.COVERITY_ENABLE, "true");
+        properties.put("sonar.sources", "src");
+
+        testCimClient.setupProject("my-cov-project");
+        // one defect with an instance in the files of each module
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList("src/Foo.java", "src/Bar.java"));
+
+        CIMClientFactory clientFactory = mock(CIMClientFactory.class);
+        when(clientFactory.create(any())).thenReturn(testCimClient);
+        SharedDefectIndex sharedDefectIndex = new SharedDefectIndex();
+
+        final SensorContextTester firstModule = createContext("src/Foo.java", properties, ruleKey);
+        new CoveritySensor(clientFactory, sharedDefectIndex).execute(firstModule);
+        final int queries = testCimClient.getTestDefectService().getProjectQueries().size()
+                + testCimClient.getTestDefectService().getStreamQueries().size();
+
+        final SensorContextTester secondModule = createContext("src/Bar.java", 2, properties, ruleKey);
+        new CoveritySensor(clientFactory, sharedDefectIndex).execute(secondModule);
+
+        assertEquals(queries, testCimClient.getTestDefectService().getProjectQueries().size()
+                + testCimClient.getTestDefectService().getStreamQueries().size());
+        assertEquals(1, firstModule.allIssues().size());
+        assertTrue(firstModule.allIssues().iterator().next().primaryLocation().inputComponent().key().endsWith("src/Foo.java"));
+        assertEquals(1, secondModule.allIssues().size());
+        assertTrue(secondModule.allIssues().iterator().next().primaryLocation().inputComponent().key().endsWith("src/Bar.java"));
+
+        // the counts cover all the defects retrieved, although the first module claimed some of them
+        assertEquals(firstModule.measure("projectKey", CoverityPluginMetrics.COVERITY_OUTSTANDING_ISSUES).value(),
+                secondModule.measure("projectKey", CoverityPluginMetrics.COVERITY_OUTSTANDING_ISSUES).value());
+    }
+
+    @Test
+    public void testExecute_usesPrefetchedDefects() throws Exception {
+        final RuleKey ruleKey = RuleKey.of("coverity-java", "STATIC_JAVA_TEST_CHECKER_none");
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(CoverityPlugin.COVERITY_PROJECT, "my-cov-project");
+        properties.put(CoverityPlugin.COVERITY_ENABLE, "true");
+        properties.put("sonar.sources", "src");
+
+        testCimClient.setupProject("my-cov-project");
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList("src/Foo.java"));
+
+        CIMClientFactory clientFactory = mock(CIMClientFactory.class);
+        when(clientFactory.create(any())).thenReturn(testCimClient);
+        SharedDefectIndex sharedDefectIndex = new SharedDefectIndex();
+
+        final SensorContextTester sensorContextTester = createContext("src/Foo.java", properties, ruleKey);
+        new DefectPrefetcher(sensorContextTester.config(), clientFactory, sharedDefectIndex).start();
+        new CoveritySensor(clientFactory, sharedDefectIndex).execute(sensorContextTester);
+
+        assertEquals(1, testCimClient.getTestDefectService().getProjectQueries().size());
+        assertEquals(1, sensorContextTester.allIssues().size());
+
+        // the statistics of the prefetch are part of the statistics of the import
+        final File statisticsFile = new File(sensorContextTester.fileSystem().workDir(), ImportStatistics.JSON_FILE_NAME);
+        final JSONObject json = (JSONObject) new JSONParser().parse(new FileReader(statisticsFile));
+        assertEquals(1L, ((JSONObject) json.get("counters")).get(ImportStatistics.MERGED_DEFECTS));
+    }
+
+    @Test
+    public void testExecute_usesCachedDefects_WhenBudgetRunsOut() throws IOException {
+        final RuleKey ruleKey = RuleKey.of("coverity-java", "STATIC_JAVA_TEST_CHECKER_none");
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(CoverityPlugin.COVERITY_PROJECT, "my-cov-project");
+        properties.put(CoverityPlugin.COVERITY_ENABLE, "true");
+        properties.put(CoverityPlugin.COVERITY_IMPORT_BUDGET, "60");
+        properties.put(CoverityPlugin.COVERITY_SOURCE_LAYERS, "cache");
+        properties.put(CoverityPlugin.COVERITY_CACHE_DIRECTORY, temp.newFolder().getAbsolutePath());
+        properties.put(CoverityPlugin.COVERITY_CACHE_TTL, "0");
+        properties.put("sonar.sources", "src");
+
+        final AtomicBoolean budgetRanOut = new AtomicBoolean();
+        final TestCIMClient budgetCimClient = new TestCIMClient() {
+            @Override
+            public boolean isPastDeadline() {
+                return budgetRanOut.get();
+            }
+        };
+        budgetCimClient.setupProject("my-cov-project");
+        budgetCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList("src/Foo.java"));
+        CIMClientFactory clientFactory = mock(CIMClientFactory.class);
+        when(clientFactory.create(any())).thenReturn(budgetCimClient);
+
+        final SensorContextTester complete = createContext("src/Foo.java", properties, ruleKey);
+        new CoveritySensor(clientFactory, new SharedDefectIndex()).execute(complete);
+        assertEquals(1, complete.allIssues().size());
+
+        budgetRanOut.set(true);
+        final SensorContextTester cached = createContext("src/Foo.java", properties, ruleKey);
+        new CoveritySensor(clientFactory, new SharedDefectIndex()).execute(cached);
+        assertEquals(1, cached.allIssues().size());
+        assertEquals(Integer.valueOf(0), cached.<Integer>measure("projectKey", CoverityPluginMetrics.COVERITY_IMPORT_SKIPPED_DEFECTS).value());
+
+        properties.remove(CoverityPlugin.COVERITY_SOURCE_LAYERS);
+        final SensorContextTester partial = createContext("src/Foo.java", properties, ruleKey);
+        new CoveritySensor(clientFactory, new SharedDefectIndex()).execute(partial);
+        assertEquals(0, partial.allIssues().size());
+        assertEquals(Integer.valueOf(1), partial.<Integer>measure("projectKey", CoverityPluginMetrics.COVERITY_IMPORT_SKIPPED_DEFECTS).value());
+    }
+
+    @Test
+    public void testExecute_savesIssue_FromMultipleProjects_DeduplicatesCids() {
+        final SensorContextTester sensorContextTester = SensorContextTester.create(new File("src"));
+        final String filePath = "src/Foo.java";
+        String content = "public class Foo {\n}";
+
+        final Metadata metadata = new Metadata(1, 1, "", new int[1], 0);
+        final DefaultIndexedFile indexedFile = new DefaultIndexedFile(
+                StringUtils.EMPTY,
+                sensorContextTester.fileSystem().baseDirPath(),
+                filePath,
+                "java");
+        DefaultInputFile inputFile = new DefaultInputFile(indexedFile, f -> f.setMetadata(metadata), content);
+
+        sensorContextTester
+                .fileSystem()
+                .add(inputFile);
+        final HashMap<String, String> properties = new HashMap<>();
+
+        final String streamName = "my-cov-stream";
+        testCimClient.setupProject("first-project");
+        testCimClient.setupProject("second-project");
+
+        properties.put(CoverityPlugin.COVERITY_PROJECT, "first-project,second-project");
+        properties.put(CoverityPlugin.COVERITY_ENABLE, "true");
+        properties.put("sonar.sources", "src");
+        sensorContextTester
+                .settings()
+                .addProperties(properties);
+
+        final String checkerName = "TEST_CHECKER";
+        final String domain = "STATIC_JAVA";
+        final String subcategory = "none";
+
+        final ActiveRulesBuilder rulesBuilder = new ActiveRulesBuilder();
+        final RuleKey ruleKey = RuleKey.of("coverity-java", domain + "_" + checkerName + "_" + subcategory);
+        final NewActiveRule javaTestChecker = rulesBuilder.create(ruleKey);
+        sensorContextTester
+                .setActiveRules(new DefaultActiveRules(Arrays.asList(javaTestChecker)));
+        final String expectedIssueMessage =
+                "[TEST_CHECKER(type)] Event Tag: Event Description ( CID 1 : https://test-host:8443/query/defects.htm?projectId=0&mergeKey=MK_1 )";
+
+        // the test defect service returns the same defect for every project
+        testCimClient.setupDefect(domain, checkerName, streamName, Arrays.asList(filePath));
+
+        sensor.execute(sensorContextTester);
+
+        final Collection<Issue> issues = sensorContextTester.allIssues();
+        assertNotNull(issues);
+        assertEquals(1, issues.size());
+        final Issue issue = issues.iterator().next();
+        assertEquals(ruleKey, issue.ruleKey());
+        assertEquals(expectedIssueMessage, issue.primaryLocation().message());
+    }
+
     @Test
     public void testExecute_savesIssue_FromStream() {
         final SensorContextTester sensorContextTester = SensorContextTester.create(new File("src"));
@@ -192,6 +747,7 @@ public class CoveritySensorTest {
     @Test
     public void testExecute_savesNoIssue_NoInputFileLanguage() {
         final SensorContextTester sensorContextTester = SensorContextTester.create(new File("src"));
+        sensorContextTester.fileSystem().setWorkDir(temp.getRoot().toPath());
         final String filePath = "src/ruby.rb";
         String content = "def test(val)\n" +
                 "  z() if ~(s == 0)  # A CONSTANT_EXPRESSION_RESULT here. '!(s == 0)' is intended.\n" +
@@ -524,6 +1080,7 @@ public class CoveritySensorTest {
 
         final SensorContextTester sensorContextTester = SensorContextTester.create(new File("src"));
         final String filePath = "src/Foo.java";
+        sensorContextTester.fileSystem().setWorkDir(temp.getRoot().toPath());
         final HashMap<String, String> properties = new HashMap<>();
 
         final String projectName = "my-cov-project";
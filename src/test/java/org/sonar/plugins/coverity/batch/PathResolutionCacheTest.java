@@ -0,0 +1,52 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.batch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PathResolutionCacheTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private InputFile inputFile(String relativePath) {
+        return TestInputFileBuilder.create("module", relativePath).build();
+    }
+
+    @Test
+    public void get_ReturnsSavedPath_WhileIndexedFilesAreTheSame() throws IOException {
+        File cacheFile = PathResolutionCache.getFile(temp.newFolder(), "project", new File("module"));
+        List<InputFile> inputFiles = Arrays.asList(inputFile("src/Foo.java"), inputFile("src/Bar.java"));
+
+        PathResolutionCache cache = new PathResolutionCache(cacheFile, inputFiles);
+        assertNull(cache.get("/build/src/Foo.java"));
+        cache.put("/build/src/Foo.java", "src/Foo.java");
+        cache.save();
+
+        List<InputFile> reordered = Arrays.asList(inputFile("src/Bar.java"), inputFile("src/Foo.java"));
+        assertEquals("src/Foo.java", new PathResolutionCache(cacheFile, reordered).get("/build/src/Foo.java"));
+
+        List<InputFile> renamed = Arrays.asList(inputFile("src/Bar.java"), inputFile("src/Foo2.java"));
+        assertNull(new PathResolutionCache(cacheFile, renamed).get("/build/src/Foo.java"));
+    }
+}
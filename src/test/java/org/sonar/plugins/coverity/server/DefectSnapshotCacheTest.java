@@ -0,0 +1,310 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+package org.sonar.plugins.coverity.server;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.server.ws.LocalConnector;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.server.ws.internal.SimpleGetRequest;
+import org.sonar.api.utils.text.JsonWriter;
+import org.sonar.api.utils.text.XmlWriter;
+import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.defect.CoverityDefect;
+import org.sonar.plugins.coverity.defect.DefectCache;
+import org.sonar.plugins.coverity.defect.ServerDefectSource;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+import org.sonar.plugins.coverity.ws.CIMClientFactory;
+import org.sonar.plugins.coverity.ws.TestCIMClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DefectSnapshotCacheTest {
+    private static final String SCAN_USER = "{\"isLoggedIn\":true,\"permissions\":{\"global\":[\"scan\"]}}";
+
+    private TestCIMClient testCimClient;
+    private DefectSnapshotCache cache;
+    private HttpServer server;
+
+    @Before
+    public void setUp() {
+        testCimClient = new TestCIMClient();
+        CIMClientFactory clientFactory = mock(CIMClientFactory.class);
+        when(clientFactory.create(any())).thenReturn(testCimClient);
+
+        MapSettings settings = new MapSettings();
+        settings.setProperty(CoverityPlugin.COVERITY_SERVER_REFRESH_INTERVAL, "0");
+        settings.setProperty(CoverityPlugin.COVERITY_SERVER_STREAMS, "my-cov-stream");
+        settings.setProperty(CoverityPlugin.COVERITY_SERVER_PROJECTS, "my-cov-project");
+        cache = new DefectSnapshotCache(settings.asConfig(), clientFactory);
+        cache.start();
+    }
+
+    @After
+    public void tearDown() {
+        cache.stop();
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private int getDefectQueries() {
+        return testCimClient.getTestDefectService().getProjectQueries().size()
+                + testCimClient.getTestDefectService().getStreamQueries().size();
+    }
+
+    private DefectSnapshotCache.Snapshot awaitSnapshot(List<String> streams, List<String> projects) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        DefectSnapshotCache.Snapshot snapshot;
+        while ((snapshot = cache.getSnapshot(streams, projects)) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return snapshot;
+    }
+
+    private static SimpleGetRequest newRequest(String currentUser) {
+        LocalConnector.LocalResponse currentUserResponse = mock(LocalConnector.LocalResponse.class);
+        when(currentUserResponse.getStatus()).thenReturn(200);
+        when(currentUserResponse.getBytes()).thenReturn(currentUser.getBytes(StandardCharsets.UTF_8));
+        LocalConnector localConnector = mock(LocalConnector.class);
+        when(localConnector.call(any())).thenReturn(currentUserResponse);
+
+        return new SimpleGetRequest() {
+            @Override
+            public LocalConnector localConnector() {
+                return localConnector;
+            }
+        };
+    }
+
+    @Test
+    public void getSnapshot_RetrievesDefectsAgain_OnlyForNewSnapshot() throws Exception {
+        testCimClient.setupProject("my-cov-project");
+        testCimClient.setupSnapshot("my-cov-project-stream", 10001);
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-project-stream", Arrays.asList("/build/src/Foo.java"));
+
+        List<String> projects = Collections.singletonList("my-cov-project");
+        DefectSnapshotCache.Snapshot snapshot = awaitSnapshot(Collections.emptyList(), projects);
+        assertEquals(1, snapshot.getDefectCount());
+        List<CoverityDefect> defects = DefectCache.read(new ByteArrayInputStream(snapshot.getFeed()), "feed");
+        assertEquals("/build/src/Foo.java", defects.get(0).getEventPath());
+
+        int queries = getDefectQueries();
+        assertEquals(snapshot, cache.getSnapshot(Collections.emptyList(), projects));
+        cache.refresh();
+        assertEquals(queries, getDefectQueries());
+        assertEquals(snapshot, cache.getSnapshot(Collections.emptyList(), projects));
+
+        testCimClient.setupSnapshot("my-cov-project-stream", 10002);
+        cache.refresh();
+        assertEquals(queries * 2, getDefectQueries());
+        assertEquals(1, cache.getSnapshot(Collections.emptyList(), projects).getDefectCount());
+    }
+
+    @Test
+    public void refresh_UsesPluginClassLoader_OnThreadOfTheServer() throws Exception {
+        List<ClassLoader> contextClassLoaders = Collections.synchronizedList(new ArrayList<>());
+        CIMClientFactory clientFactory = mock(CIMClientFactory.class);
+        when(clientFactory.create(any())).thenAnswer(invocation -> {
+            contextClassLoaders.add(Thread.currentThread().getContextClassLoader());
+            return testCimClient;
+        });
+        cache.stop();
+        MapSettings settings = new MapSettings();
+        settings.setProperty(CoverityPlugin.COVERITY_SERVER_REFRESH_INTERVAL, "0");
+        settings.setProperty(CoverityPlugin.COVERITY_SERVER_STREAMS, "my-cov-stream");
+        cache = new DefectSnapshotCache(settings.asConfig(), clientFactory);
+        cache.start();
+
+        testCimClient.setupStream("my-cov-stream");
+        testCimClient.setupSnapshot("my-cov-stream", 10001);
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList("/build/src/Foo.java"));
+        List<String> streams = Collections.singletonList("my-cov-stream");
+        assertNotNull(awaitSnapshot(streams, Collections.emptyList()));
+        int queries = getDefectQueries();
+
+        // the refresh thread is created by the server, whose class loader does not see the classes of the plugin
+        ClassLoader serverClassLoader = new URLClassLoader(new URL[0], null);
+        List<ClassLoader> restoredClassLoaders = new ArrayList<>();
+        testCimClient.setupSnapshot("my-cov-stream", 10002);
+        Thread thread = new Thread(() -> {
+            cache.refresh();
+            restoredClassLoaders.add(Thread.currentThread().getContextClassLoader());
+        });
+        thread.setContextClassLoader(serverClassLoader);
+        thread.start();
+        thread.join();
+
+        assertEquals(queries * 2, getDefectQueries());
+        assertEquals(Collections.singletonList(serverClassLoader), restoredClassLoaders);
+        assertEquals(3, contextClassLoaders.size());
+        for (ClassLoader contextClassLoader : contextClassLoaders) {
+            assertEquals(DefectSnapshotCache.class.getClassLoader(), contextClassLoader);
+        }
+    }
+
+    @Test
+    public void serverDefectSource_ReadsDefectsFromWebService() throws Exception {
+        testCimClient.setupStream("my-cov-stream");
+        testCimClient.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-cov-stream", Arrays.asList("/build/src/Foo.java"));
+
+        DefectSnapshotWs ws = new DefectSnapshotWs(cache);
+        WebService.Context context = new WebService.Context();
+        ws.define(context);
+        assertNotNull(context.controller(DefectSnapshotWs.CONTROLLER).action(DefectSnapshotWs.ACTION_DEFECTS));
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/" + DefectSnapshotWs.CONTROLLER + "/" + DefectSnapshotWs.ACTION_DEFECTS, exchange -> {
+            SimpleGetRequest request = newRequest(SCAN_USER);
+            for (String param : exchange.getRequestURI().getRawQuery().split("&")) {
+                String[] keyValue = param.split("=", 2);
+                request.setParam(keyValue[0], URLDecoder.decode(keyValue[1], "UTF-8"));
+            }
+
+            TestResponse response = new TestResponse();
+            try {
+                ws.handle(request, response);
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            if (response.status == 503) {
+                // the scanner waits for at least a second
+                exchange.getResponseHeaders().add("Retry-After", "0");
+            }
+            exchange.sendResponseHeaders(response.status, response.output.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                response.output.writeTo(out);
+            }
+        });
+        server.start();
+
+        ServerDefectSource source = new ServerDefectSource("http://localhost:" + server.getAddress().getPort() + "/",
+                null, null, Collections.singletonList("my-cov-stream"), Collections.emptyList(),
+                path -> path.replace("/build/", "/work/"), new ImportStatistics());
+        List<CoverityDefect> defects = source.getDefects();
+
+        assertEquals(1, defects.size());
+        assertEquals("/work/src/Foo.java", defects.get(0).getEventPath());
+        assertEquals("TEST_CHECKER", defects.get(0).getCheckerName());
+    }
+
+    @Test
+    public void handle_RequiresScanPermission() throws Exception {
+        DefectSnapshotWs ws = new DefectSnapshotWs(cache);
+
+        SimpleGetRequest request = newRequest("{\"isLoggedIn\":false}");
+        request.setParam(DefectSnapshotWs.PARAM_STREAMS, "my-cov-stream");
+        TestResponse response = new TestResponse();
+        ws.handle(request, response);
+        assertEquals(401, response.status);
+
+        request = newRequest("{\"isLoggedIn\":true,\"permissions\":{\"global\":[\"profileadmin\"]}}");
+        request.setParam(DefectSnapshotWs.PARAM_STREAMS, "my-cov-stream");
+        response = new TestResponse();
+        ws.handle(request, response);
+        assertEquals(403, response.status);
+        assertEquals(0, getDefectQueries());
+    }
+
+    @Test
+    public void handle_RefusesStreamsNotListedInSettings() throws Exception {
+        DefectSnapshotWs ws = new DefectSnapshotWs(cache);
+
+        SimpleGetRequest request = newRequest(SCAN_USER);
+        request.setParam(DefectSnapshotWs.PARAM_STREAMS, "my-cov-stream,other-stream");
+        TestResponse response = new TestResponse();
+        ws.handle(request, response);
+
+        assertEquals(403, response.status);
+        assertFalse(cache.isServed(Collections.emptyList(), Collections.singletonList("other-project")));
+        assertEquals(0, getDefectQueries());
+    }
+
+    private static class TestResponse implements Response, Response.Stream {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final Map<String, String> headers = new HashMap<>();
+        private int status = 200;
+
+        @Override
+        public JsonWriter newJsonWriter() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public XmlWriter newXmlWriter() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Response noContent() {
+            status = 204;
+            return this;
+        }
+
+        @Override
+        public Response setHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        @Override
+        public Collection<String> getHeaderNames() {
+            return headers.keySet();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public Stream stream() {
+            return this;
+        }
+
+        @Override
+        public Stream setMediaType(String s) {
+            return this;
+        }
+
+        @Override
+        public Stream setStatus(int httpStatus) {
+            status = httpStatus;
+            return this;
+        }
+
+        @Override
+        public OutputStream output() {
+            return output;
+        }
+    }
+}
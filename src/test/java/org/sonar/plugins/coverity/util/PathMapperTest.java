@@ -0,0 +1,49 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PathMapperTest {
+    private final File baseDirectory = new File("/work/project");
+
+    @Test
+    public void apply_StripsLongestPrefix_ThenRewritesInOrder() {
+        PathMapper pathMapper = new PathMapper(
+                Arrays.asList("/checkout/one/", "/checkout/one/nested/", "/checkout/two/"),
+                Arrays.asList("/builds/[0-9]+/ => src/", "/builds/([a-z]+)/ => /opt/$1/", "invalid"),
+                baseDirectory, false);
+
+        assertEquals(new File(baseDirectory, "src/Foo.java").getAbsolutePath(), pathMapper.apply("/checkout/one/src/Foo.java"));
+        assertEquals(new File(baseDirectory, "Bar.java").getAbsolutePath(), pathMapper.apply("/checkout/one/nested/Bar.java"));
+        assertEquals(new File(baseDirectory, "src/Foo.java").getAbsolutePath(), pathMapper.apply("/checkout/two/src/Foo.java"));
+        assertEquals(new File(baseDirectory, "src/Foo.java").getAbsolutePath(), pathMapper.apply("/builds/42/Foo.java"));
+        assertEquals("/opt/main/Foo.java", pathMapper.apply("/builds/main/Foo.java"));
+        assertEquals("/elsewhere/Foo.java", pathMapper.apply("/elsewhere/Foo.java"));
+    }
+
+    @Test
+    public void apply_ReturnsSameLocalPath_ForSameCoverityPath() {
+        PathMapper pathMapper = new PathMapper(Collections.singletonList("C:/checkout/"), Collections.emptyList(), baseDirectory, true);
+
+        String localPath = pathMapper.apply("C:/checkout/src/Foo.java");
+        assertEquals(new File(baseDirectory, "src/Foo.java").getAbsolutePath().replace("/", "\\"), localPath);
+        assertSame(localPath, pathMapper.apply("C:/checkout/src/Foo.java"));
+    }
+}
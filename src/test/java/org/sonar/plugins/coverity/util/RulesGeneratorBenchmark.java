@@ -0,0 +1,138 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+package org.sonar.plugins.coverity.util;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.sonar.plugins.coverity.server.InternalRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Throughput benchmark for RulesGenerator.writeRulesToFiles. It is not run by the unit tests; run it with the
+    checker-properties.json files of a full Coverity installation as arguments, e.g.
+
+        java -cp <test classpath> org.sonar.plugins.coverity.util.RulesGeneratorBenchmark \
+            <cov-install>/config/checker-properties.json <path>/findbugs-checker-properties.json
+
+    Without arguments the small checker files of the unit tests are used. The benchmark compares the streaming
+    writer with the previous PrintWriter/StringEscapeUtils implementation and checks both outputs are identical.
+ */
+public class RulesGeneratorBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 20;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            args = new String[] {
+                    "src/test/java/org/sonar/plugins/coverity/util/quality-checker-properties.json",
+                    "src/test/java/org/sonar/plugins/coverity/util/findbugs-checker-properties.json"
+            };
+        }
+
+        for (String filePath : args) {
+            File file = new File(filePath);
+            if (filePath.endsWith("findbugs-checker-properties.json")) {
+                RulesGenerator.generateRulesForFindBugCheckers(file);
+            } else {
+                RulesGenerator.generateRulesForQualityCheckers(file);
+            }
+        }
+        RulesGenerator.addNoneSubcategory();
+        RulesGenerator.addFallbackRuleForLanguage();
+        RulesGenerator.addDifferentOriginRules();
+
+        int ruleCount = 0;
+        for (String language : RulesGenerator.rulesList.keySet()) {
+            for (List<InternalRule> rules : RulesGenerator.rulesList.get(language).values()) {
+                ruleCount += rules.size();
+            }
+        }
+
+        File legacyDir = Files.createTempDirectory("coverity-rules-legacy").toFile();
+        File streamingDir = Files.createTempDirectory("coverity-rules-streaming").toFile();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            writeLegacy(legacyDir);
+            RulesGenerator.writeRulesToFiles(streamingDir);
+        }
+
+        long legacyNanos = 0;
+        long streamingNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            writeLegacy(legacyDir);
+            legacyNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            RulesGenerator.writeRulesToFiles(streamingDir);
+            streamingNanos += System.nanoTime() - start;
+        }
+
+        for (String language : RulesGenerator.rulesList.keySet()) {
+            String fileName = "coverity-" + language + ".xml";
+            byte[] legacy = Files.readAllBytes(new File(legacyDir, fileName).toPath());
+            byte[] streaming = Files.readAllBytes(new File(streamingDir, fileName).toPath());
+            if (!Arrays.equals(legacy, streaming)) {
+                throw new IllegalStateException("Output differs for " + fileName);
+            }
+        }
+
+        report("legacy", ruleCount, legacyNanos);
+        report("streaming", ruleCount, streamingNanos);
+    }
+
+    private static void report(String name, int ruleCount, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format("%-10s %d rules x %d iterations: %.1f ms/iteration, %.0f rules/s",
+                name, ruleCount, ITERATIONS, seconds * 1000 / ITERATIONS, ruleCount * ITERATIONS / seconds));
+    }
+
+    /**
+     * The implementation of writeRulesToFiles before the streaming writer, kept as the benchmark baseline.
+     */
+    private static void writeLegacy(File xmlDir) throws IOException {
+        for (String language : RulesGenerator.rulesList.keySet()) {
+            File xmlFile = new File(xmlDir, "coverity-" + language + ".xml");
+            PrintWriter xmlFileOut = new PrintWriter(xmlFile, "UTF-8");
+            xmlFileOut.println("<rules>");
+            String domain = RulesGenerator.getDomain(language);
+
+            for (String key : RulesGenerator.rulesList.get(language).keySet()) {
+                for (InternalRule rule : RulesGenerator.rulesList.get(language).get(key)) {
+                    xmlFileOut.println("    <rule>");
+                    xmlFileOut.println("        <key>" + StringEscapeUtils.escapeXml(domain + "_" + rule.getKey()) + "</key>");
+                    xmlFileOut.println("        <name>" + StringEscapeUtils.escapeXml(rule.getRuleName()) + "</name>");
+                    xmlFileOut.println("        <internalKey>" + StringEscapeUtils.escapeXml(domain + "_" + rule.getKey()) + "</internalKey>");
+                    xmlFileOut.println("        <description>" + StringEscapeUtils.escapeXml(rule.getDescription()) + "</description>");
+                    xmlFileOut.println("        <severity>" + StringEscapeUtils.escapeXml(rule.getSeverity()) + "</severity>");
+                    xmlFileOut.println("        <cardinality>SINGLE</cardinality>");
+                    xmlFileOut.println("        <status>READY</status>");
+                    xmlFileOut.println("        <type>" + StringEscapeUtils.escapeXml(rule.getRuleType()) + "</type>");
+
+                    for (String tag : rule.getTags()) {
+                        xmlFileOut.println("        <tag>" + StringEscapeUtils.escapeXml(tag) + "</tag>");
+                    }
+
+                    xmlFileOut.println("    </rule>");
+                }
+            }
+
+            xmlFileOut.println("</rules>");
+            xmlFileOut.close();
+        }
+    }
+}
@@ -97,6 +97,67 @@ public class RulesGeneratorTest {
         checkPhpOutputFile(phpOutputFile);
     }
 
+    @Test
+    public void rulesGeneratorTest_WithBinaryOutput() throws Exception {
+        File qualityCheckerFile = new File(qualityJsonFile);
+        File findbugCheckerFile = new File(findbugsJsonFile);
+
+        RulesGenerator.setOutputFilePath(outputFilePath);
+        RulesGenerator.main(new String[] {"--binary", qualityCheckerFile.getAbsolutePath(), findbugCheckerFile.getAbsolutePath()});
+
+        File csOutputFile = new File(csOutputFilePath);
+        File csBinaryFile = new File(outputFilePath, "coverity-cs.rules");
+        Assert.assertTrue(csOutputFile.exists());
+        Assert.assertTrue(csBinaryFile.exists());
+
+        NodeList nodes = parseNodeList(csOutputFile);
+        Assert.assertNotNull(nodes);
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(csBinaryFile)))) {
+            Assert.assertEquals(RulesWriter.BINARY_MAGIC, in.readInt());
+            Assert.assertEquals(RulesWriter.BINARY_VERSION, in.readInt());
+            Assert.assertEquals(nodes.getLength(), in.readInt());
+
+            for (int i = 0 ; i < nodes.getLength() ; i++) {
+                Element element = (Element) nodes.item(i);
+                Assert.assertEquals(getValue("key", element), readBinaryString(in));
+                Assert.assertEquals(getValue("name", element), readBinaryString(in));
+                Assert.assertEquals(getValue("description", element), readBinaryString(in));
+                Assert.assertEquals(getValue("severity", element), readBinaryString(in));
+                Assert.assertEquals(getValue("type", element), readBinaryString(in));
+
+                int tagCount = in.readShort();
+                Assert.assertEquals(element.getElementsByTagName("tag").getLength(), tagCount);
+                for (int j = 0 ; j < tagCount ; j++) {
+                    readBinaryString(in);
+                }
+            }
+            Assert.assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void escapeXml_MatchesStringEscapeUtils() {
+        String[] values = new String[] {
+                "",
+                "plain text",
+                "<code>a && b</code>",
+                "\"quoted\" and 'single'",
+                "caf\u00e9 \u2013 na\u00efve",
+                "emoji \ud83d\ude00 end",
+                "tab\tnew\nline"
+        };
+
+        for (String value : values) {
+            Assert.assertEquals(org.apache.commons.lang.StringEscapeUtils.escapeXml(value), RulesWriter.escapeXml(value));
+        }
+        Assert.assertNull(RulesWriter.escapeXml(null));
+    }
+
+    private String readBinaryString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
     private void createTestDirectory() {
         File testDir = new File(outputFilePath);
         if (!testDir.exists()) {
@@ -0,0 +1,80 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SourceCrawlerTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File createFile(File baseDirectory, String path) throws IOException {
+        File file = new File(baseDirectory, path);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        return file;
+    }
+
+    private Set<String> getRelativePaths(File baseDirectory, List<File> files) {
+        Set<String> paths = new TreeSet<>();
+        for (File file : files) {
+            paths.add(baseDirectory.toPath().relativize(file.toPath()).toString().replace('\\', '/'));
+        }
+        return paths;
+    }
+
+    @Test
+    public void listFiles_SkipsExcludedAndVcsDirectories() throws IOException {
+        File baseDirectory = temp.newFolder("project");
+        createFile(baseDirectory, "src/a/b/c/Foo.java");
+        createFile(baseDirectory, "src/a/Bar.java");
+        createFile(baseDirectory, "src/generated/Gen.java");
+        createFile(baseDirectory, "src/.git/config");
+        createFile(baseDirectory, "src/a/Baz.txt");
+
+        SourceCrawler crawler = new SourceCrawler(baseDirectory, new String[] {"**/generated/**", "**/*.txt"}, null, "project");
+        List<File> files = crawler.listFiles(Collections.singletonList(new File(baseDirectory, "src")));
+
+        assertEquals(new TreeSet<>(Arrays.asList("src/a/b/c/Foo.java", "src/a/Bar.java")), getRelativePaths(baseDirectory, files));
+    }
+
+    @Test
+    public void listFiles_ReadsManifest_UntilDirectoryChanges() throws IOException {
+        File baseDirectory = temp.newFolder("project");
+        File cacheDirectory = temp.newFolder("cache");
+        createFile(baseDirectory, "src/a/Foo.java");
+        List<File> roots = Collections.singletonList(new File(baseDirectory, "src"));
+
+        assertEquals(1, new SourceCrawler(baseDirectory, new String[0], cacheDirectory, "project").listFiles(roots).size());
+        assertTrue(new SourceCrawler(baseDirectory, new String[0], cacheDirectory, "project").getManifest(roots).isFile());
+
+        // a file added without changing the modification time of its directory is not seen
+        File directory = new File(baseDirectory, "src/a");
+        long lastModified = directory.lastModified();
+        createFile(baseDirectory, "src/a/Bar.java");
+        directory.setLastModified(lastModified);
+        assertEquals(1, new SourceCrawler(baseDirectory, new String[0], cacheDirectory, "project").listFiles(roots).size());
+
+        directory.setLastModified(lastModified + 2000);
+        assertEquals(new TreeSet<>(Arrays.asList("src/a/Bar.java", "src/a/Foo.java")),
+                getRelativePaths(baseDirectory, new SourceCrawler(baseDirectory, new String[0], cacheDirectory, "project").listFiles(roots)));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v9.DefectService;
+import com.coverity.ws.v9.MergedDefectIdDataObj;
+import com.coverity.ws.v9.StreamDefectFilterSpecDataObj;
+import com.coverity.ws.v9.StreamIdDataObj;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    CPU benchmark of the authentication of CIM web service requests. It is not run by the unit tests; run it with
+
+        java -cp <test classpath> org.sonar.plugins.coverity.ws.AuthenticationBenchmark [requests]
+
+    Each request is a getStreamDefects call for 100 CIDs, the largest request of an import, sent to a local server
+    returning an empty response. The benchmark compares the CPU time of the calling thread per request with the
+    precomputed UsernameTokenHeader and with ClientAuthenticationHandlerWSS.
+ */
+public class AuthenticationBenchmark {
+
+    private static final int WARMUP_REQUESTS = 500;
+    private static final int CIDS_PER_REQUEST = 100;
+
+    private static final String RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body>" +
+            "<ns2:getStreamDefectsResponse xmlns:ns2=\"http://ws.coverity.com/v9\"/>" +
+            "</S:Body></S:Envelope>";
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            ByteStreams.toByteArray(exchange.getRequestBody());
+            byte[] bytes = RESPONSE.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+
+        try {
+            DefectService header = createDefectService(server, false);
+            DefectService xwss = createDefectService(server, true);
+
+            run(header, WARMUP_REQUESTS);
+            run(xwss, WARMUP_REQUESTS);
+
+            report("header", requests, run(header, requests));
+            report("xwss", requests, run(xwss, requests));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static DefectService createDefectService(HttpServer server, boolean useXwss) throws Exception {
+        CIMClient client = new CIMClient("localhost", server.getAddress().getPort(), "admin", "password", false);
+        client.setUseXwss(useXwss);
+        return client.getDefectService();
+    }
+
+    /**
+     * Returns the CPU time of the current thread to send the requests, in nanoseconds
+     */
+    private static long run(DefectService defectService, int requests) throws Exception {
+        List<MergedDefectIdDataObj> mergedDefectIds = new ArrayList<>();
+        for (int i = 0; i < CIDS_PER_REQUEST; i++) {
+            MergedDefectIdDataObj mergedDefectId = new MergedDefectIdDataObj();
+            mergedDefectId.setCid(10000L + i);
+            mergedDefectIds.add(mergedDefectId);
+        }
+        StreamIdDataObj streamId = new StreamIdDataObj();
+        streamId.setName("my-stream");
+        StreamDefectFilterSpecDataObj filterSpec = new StreamDefectFilterSpecDataObj();
+        filterSpec.setIncludeDefectInstances(true);
+        filterSpec.getStreamIdList().add(streamId);
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long start = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < requests; i++) {
+            defectService.getStreamDefects(mergedDefectIds, filterSpec);
+        }
+        return threadMXBean.getCurrentThreadCpuTime() - start;
+    }
+
+    private static void report(String name, int requests, long cpuNanos) {
+        System.out.println(String.format("%-7s %d requests: %.1f us CPU/request", name, requests, cpuNanos / 1e3 / requests));
+    }
+}
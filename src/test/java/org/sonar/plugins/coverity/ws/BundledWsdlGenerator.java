@@ -0,0 +1,77 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v9.ConfigurationService;
+import com.coverity.ws.v9.DefectService;
+import com.oracle.webservices.api.databinding.DatabindingFactory;
+import com.oracle.webservices.api.databinding.WSDLResolver;
+
+import javax.xml.namespace.QName;
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.ws.Holder;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+    Writes the WSDLs bundled in the plugin, see CIMClient.DEFECT_SERVICE_RESOURCE. It is not run by the unit tests;
+    run it again whenever the com.coverity.ws.v9 classes are regenerated with the wsimport profile:
+
+        java -cp <test classpath> org.sonar.plugins.coverity.ws.BundledWsdlGenerator src/main/resources
+
+    The WSDLs are generated from the annotations of the service interfaces with their schemas inlined, so they
+    describe exactly the messages the generated classes send and read.
+ */
+public class BundledWsdlGenerator {
+
+    public static void main(String[] args) throws Exception {
+        File resourceDir = new File(args.length > 0 ? args[0] : "src/main/resources");
+
+        generate(DefectService.class, "DefectService", new File(resourceDir, CIMClient.DEFECT_SERVICE_RESOURCE));
+        generate(ConfigurationService.class, "ConfigurationService", new File(resourceDir, CIMClient.CONFIGURATION_SERVICE_RESOURCE));
+    }
+
+    private static void generate(Class<?> serviceInterface, String name, final File wsdlFile) throws IOException {
+        wsdlFile.getParentFile().mkdirs();
+
+        try (FileOutputStream out = new FileOutputStream(wsdlFile)) {
+            DatabindingFactory.newInstance()
+                    .createBuilder(serviceInterface, null)
+                    .targetNamespace(CIMClient.COVERITY_NAMESPACE)
+                    .serviceName(new QName(CIMClient.COVERITY_NAMESPACE, name + "Service"))
+                    .portName(new QName(CIMClient.COVERITY_NAMESPACE, name + "Port"))
+                    .createWSDLGenerator()
+                    .inlineSchema(true)
+                    .generate(new WSDLResolver() {
+                        public Result getWSDL(String fileName) {
+                            StreamResult result = new StreamResult(out);
+                            result.setSystemId(wsdlFile.toURI().toString());
+                            return result;
+                        }
+
+                        public Result getAbstractWSDL(Holder<String> fileName) {
+                            return null;
+                        }
+
+                        public Result getSchemaOutput(String namespace, Holder<String> fileName) {
+                            return null;
+                        }
+                    });
+        } catch (FileNotFoundException e) {
+            throw new IOException("Cannot write " + wsdlFile, e);
+        }
+
+        System.out.println("Wrote " + wsdlFile);
+    }
+}
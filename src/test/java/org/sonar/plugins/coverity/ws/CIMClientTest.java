@@ -0,0 +1,195 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v9.CovRemoteServiceException_Exception;
+import com.coverity.ws.v9.MergedDefectDataObj;
+import com.coverity.ws.v9.MergedDefectFilterSpecDataObj;
+import com.coverity.ws.v9.ProjectDataObj;
+import com.google.common.io.CharStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CIMClientTest {
+
+    private static final String GET_PROJECTS_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body>" +
+            "<ns2:getProjectsResponse xmlns:ns2=\"http://ws.coverity.com/v9\">" +
+            "<return><id><name>my-cov-project</name></id><projectKey>10001</projectKey></return>" +
+            "</ns2:getProjectsResponse></S:Body></S:Envelope>";
+
+    private static final String GET_MERGED_DEFECTS_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body>" +
+            "<ns2:getMergedDefectsForProjectScopeResponse xmlns:ns2=\"http://ws.coverity.com/v9\">" +
+            "<return><mergedDefects><cid>{0}</cid><checkerName>TEST_CHECKER</checkerName></mergedDefects>" +
+            "<totalNumberOfRecords>1</totalNumberOfRecords></return>" +
+            "</ns2:getMergedDefectsForProjectScopeResponse></S:Body></S:Envelope>";
+
+    private static final String FAULT_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body><S:Fault>" +
+            "<faultcode>S:Server</faultcode><faultstring>No stream found for name my-stream.</faultstring>" +
+            "<detail><ns2:CoverityFault xmlns:ns2=\"http://ws.coverity.com/v9\">" +
+            "<errorCode>1300</errorCode><message>No stream found for name my-stream.</message>" +
+            "</ns2:CoverityFault></detail></S:Fault></S:Body></S:Envelope>";
+
+    private HttpServer server;
+    private final List<String> requests = new ArrayList<>();
+    private final List<String> requestBodies = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void getProject_DoesNotDownloadWsdl() throws Exception {
+        CIMClient client = new CIMClient("localhost", server.getAddress().getPort(), "test-user", "password", false);
+
+        ProjectDataObj project = client.getProject("my-cov-project");
+
+        assertEquals("my-cov-project", project.getId().getName());
+        assertEquals(Long.valueOf(10001), project.getProjectKey());
+        assertEquals(1, requests.size());
+        assertEquals("POST " + CIMClient.CONFIGURATION_SERVICE_PATH, requests.get(0));
+        assertTrue(requestBodies.get(0).contains("<Username>test-user</Username>")
+                || requestBodies.get(0).contains(":Username>test-user</"));
+    }
+
+    @Test
+    public void getProject_SendsSameUsernameToken_WithAndWithoutXwss() throws Exception {
+        CIMClient client = new CIMClient("localhost", server.getAddress().getPort(), "test-user", "pass\"word", false);
+        client.getProject("my-cov-project");
+
+        client = new CIMClient("localhost", server.getAddress().getPort(), "test-user", "pass\"word", false);
+        client.setUseXwss(true);
+        client.getProject("my-cov-project");
+
+        assertEquals(2, requestBodies.size());
+        for (String body : requestBodies) {
+            assertTrue(body, body.matches("(?s).*<(\\w+:)?Security [^>]*mustUnderstand=\"1\".*"));
+            assertTrue(body, body.contains(":Username>test-user</"));
+            assertTrue(body, body.contains("Type=\"" + UsernameTokenHeader.PASSWORD_TEXT_TYPE + "\">pass\"word</")
+                    || body.contains("Type=\"" + UsernameTokenHeader.PASSWORD_TEXT_TYPE + "\">pass&quot;word</"));
+        }
+    }
+
+    @Test
+    public void asyncTransport_FetchesProjectsConcurrently_WithUsernameToken() throws Exception {
+        CIMClient client = new CIMClient("localhost", server.getAddress().getPort(), "test-user", "password", false);
+        client.setUseAsyncTransport(true);
+
+        ProjectDataObj project = client.getProject("my-cov-project");
+        assertEquals(Long.valueOf(10001), project.getProjectKey());
+
+        Map<String, List<MergedDefectDataObj>> defects = client.getDefectsFromProjects(Arrays.asList("project-1", "project-2"));
+        assertEquals(Arrays.asList("project-1", "project-2"), new ArrayList<>(defects.keySet()));
+        assertEquals(Long.valueOf(1), defects.get("project-1").get(0).getCid());
+        assertEquals(Long.valueOf(2), defects.get("project-2").get(0).getCid());
+
+        assertEquals(3, requests.size());
+        assertEquals("POST " + CIMClient.CONFIGURATION_SERVICE_PATH, requests.get(0));
+        assertEquals("POST " + CIMClient.DEFECT_SERVICE_PATH, requests.get(1));
+        for (String body : requestBodies) {
+            assertTrue(body, body.matches("(?s).*<(\\w+:)?Security [^>]*mustUnderstand=\"1\".*"));
+            assertTrue(body, body.contains(":Username>test-user</"));
+        }
+    }
+
+    @Test
+    public void asyncTransport_ThrowsCoverityFault() throws Exception {
+        CIMClient client = new CIMClient("localhost", server.getAddress().getPort(), "test-user", "password", false);
+        client.setUseAsyncTransport(true);
+
+        try {
+            client.getStream("my-stream");
+            fail();
+        } catch (CovRemoteServiceException_Exception e) {
+            assertEquals(1300, e.getFaultInfo().getErrorCode());
+            assertEquals("No stream found for name my-stream.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void getDefectsFromStreams_ByCidRange_RetriesFailedRange() throws Exception {
+        TestCIMClient client = new TestCIMClient();
+        for (int i = 0; i < 25; i++) {
+            client.setupDefect("STATIC_JAVA", "TEST_CHECKER", "my-stream", Arrays.asList("src/Foo.java"));
+        }
+        client.setShardSize(10);
+        client.getTestDefectService().failRangeQueries(1);
+
+        List<MergedDefectDataObj> defects = client.getDefectsFromStreams(Arrays.asList("my-stream"));
+
+        assertEquals(25, defects.size());
+        for (int i = 0; i < defects.size(); i++) {
+            assertEquals(Long.valueOf(i + 1), defects.get(i).getCid());
+        }
+
+        Set<String> ranges = new TreeSet<>();
+        for (MergedDefectFilterSpecDataObj filterSpec : client.getTestDefectService().getStreamQueries()) {
+            if (filterSpec.getMinCid() != null) {
+                ranges.add(filterSpec.getMinCid() + "-" + filterSpec.getMaxCid());
+            }
+        }
+        assertEquals(new TreeSet<>(Arrays.asList("1-9", "10-18", "19-25")), ranges);
+        // two probes, three ranges and the failed attempt
+        assertEquals(6, client.getTestDefectService().getStreamQueries().size());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI());
+        requestBodies.add(CharStreams.toString(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)));
+
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        String body = requestBodies.get(requestBodies.size() - 1);
+        String response = GET_PROJECTS_RESPONSE;
+        int status = 200;
+        if (body.contains("getStreams")) {
+            response = FAULT_RESPONSE;
+            status = 500;
+        } else if (body.contains("getMergedDefectsForProjectScope")) {
+            response = GET_MERGED_DEFECTS_RESPONSE.replace("{0}", body.contains("project-2") ? "2" : "1");
+        }
+
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
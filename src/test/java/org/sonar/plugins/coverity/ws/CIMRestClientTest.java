@@ -0,0 +1,187 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+package org.sonar.plugins.coverity.ws;
+
+import com.google.common.io.CharStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.plugins.coverity.defect.CoverityDefect;
+import org.sonar.plugins.coverity.defect.RestDefectSource;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CIMRestClientTest {
+
+    private HttpServer server;
+    private CIMRestClient client;
+    private final List<Map<String, String>> issues = new ArrayList<>();
+    private final List<JSONObject> searchRequests = new ArrayList<>();
+    private final List<String> authorizations = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(CIMRestClient.ISSUES_SEARCH_PATH, this::handleSearch);
+        server.createContext(CIMRestClient.PROJECTS_PATH, this::handleProject);
+        server.start();
+
+        client = new CIMRestClient("localhost", server.getAddress().getPort(), "test-user", "password", false);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void searchIssues_requestsProjectedColumns_pageByPage() throws Exception {
+        addIssue("1", "New");
+        addIssue("2", "Triaged");
+        addIssue("3", "New");
+        client.setPageSize(2);
+        ImportStatistics statistics = new ImportStatistics();
+        client.setStatistics(statistics);
+
+        List<Map<String, String>> result = client.searchIssues(CIMRestClient.SCOPE_PROJECT, Arrays.asList("my-cov-project"));
+
+        assertEquals(3, result.size());
+        assertEquals("3", result.get(2).get(CIMRestClient.COLUMN_CID));
+        assertEquals(2, searchRequests.size());
+        assertEquals(CIMRestClient.COLUMNS, searchRequests.get(0).get("columns"));
+        assertEquals(2, statistics.getCimCalls());
+        assertEquals("Basic " + Base64.getEncoder().encodeToString("test-user:password".getBytes(StandardCharsets.UTF_8)),
+                authorizations.get(0));
+    }
+
+    @Test
+    public void getProjectKey_returnsNull_WhenProjectNotFound() throws Exception {
+        assertEquals(Long.valueOf(10001), client.getProjectKey("my-cov-project"));
+        assertNull(client.getProjectKey("other-project"));
+    }
+
+    @Test
+    public void restDefectSource_createsSameDefectsAsSoapSource() throws Exception {
+        addIssue("1", "New");
+        addIssue("2", "Dismissed");
+
+        RestDefectSource source = new RestDefectSource(client, Collections.<String>emptyList(),
+                Arrays.asList("my-cov-project"), Function.identity(), new ImportStatistics());
+        List<CoverityDefect> defects = source.getDefects();
+
+        assertEquals(1, defects.size());
+        CoverityDefect defect = defects.get(0);
+        assertEquals("STATIC_JAVA", defect.getDomain());
+        assertEquals("src/Foo.java", defect.getEventPath());
+        assertEquals("none", defect.getSubcategory());
+        assertEquals("High", defect.getSeverity());
+        assertEquals(1, defect.getLineNumber());
+        assertEquals("[TEST_CHECKER(type)] Event Tag: Event Description ( CID 1 : http://localhost:"
+                + server.getAddress().getPort() + "/query/defects.htm?projectId=10001&mergeKey=MK_1 )", defect.getDefectMessage());
+    }
+
+    private void addIssue(String cid, String status) {
+        Map<String, String> issue = new LinkedHashMap<>();
+        issue.put(CIMRestClient.COLUMN_CID, cid);
+        issue.put(CIMRestClient.COLUMN_MERGE_KEY, "MK_" + cid);
+        issue.put(CIMRestClient.COLUMN_CHECKER, "TEST_CHECKER");
+        issue.put(CIMRestClient.COLUMN_SUBCATEGORY, null);
+        issue.put(CIMRestClient.COLUMN_DOMAIN, "STATIC_JAVA");
+        issue.put(CIMRestClient.COLUMN_TYPE, "TEST_CHECKER(type)");
+        issue.put(CIMRestClient.COLUMN_IMPACT, "High");
+        issue.put(CIMRestClient.COLUMN_FILE, "src/Foo.java");
+        issue.put(CIMRestClient.COLUMN_LINE, "1");
+        issue.put(CIMRestClient.COLUMN_STATUS, status);
+        issue.put(CIMRestClient.COLUMN_EVENT_TAG, "Event Tag");
+        issue.put(CIMRestClient.COLUMN_EVENT_DESCRIPTION, "Event Description");
+        issue.put(CIMRestClient.COLUMN_LONG_DESCRIPTION, "Long Description");
+        issues.add(issue);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+        try {
+            searchRequests.add((JSONObject) new JSONParser().parse(
+                    CharStreams.toString(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))));
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+
+        Map<String, String> query = new HashMap<>();
+        for (String parameter : exchange.getRequestURI().getQuery().split("&")) {
+            String[] pair = parameter.split("=");
+            query.put(pair[0], pair[1]);
+        }
+        int offset = Integer.parseInt(query.get("offset"));
+        int rowCount = Integer.parseInt(query.get("rowCount"));
+
+        JSONArray rows = new JSONArray();
+        for (Map<String, String> issue : issues.subList(Math.min(offset, issues.size()), Math.min(offset + rowCount, issues.size()))) {
+            JSONArray row = new JSONArray();
+            for (Map.Entry<String, String> column : issue.entrySet()) {
+                JSONObject cell = new JSONObject();
+                cell.put("key", column.getKey());
+                cell.put("value", column.getValue());
+                row.add(cell);
+            }
+            rows.add(row);
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("offset", offset);
+        response.put("totalRows", issues.size());
+        response.put("columns", CIMRestClient.COLUMNS);
+        response.put("rows", rows);
+        respond(exchange, 200, response.toJSONString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleProject(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().endsWith("/my-cov-project")) {
+            respond(exchange, 404, "{}");
+            return;
+        }
+
+        JSONObject project = new JSONObject();
+        project.put("name", "my-cov-project");
+        project.put("projectKey", 10001);
+        JSONArray projects = new JSONArray();
+        projects.add(project);
+        JSONObject response = new JSONObject();
+        response.put("projects", projects);
+        respond(exchange, 200, response.toJSONString());
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
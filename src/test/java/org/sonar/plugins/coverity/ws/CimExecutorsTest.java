@@ -0,0 +1,60 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CimExecutorsTest {
+    @Test
+    public void newExecutor_BoundsConcurrentTasks_WithContextClassLoaderOfSubmitter() throws Exception {
+        ClassLoader oldCL = Thread.currentThread().getContextClassLoader();
+        ClassLoader pluginCL = new URLClassLoader(new URL[0], oldCL);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        ExecutorService executor = CimExecutors.newExecutor("test", 2, true);
+        Thread.currentThread().setContextClassLoader(pluginCL);
+        try {
+            List<Future<ClassLoader>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(20);
+                    running.decrementAndGet();
+                    return Thread.currentThread().getContextClassLoader();
+                }));
+            }
+            for (Future<ClassLoader> future : futures) {
+                assertSame(pluginCL, future.get());
+            }
+        } finally {
+            Thread.currentThread().setContextClassLoader(oldCL);
+            executor.shutdownNow();
+        }
+
+        assertTrue(maxRunning.get() >= 1);
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(0, running.get());
+    }
+}
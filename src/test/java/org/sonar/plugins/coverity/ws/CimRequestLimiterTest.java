@@ -0,0 +1,121 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.plugins.coverity.CoverityPlugin;
+import org.sonar.plugins.coverity.metrics.ImportStatistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CimRequestLimiterTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void create_ReturnsNull_WithoutDirectory() throws Exception {
+        MapSettings settings = new MapSettings();
+        assertNull(CimRequestLimiter.create(settings.asConfig()));
+
+        File directory = new File(temp.getRoot(), "limiter");
+        settings.setProperty(CoverityPlugin.COVERITY_LIMITER_DIRECTORY, directory.getPath());
+        settings.setProperty(CoverityPlugin.COVERITY_LIMITER_MAX_CONCURRENT, "2");
+        CimRequestLimiter limiter = CimRequestLimiter.create(settings.asConfig());
+        assertEquals(2, limiter.getMaxConcurrent());
+        assertTrue(directory.isDirectory());
+    }
+
+    @Test
+    public void acquire_WaitsForSlotAndInterval() throws Exception {
+        CimRequestLimiter limiter = new CimRequestLimiter(temp.getRoot(), 1, 100);
+        ImportStatistics statistics = new ImportStatistics();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CimRequestLimiter.Permit permit = limiter.acquire(null);
+            Future<?> waiting = executor.submit(() -> {
+                limiter.acquire(statistics).close();
+                return null;
+            });
+
+            Thread.sleep(200);
+            assertFalse(waiting.isDone());
+            permit.close();
+            waiting.get(5, TimeUnit.SECONDS);
+
+            assertTrue(statistics.getTimeMillis(ImportStatistics.Phase.CIM_WAIT) >= 150);
+            assertEquals(1, statistics.getCount(ImportStatistics.DELAYED_CIM_CALLS));
+
+            long start = System.nanoTime();
+            limiter.acquire(statistics).close();
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void acquire_KeepsSlotLockedForOtherProcesses_WhileAnotherThreadWaits() throws Exception {
+        CimRequestLimiter limiter = new CimRequestLimiter(temp.getRoot(), 1, 0);
+        File slotFile = new File(temp.getRoot(), CimRequestLimiter.SLOT_FILE_PREFIX + 0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CimRequestLimiter.Permit permit = limiter.acquire(null);
+            Future<?> waiting = executor.submit(() -> {
+                limiter.acquire(null).close();
+                return null;
+            });
+
+            Thread.sleep(100);
+            assertFalse(waiting.isDone());
+            assertFalse(tryLockInOtherProcess(slotFile));
+
+            permit.close();
+            waiting.get(5, TimeUnit.SECONDS);
+            assertTrue(tryLockInOtherProcess(slotFile));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean tryLockInOtherProcess(File file) throws Exception {
+        Process process = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"), CimRequestLimiterTest.class.getName(), file.getAbsolutePath())
+                .inheritIO()
+                .start();
+        assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+        return process.exitValue() == 0;
+    }
+
+    /**
+     * Exits with 0 when the file given as argument could be locked, with 1 otherwise
+     */
+    public static void main(String[] args) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(args[0]), StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            System.exit(lock != null ? 0 : 1);
+        }
+    }
+}
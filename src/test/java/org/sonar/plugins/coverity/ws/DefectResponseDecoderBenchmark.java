@@ -0,0 +1,79 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v9.GetMergedDefectsForProjectScopeResponse;
+import com.coverity.ws.v9.GetStreamDefectsResponse;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/*
+    CPU benchmark of the reading of the defect responses. It is not run by the unit tests; run it with
+
+        java -cp <test classpath> org.sonar.plugins.coverity.ws.DefectResponseDecoderBenchmark [responses]
+
+    The responses are a page of 1000 merged defects, the page size of CIMClient, and a getStreamDefects response
+    for 100 CIDs with three events each. The benchmark compares the CPU time of the calling thread per response
+    with a JAXB unmarshaller and with DefectResponseDecoder.
+ */
+public class DefectResponseDecoderBenchmark {
+
+    private static final int WARMUP_RESPONSES = 200;
+
+    public static void main(String[] args) throws Exception {
+        int responses = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+        GetMergedDefectsForProjectScopeResponse mergedDefects = new GetMergedDefectsForProjectScopeResponse();
+        mergedDefects.setReturn(DefectResponseDecoderTest.mergedDefectsPage(1000));
+        byte[] mergedDefectsXml = DefectResponseDecoderTest.marshal("getMergedDefectsForProjectScopeResponse",
+                GetMergedDefectsForProjectScopeResponse.class, mergedDefects);
+        byte[] streamDefectsXml = DefectResponseDecoderTest.marshal("getStreamDefectsResponse",
+                GetStreamDefectsResponse.class, DefectResponseDecoderTest.streamDefectsResponse(100));
+
+        Unmarshaller unmarshaller = JAXBContext.newInstance(
+                GetMergedDefectsForProjectScopeResponse.class, GetStreamDefectsResponse.class).createUnmarshaller();
+
+        for (Class<?> type : new Class<?>[]{GetMergedDefectsForProjectScopeResponse.class, GetStreamDefectsResponse.class}) {
+            byte[] xml = type == GetStreamDefectsResponse.class ? streamDefectsXml : mergedDefectsXml;
+
+            run(xml, type, unmarshaller, WARMUP_RESPONSES);
+            run(xml, type, null, WARMUP_RESPONSES);
+
+            report(type.getSimpleName() + " jaxb", responses, run(xml, type, unmarshaller, responses));
+            report(type.getSimpleName() + " decoder", responses, run(xml, type, null, responses));
+        }
+    }
+
+    /**
+     * Returns the CPU time of the current thread to read the responses, in nanoseconds, with the unmarshaller or
+     * with the decoder when it is null
+     */
+    private static long run(byte[] xml, Class<?> type, Unmarshaller unmarshaller, int responses) throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long start = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < responses; i++) {
+            if (unmarshaller != null) {
+                unmarshaller.unmarshal(DefectResponseDecoderTest.openResponse(xml), type);
+            } else {
+                DefectResponseDecoder.read(DefectResponseDecoderTest.openResponse(xml), type);
+            }
+        }
+        return threadMXBean.getCurrentThreadCpuTime() - start;
+    }
+
+    private static void report(String name, int responses, long cpuNanos) {
+        System.out.println(String.format("%-48s %d responses: %.1f us CPU/response", name, responses, cpuNanos / 1e3 / responses));
+    }
+}
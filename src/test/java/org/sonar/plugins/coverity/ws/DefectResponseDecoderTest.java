@@ -0,0 +1,283 @@
+/*
+ * Coverity Sonar Plugin
+ * Copyright (c) 2020 Synopsys, Inc
+ * support@coverity.com
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html.
+ */
+package org.sonar.plugins.coverity.ws;
+
+import com.coverity.ws.v9.*;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Marshaller;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DefectResponseDecoderTest {
+
+    private static final String NAMESPACE = "http://ws.coverity.com/v9";
+
+    @Test
+    public void readMergedDefects_MatchesJaxb() throws Exception {
+        GetMergedDefectsForStreamsResponse response = new GetMergedDefectsForStreamsResponse();
+        response.setReturn(mergedDefectsPage(5));
+        byte[] xml = marshal("getMergedDefectsForStreamsResponse", GetMergedDefectsForStreamsResponse.class, response);
+
+        MergedDefectsPageDataObj expected = unmarshal(xml, GetMergedDefectsForStreamsResponse.class).getReturn();
+        MergedDefectsPageDataObj actual = decode(xml, GetMergedDefectsForStreamsResponse.class).getReturn();
+
+        assertEquals(expected.getTotalNumberOfRecords(), actual.getTotalNumberOfRecords());
+        assertEquals(expected.getMergedDefects().size(), actual.getMergedDefects().size());
+        for (int i = 0; i < expected.getMergedDefects().size(); i++) {
+            assertMergedDefectEquals(expected.getMergedDefects().get(i), actual.getMergedDefects().get(i));
+        }
+        assertTrue(actual.getMergedDefectIds().isEmpty());
+    }
+
+    @Test
+    public void readStreamDefects_MatchesJaxb() throws Exception {
+        byte[] xml = marshal("getStreamDefectsResponse", GetStreamDefectsResponse.class, streamDefectsResponse(5));
+
+        List<StreamDefectDataObj> expected = unmarshal(xml, GetStreamDefectsResponse.class).getReturn();
+        List<StreamDefectDataObj> actual = decode(xml, GetStreamDefectsResponse.class).getReturn();
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertStreamDefectEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void readStreamDefects_SkipsUnusedElements() throws Exception {
+        byte[] xml = marshal("getStreamDefectsResponse", GetStreamDefectsResponse.class, streamDefectsResponse(1));
+
+        StreamDefectDataObj defect = decode(xml, GetStreamDefectsResponse.class).getReturn().get(0);
+
+        assertNull(defect.getId());
+        assertTrue(defect.getHistory().isEmpty());
+        DefectInstanceDataObj defectInstance = defect.getDefectInstances().get(0);
+        assertNull(defectInstance.getFunction());
+        assertTrue(defectInstance.getProperties().isEmpty());
+        EventDataObj event = defectInstance.getEvents().get(0);
+        assertEquals(0, event.getEventNumber());
+        assertTrue(event.getEvents().isEmpty());
+    }
+
+    @Test
+    public void readMergedDefects_SharesRepeatedText() throws Exception {
+        GetMergedDefectsForProjectScopeResponse response = new GetMergedDefectsForProjectScopeResponse();
+        response.setReturn(mergedDefectsPage(2));
+        byte[] xml = marshal("getMergedDefectsForProjectScopeResponse", GetMergedDefectsForProjectScopeResponse.class, response);
+
+        List<MergedDefectDataObj> defects = decode(xml, GetMergedDefectsForProjectScopeResponse.class).getReturn().getMergedDefects();
+
+        assertSame(defects.get(0).getCheckerName(), defects.get(1).getCheckerName());
+        assertSame(defects.get(0).getLastDetectedStream(), defects.get(1).getLastDetectedStream());
+        assertSame(defects.get(0).getDefectStateAttributeValues().get(0).getAttributeValueId().getName(),
+                defects.get(1).getDefectStateAttributeValues().get(0).getAttributeValueId().getName());
+    }
+
+    static MergedDefectsPageDataObj mergedDefectsPage(int defects) throws Exception {
+        DatatypeFactory datatypeFactory = DatatypeFactory.newInstance();
+        MergedDefectsPageDataObj page = new MergedDefectsPageDataObj();
+        for (int i = 0; i < defects; i++) {
+            MergedDefectIdDataObj mergedDefectId = new MergedDefectIdDataObj();
+            mergedDefectId.setCid(10000L + i);
+            page.getMergedDefectIds().add(mergedDefectId);
+
+            MergedDefectDataObj defect = new MergedDefectDataObj();
+            defect.setCheckerName("NULL_RETURNS");
+            defect.setCid(10000L + i);
+            defect.setComponentName("Default.Other");
+            defect.setCwe(476);
+            defect.getDefectStateAttributeValues().add(newAttribute("Action", "Undecided"));
+            defect.getDefectStateAttributeValues().add(newAttribute("Classification", "Unclassified"));
+            defect.setDisplayCategory("Null pointer dereferences");
+            defect.setDisplayImpact("Medium");
+            defect.setDisplayIssueKind("Quality");
+            defect.setDisplayType("Dereference null return value");
+            defect.setDomain("STATIC_JAVA");
+            defect.setFilePathname("/src/main/java/File" + i + ".java");
+            defect.setFirstDetected(datatypeFactory.newXMLGregorianCalendar("2020-03-01T10:15:30.123+01:00"));
+            defect.setFirstDetectedBy("Snapshot");
+            defect.setFirstDetectedSnapshotId(10001L);
+            defect.setFirstDetectedStream("my-stream");
+            defect.setFunctionDisplayName("File" + i + ".run()");
+            defect.setLastDetected(datatypeFactory.newXMLGregorianCalendar("2020-04-01T08:00:00Z"));
+            defect.setLastDetectedSnapshotId(10002L);
+            defect.setLastDetectedStream("my-stream");
+            defect.setLastTriaged(datatypeFactory.newXMLGregorianCalendar("2020-04-02T08:00:00.000-05:00"));
+            defect.setMergeKey("0a1b2c3d4e5f" + i);
+            defect.setOccurrenceCount(1);
+            page.getMergedDefects().add(defect);
+        }
+        page.setTotalNumberOfRecords(defects);
+        return page;
+    }
+
+    static GetStreamDefectsResponse streamDefectsResponse(int defects) {
+        GetStreamDefectsResponse response = new GetStreamDefectsResponse();
+        for (int i = 0; i < defects; i++) {
+            StreamDefectDataObj defect = new StreamDefectDataObj();
+            defect.setCheckerName("NULL_RETURNS");
+            defect.setCid(10000L + i);
+            defect.setDomain("STATIC_JAVA");
+            StreamDefectIdDataObj id = new StreamDefectIdDataObj();
+            id.setId(20000L + i);
+            defect.setId(id);
+            DefectStateDataObj state = new DefectStateDataObj();
+            state.setUserCreated("admin");
+            state.getDefectStateAttributeValues().add(newAttribute("Action", "Undecided"));
+            defect.getHistory().add(state);
+            StreamIdDataObj streamId = new StreamIdDataObj();
+            streamId.setName("my-stream");
+            defect.setStreamId(streamId);
+
+            DefectInstanceDataObj defectInstance = new DefectInstanceDataObj();
+            defectInstance.setCheckerName("NULL_RETURNS");
+            defectInstance.setDomain("STATIC_JAVA");
+            defectInstance.setImpact(newLocalizedValue("Medium", "Medium"));
+            defectInstance.setType(newLocalizedValue("Dereference null return value", "Dereference null return value"));
+            defectInstance.setLongDescription("The return value of a method that may return null is dereferenced.");
+            defectInstance.setSubcategory("none");
+            defectInstance.setExtra("run");
+            FunctionInfoDataObj function = new FunctionInfoDataObj();
+            function.setFunctionDisplayName("File" + i + ".run()");
+            defectInstance.setFunction(function);
+            PropertyDataObj property = new PropertyDataObj();
+            property.setKey("reason");
+            property.setValue("returned_null");
+            defectInstance.getProperties().add(property);
+            for (int j = 0; j < 3; j++) {
+                EventDataObj event = newEvent(j, "/src/main/java/File" + i + ".java", j == 2);
+                event.getEvents().add(newEvent(10 + j, "/src/main/java/Util.java", false));
+                defectInstance.getEvents().add(event);
+            }
+            defect.getDefectInstances().add(defectInstance);
+            response.getReturn().add(defect);
+        }
+        return response;
+    }
+
+    static <T> byte[] marshal(String elementName, Class<T> type, T value) throws Exception {
+        Marshaller marshaller = JAXBContext.newInstance(type).createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        marshaller.marshal(new JAXBElement<>(new QName(NAMESPACE, elementName), type, value), out);
+        return out.toByteArray();
+    }
+
+    static <T> T unmarshal(byte[] xml, Class<T> type) throws Exception {
+        return JAXBContext.newInstance(type).createUnmarshaller().unmarshal(openResponse(xml), type).getValue();
+    }
+
+    static <T> T decode(byte[] xml, Class<T> type) throws Exception {
+        XMLStreamReader reader = openResponse(xml);
+        T response = DefectResponseDecoder.read(reader, type);
+        assertEquals(XMLStreamConstants.END_ELEMENT, reader.getEventType());
+        return response;
+    }
+
+    static XMLStreamReader openResponse(byte[] xml) throws Exception {
+        XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(new ByteArrayInputStream(xml));
+        reader.nextTag();
+        return reader;
+    }
+
+    private static void assertMergedDefectEquals(MergedDefectDataObj expected, MergedDefectDataObj actual) {
+        assertEquals(expected.getCheckerName(), actual.getCheckerName());
+        assertEquals(expected.getCid(), actual.getCid());
+        assertEquals(expected.getDefectStateAttributeValues().size(), actual.getDefectStateAttributeValues().size());
+        for (int i = 0; i < expected.getDefectStateAttributeValues().size(); i++) {
+            DefectStateAttributeValueDataObj expectedValue = expected.getDefectStateAttributeValues().get(i);
+            DefectStateAttributeValueDataObj actualValue = actual.getDefectStateAttributeValues().get(i);
+            assertEquals(expectedValue.getAttributeDefinitionId().getName(), actualValue.getAttributeDefinitionId().getName());
+            assertEquals(expectedValue.getAttributeValueId().getName(), actualValue.getAttributeValueId().getName());
+        }
+        assertEquals(expected.getDisplayImpact(), actual.getDisplayImpact());
+        assertEquals(expected.getDisplayType(), actual.getDisplayType());
+        assertEquals(expected.getDomain(), actual.getDomain());
+        assertEquals(expected.getFilePathname(), actual.getFilePathname());
+        assertEquals(expected.getFirstDetected(), actual.getFirstDetected());
+        assertEquals(expected.getLastDetected(), actual.getLastDetected());
+        assertEquals(expected.getLastDetectedStream(), actual.getLastDetectedStream());
+        assertEquals(expected.getLastFixed(), actual.getLastFixed());
+        assertEquals(expected.getLastTriaged(), actual.getLastTriaged());
+        assertEquals(expected.getMergeKey(), actual.getMergeKey());
+    }
+
+    private static void assertStreamDefectEquals(StreamDefectDataObj expected, StreamDefectDataObj actual) {
+        assertEquals(expected.getCheckerName(), actual.getCheckerName());
+        assertEquals(expected.getCid(), actual.getCid());
+        assertEquals(expected.getDomain(), actual.getDomain());
+        assertEquals(expected.getStreamId().getName(), actual.getStreamId().getName());
+        assertEquals(expected.getDefectInstances().size(), actual.getDefectInstances().size());
+        for (int i = 0; i < expected.getDefectInstances().size(); i++) {
+            DefectInstanceDataObj expectedInstance = expected.getDefectInstances().get(i);
+            DefectInstanceDataObj actualInstance = actual.getDefectInstances().get(i);
+            assertEquals(expectedInstance.getCheckerName(), actualInstance.getCheckerName());
+            assertEquals(expectedInstance.getDomain(), actualInstance.getDomain());
+            assertEquals(expectedInstance.getImpact().getName(), actualInstance.getImpact().getName());
+            assertEquals(expectedInstance.getImpact().getDisplayName(), actualInstance.getImpact().getDisplayName());
+            assertEquals(expectedInstance.getLongDescription(), actualInstance.getLongDescription());
+            assertEquals(expectedInstance.getSubcategory(), actualInstance.getSubcategory());
+            assertEquals(expectedInstance.getEvents().size(), actualInstance.getEvents().size());
+            for (int j = 0; j < expectedInstance.getEvents().size(); j++) {
+                EventDataObj expectedEvent = expectedInstance.getEvents().get(j);
+                EventDataObj actualEvent = actualInstance.getEvents().get(j);
+                assertEquals(expectedEvent.getEventDescription(), actualEvent.getEventDescription());
+                assertEquals(expectedEvent.getEventTag(), actualEvent.getEventTag());
+                assertEquals(expectedEvent.getFileId().getFilePathname(), actualEvent.getFileId().getFilePathname());
+                assertEquals(expectedEvent.getLineNumber(), actualEvent.getLineNumber());
+                assertEquals(expectedEvent.isMain(), actualEvent.isMain());
+            }
+        }
+    }
+
+    private static DefectStateAttributeValueDataObj newAttribute(String name, String value) {
+        AttributeDefinitionIdDataObj definitionId = new AttributeDefinitionIdDataObj();
+        definitionId.setName(name);
+        AttributeValueIdDataObj valueId = new AttributeValueIdDataObj();
+        valueId.setName(value);
+        DefectStateAttributeValueDataObj attributeValue = new DefectStateAttributeValueDataObj();
+        attributeValue.setAttributeDefinitionId(definitionId);
+        attributeValue.setAttributeValueId(valueId);
+        return attributeValue;
+    }
+
+    private static LocalizedValueDataObj newLocalizedValue(String name, String displayName) {
+        LocalizedValueDataObj localizedValue = new LocalizedValueDataObj();
+        localizedValue.setName(name);
+        localizedValue.setDisplayName(displayName);
+        return localizedValue;
+    }
+
+    private static EventDataObj newEvent(int eventNumber, String filePathname, boolean main) {
+        FileIdDataObj fileId = new FileIdDataObj();
+        fileId.setFilePathname(filePathname);
+        fileId.setContentsMD5("d41d8cd98f00b204e9800998ecf8427e");
+        EventDataObj event = new EventDataObj();
+        event.setEventNumber(eventNumber);
+        event.setEventKind("NORMAL");
+        event.setEventTag(main ? "dereference" : "returned_null");
+        event.setEventDescription(main ? "Dereferencing a pointer that might be null." : "Method may return null.");
+        event.setFileId(fileId);
+        event.setLineNumber(10 * eventNumber + 1);
+        event.setMain(main);
+        return event;
+    }
+}
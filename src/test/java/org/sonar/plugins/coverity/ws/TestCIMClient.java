@@ -17,12 +17,18 @@ import org.apache.commons.lang.StringUtils;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.ws.WebServiceException;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class TestCIMClient extends CIMClient {
 
@@ -66,9 +72,27 @@ public class TestCIMClient extends CIMClient {
         testDefectService.configureMainEvent(eventTag, eventDescription);
     }
 
+    public void setupComponentMap(String componentMapName, Map<String, String> pathRules) {
+        testConfigurationService.setupComponentMap(componentMapName, pathRules);
+    }
+
+    public TestDefectService getTestDefectService() {
+        return testDefectService;
+    }
+
+    /**
+     * Adds a snapshot committed now to the given stream
+     */
+    public void setupSnapshot(String streamName, long snapshotId) {
+        testConfigurationService.setupSnapshot(streamName, snapshotId);
+    }
+
     public static class TestConfigurationService implements ConfigurationService {
         private List<ProjectDataObj> projects;
         private List<StreamDataObj> streams;
+        private List<ComponentMapDataObj> componentMaps = new ArrayList<>();
+        private Map<Long, String> snapshotStreams = new LinkedHashMap<>();
+        private Map<Long, Long> snapshotTimes = new LinkedHashMap<>();
 
         public TestConfigurationService() {
 
@@ -92,6 +116,34 @@ public class TestCIMClient extends CIMClient {
             projects.add(projectDataObj);
         }
 
+        /**
+         * Adds a component map with the given path patterns and component names, used by all streams
+         */
+        public void setupComponentMap(String componentMapName, Map<String, String> pathRules) {
+            ComponentMapDataObj componentMap = new ComponentMapDataObj();
+            ComponentMapIdDataObj componentMapId = new ComponentMapIdDataObj();
+            componentMapId.setName(componentMapName);
+            componentMap.setComponentMapId(componentMapId);
+            for (Map.Entry<String, String> pathRule : pathRules.entrySet()) {
+                ComponentPathRuleDataObj rule = new ComponentPathRuleDataObj();
+                ComponentIdDataObj componentId = new ComponentIdDataObj();
+                componentId.setName(pathRule.getValue());
+                rule.setComponentId(componentId);
+                rule.setPathPattern(pathRule.getKey());
+                componentMap.getComponentPathRules().add(rule);
+            }
+            componentMaps.add(componentMap);
+
+            for (StreamDataObj stream : streams) {
+                stream.setComponentMapId(componentMapId);
+            }
+            for (ProjectDataObj project : projects) {
+                for (StreamDataObj stream : project.getStreams()) {
+                    stream.setComponentMapId(componentMapId);
+                }
+            }
+        }
+
         public void setupStream(String streamName){
             StreamDataObj streamDataObj = new StreamDataObj();
             StreamIdDataObj streamIdDataObj = new StreamIdDataObj();
@@ -238,7 +290,23 @@ public class TestCIMClient extends CIMClient {
 
         @Override
         public List<SnapshotIdDataObj> getSnapshotsForStream(StreamIdDataObj streamId, SnapshotFilterSpecDataObj filterSpec) throws CovRemoteServiceException_Exception {
-            throw new NotImplementedException();
+            long since = filterSpec != null && filterSpec.getStartDate() != null
+                    ? filterSpec.getStartDate().toGregorianCalendar().getTimeInMillis() : 0;
+
+            List<SnapshotIdDataObj> snapshotIds = new ArrayList<>();
+            for (Map.Entry<Long, String> snapshot : snapshotStreams.entrySet()) {
+                if (snapshot.getValue().equals(streamId.getName()) && snapshotTimes.get(snapshot.getKey()) >= since) {
+                    SnapshotIdDataObj snapshotId = new SnapshotIdDataObj();
+                    snapshotId.setId(snapshot.getKey());
+                    snapshotIds.add(snapshotId);
+                }
+            }
+            return snapshotIds;
+        }
+
+        public void setupSnapshot(String streamName, long snapshotId) {
+            snapshotStreams.put(snapshotId, streamName);
+            snapshotTimes.put(snapshotId, System.currentTimeMillis());
         }
 
         @Override
@@ -318,7 +386,12 @@ public class TestCIMClient extends CIMClient {
 
         @Override
         public List<ComponentMapDataObj> getComponentMaps(ComponentMapFilterSpecDataObj filterSpec) throws CovRemoteServiceException_Exception {
-            throw new NotImplementedException();
+            List<ComponentMapDataObj> matchingComponentMaps = new ArrayList<>();
+            for (ComponentMapDataObj componentMap : componentMaps) {
+                if (componentMap.getComponentMapId().getName().equals(filterSpec.getNamePattern()))
+                    matchingComponentMaps.add(componentMap);
+            }
+            return matchingComponentMaps;
         }
 
         @Override
@@ -533,6 +606,11 @@ public class TestCIMClient extends CIMClient {
         private String mainEventTag;
         private String mainEventDescription;
         private List<String> filePaths;
+        private List<MergedDefectFilterSpecDataObj> streamQueries = new ArrayList<>();
+        private int failingRangeQueries;
+        private Set<Long> baselineCids = new HashSet<>();
+        private List<SnapshotScopeSpecDataObj> snapshotScopes = new ArrayList<>();
+        private List<ProjectScopeDefectFilterSpecDataObj> projectQueries = new ArrayList<>();
 
         public TestDefectService(){
             this.mainEventDescription = "Event Description";
@@ -566,6 +644,9 @@ public class TestCIMClient extends CIMClient {
             defectDataObj.setDisplayImpact("Low");
             defectDataObj.setComponentName("Default.Other");
             defectDataObj.setLastDetectedStream(streamName);
+            if (filePaths != null && !filePaths.isEmpty()) {
+                defectDataObj.setFilePathname(filePaths.get(0));
+            }
 
             try {
                 GregorianCalendar calender = new GregorianCalendar();
@@ -664,24 +745,59 @@ public class TestCIMClient extends CIMClient {
 
         @Override
         public MergedDefectsPageDataObj getMergedDefectsForStreams(List<StreamIdDataObj> streamIds, MergedDefectFilterSpecDataObj filterSpec, PageSpecDataObj pageSpec, SnapshotScopeSpecDataObj snapshotScope) throws CovRemoteServiceException_Exception {
+            streamQueries.add(filterSpec);
+            if (filterSpec.getMinCid() != null && failingRangeQueries > 0) {
+                failingRangeQueries--;
+                throw new WebServiceException("Connection reset");
+            }
+
+            List<MergedDefectIdDataObj> matchingIds = new ArrayList<>();
+            List<MergedDefectDataObj> matchingDefects = new ArrayList<>();
+            for (int i = 0; i < mergedDefects.size(); i++) {
+                long cid = mergedDefects.get(i).getCid();
+                if ((filterSpec.getMinCid() == null || cid >= filterSpec.getMinCid())
+                        && (filterSpec.getMaxCid() == null || cid <= filterSpec.getMaxCid())) {
+                    matchingIds.add(mergedDefectIds.get(i));
+                    matchingDefects.add(mergedDefects.get(i));
+                }
+            }
+            if ("cid".equals(pageSpec.getSortField()) && !pageSpec.isSortAscending()) {
+                Collections.reverse(matchingIds);
+                Collections.reverse(matchingDefects);
+            }
+
             MergedDefectsPageDataObj mergedDefectsPageDataObj = new MergedDefectsPageDataObj();
 
-            final int totalRecords = mergedDefects.size();
+            final int totalRecords = matchingDefects.size();
             mergedDefectsPageDataObj.setTotalNumberOfRecords(totalRecords);
 
             int toIndex = pageSpec.getStartIndex() + pageSpec.getPageSize();
-            if (toIndex > mergedDefects.size())
-                toIndex = mergedDefects.size();
+            if (toIndex > matchingDefects.size())
+                toIndex = matchingDefects.size();
 
-            List<MergedDefectIdDataObj> defectIds = mergedDefectIds.subList(pageSpec.getStartIndex(), toIndex);
+            List<MergedDefectIdDataObj> defectIds = matchingIds.subList(pageSpec.getStartIndex(), toIndex);
             mergedDefectsPageDataObj.getMergedDefectIds().addAll(defectIds);
 
-            List<MergedDefectDataObj> defects = mergedDefects.subList(pageSpec.getStartIndex(), toIndex);
+            List<MergedDefectDataObj> defects = matchingDefects.subList(pageSpec.getStartIndex(), toIndex);
             mergedDefectsPageDataObj.getMergedDefects().addAll(defects);
 
             return mergedDefectsPageDataObj;
         }
 
+        /**
+         * The filters of all getMergedDefectsForStreams calls
+         */
+        public List<MergedDefectFilterSpecDataObj> getStreamQueries() {
+            return streamQueries;
+        }
+
+        /**
+         * Makes the next calls of getMergedDefectsForStreams with a CID range fail
+         */
+        public void failRangeQueries(int count) {
+            failingRangeQueries = count;
+        }
+
         @Override
         public List<DefectChangeDataObj> getMergedDefectHistory(MergedDefectIdDataObj mergedDefectIdDataObj, List<StreamIdDataObj> streamIds) throws CovRemoteServiceException_Exception {
             throw new NotImplementedException();
@@ -714,7 +830,42 @@ public class TestCIMClient extends CIMClient {
 
         @Override
         public MergedDefectsPageDataObj getMergedDefectsForSnapshotScope(ProjectIdDataObj projectId, SnapshotScopeDefectFilterSpecDataObj filterSpec, PageSpecDataObj pageSpec, SnapshotScopeSpecDataObj snapshotScope) throws CovRemoteServiceException_Exception {
-            throw new NotImplementedException();
+            snapshotScopes.add(snapshotScope);
+
+            List<MergedDefectDataObj> matchingDefects = new ArrayList<>();
+            for (MergedDefectDataObj defect : mergedDefects) {
+                if (snapshotScope.getCompareSelector() == null
+                        || !CIMClient.ISSUE_COMPARISON_ABSENT.equals(filterSpec.getIssueComparison())
+                        || !baselineCids.contains(defect.getCid())) {
+                    matchingDefects.add(defect);
+                }
+            }
+
+            MergedDefectsPageDataObj mergedDefectsPageDataObj = new MergedDefectsPageDataObj();
+            mergedDefectsPageDataObj.setTotalNumberOfRecords(matchingDefects.size());
+            int toIndex = Math.min(pageSpec.getStartIndex() + pageSpec.getPageSize(), matchingDefects.size());
+            mergedDefectsPageDataObj.getMergedDefects().addAll(matchingDefects.subList(pageSpec.getStartIndex(), toIndex));
+
+            return mergedDefectsPageDataObj;
+        }
+
+        /**
+         * The defects found in the baseline snapshot, which getMergedDefectsForSnapshotScope does not return
+         * when it compares snapshots
+         */
+        public void addBaselineCid(long cid) {
+            baselineCids.add(cid);
+        }
+
+        /**
+         * The filters of all getMergedDefectsForProjectScope calls
+         */
+        public List<ProjectScopeDefectFilterSpecDataObj> getProjectQueries() {
+            return projectQueries;
+        }
+
+        public List<SnapshotScopeSpecDataObj> getSnapshotScopes() {
+            return snapshotScopes;
         }
 
         @Override
@@ -724,6 +875,7 @@ public class TestCIMClient extends CIMClient {
 
         @Override
         public MergedDefectsPageDataObj getMergedDefectsForProjectScope(ProjectIdDataObj projectId, ProjectScopeDefectFilterSpecDataObj filterSpec, PageSpecDataObj pageSpec) throws CovRemoteServiceException_Exception {
+            projectQueries.add(filterSpec);
             MergedDefectsPageDataObj mergedDefectsPageDataObj = new MergedDefectsPageDataObj();
 
             final int totalRecords = mergedDefects.size();